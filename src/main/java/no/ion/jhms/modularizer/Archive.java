@@ -0,0 +1,255 @@
+package no.ion.jhms.modularizer;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static no.ion.jhms.modularizer.Exceptions.uncheckIO;
+
+/**
+ * An open ZIP archive like a JAR file.  Only the central directory is read up front, and an entry is read by
+ * mapping and inflating its data alone.
+ *
+ * <p>An archive may also be stored uncompressed as an entry of another archive, e.g. a library in
+ * BOOT-INF/lib of a Spring Boot JAR, see {@link #openNested(CentralDirectoryHeader)}.</p>
+ */
+public class Archive implements AutoCloseable {
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+
+    private final Path path;
+    private final FileChannel channel;
+    private final CentralDirectory centralDirectory;
+    /** Whether the channel is closed by {@link #close()}, i.e. it is not shared with an enclosing archive. */
+    private final boolean ownsChannel;
+
+    public static Archive open(Path path) {
+        FileChannel channel = uncheckIO(() -> FileChannel.open(path, READ));
+        try {
+            return new Archive(path, channel, CentralDirectory.read(channel), true);
+        } catch (RuntimeException e) {
+            uncheckIO(channel::close);
+            throw e;
+        }
+    }
+
+    Archive(Path path, FileChannel channel, CentralDirectory centralDirectory, boolean ownsChannel) {
+        this.path = path;
+        this.channel = channel;
+        this.centralDirectory = centralDirectory;
+        this.ownsChannel = ownsChannel;
+    }
+
+    /**
+     * Open the archive stored uncompressed in the given entry of this archive, reading it directly from the file
+     * of this archive.  This archive must remain open while the nested archive is in use.
+     */
+    public Archive openNested(CentralDirectoryHeader header) {
+        if (header.method() != CentralDirectoryHeader.METHOD_STORED) {
+            throw new IllegalArgumentException("nested archive is compressed: " + header.name());
+        }
+
+        long start = dataPosition(header);
+        CentralDirectory nestedCentralDirectory = CentralDirectory.read(channel, start, start + header.size());
+        return new Archive(Path.of(path + Jar.NESTED_SEPARATOR + header.name()), channel, nestedCentralDirectory,
+                false);
+    }
+
+    public Path path() { return path; }
+    public FileChannel channel() { return channel; }
+    public CentralDirectory centralDirectory() { return centralDirectory; }
+
+    public Optional<CentralDirectoryHeader> find(String name) { return centralDirectory.find(name); }
+
+    /** Returns the uncompressed content of the entry. */
+    public byte[] readEntry(CentralDirectoryHeader header) {
+        if (header.size() > Integer.MAX_VALUE - 8 || header.compressedSize() > Integer.MAX_VALUE - 8) {
+            throw new BadArchiveException("entry too large: " + header.name());
+        }
+
+        long position = dataPosition(header);
+        ByteBuffer data = CentralDirectory.map(channel, position, (int) header.compressedSize());
+        byte[] content = new byte[(int) header.size()];
+
+        switch (header.method()) {
+            case CentralDirectoryHeader.METHOD_STORED:
+                if (header.compressedSize() != header.size()) {
+                    throw new BadArchiveException("stored entry with different sizes: " + header.name());
+                }
+                data.get(content);
+                break;
+            case CentralDirectoryHeader.METHOD_DEFLATED:
+                inflate(header, data, content);
+                break;
+            default:
+                throw new BadArchiveException("unsupported compression method " + header.method() + ": " + header.name());
+        }
+
+        var crc32 = new CRC32();
+        crc32.update(content);
+        if ((int) crc32.getValue() != header.crc()) {
+            throw new BadArchiveException("CRC mismatch: " + header.name());
+        }
+
+        return content;
+    }
+
+    /**
+     * Returns a stream of the uncompressed content of the entry, which is read from the file as the stream is read.
+     * Unlike {@link #readEntry(CentralDirectoryHeader)}, the CRC is not verified.
+     */
+    public InputStream openEntry(CentralDirectoryHeader header) {
+        InputStream data = new ChannelInputStream(channel, dataPosition(header), header.compressedSize());
+        switch (header.method()) {
+            case CentralDirectoryHeader.METHOD_STORED:
+                return data;
+            case CentralDirectoryHeader.METHOD_DEFLATED:
+                var inflater = new Inflater(true);
+                // Inflater requires an extra dummy byte with nowrap, like java.util.zip.ZipFile provides.
+                var dataWithDummyByte = new SequenceInputStream(data, new ByteArrayInputStream(new byte[1]));
+                return new InflaterInputStream(dataWithDummyByte, inflater) {
+                    @Override
+                    public void close() throws IOException {
+                        super.close();
+                        inflater.end();
+                    }
+                };
+            default:
+                throw new BadArchiveException("unsupported compression method " + header.method() + ": " + header.name());
+        }
+    }
+
+    /** The position in the file of the first byte of the (compressed) data of the entry. */
+    public long dataPosition(CentralDirectoryHeader header) {
+        long localHeaderPosition = centralDirectory.archiveStart() + header.localHeaderOffset();
+        ByteBuffer localHeader = readLocalHeader(header);
+        int nameLength = Short.toUnsignedInt(localHeader.getShort(26));
+        int extraLength = Short.toUnsignedInt(localHeader.getShort(28));
+        return localHeaderPosition + JarRewriter.LOCAL_HEADER_FIXED_SIZE + nameLength + extraLength;
+    }
+
+    /** The length of the local file header, file data, and data descriptor of the entry. */
+    public long entryLength(CentralDirectoryHeader header) {
+        long localHeaderPosition = centralDirectory.archiveStart() + header.localHeaderOffset();
+        long dataEnd = dataPosition(header) + header.compressedSize();
+        long length = dataEnd - localHeaderPosition;
+
+        if (header.hasDataDescriptor()) {
+            // The signature of the data descriptor is optional.
+            ByteBuffer signature = CentralDirectory.readFully(channel, dataEnd, 4);
+            length += signature.getInt(0) == DATA_DESCRIPTOR_SIGNATURE ? 4 : 0;
+            length += hasZip64DataDescriptor(header) ? 20 : 12;
+        }
+
+        return length;
+    }
+
+    /**
+     * Whether the sizes of the data descriptor are 8 bytes, which is the case if the local file header has a Zip64
+     * extra field.  Like java.util.zip, an entry whose sizes do not fit in 4 bytes is also assumed to have one.
+     */
+    private boolean hasZip64DataDescriptor(CentralDirectoryHeader header) {
+        if (header.size() >= CentralDirectoryHeader.ZIP64_MAGIC ||
+                header.compressedSize() >= CentralDirectoryHeader.ZIP64_MAGIC) {
+            return true;
+        }
+
+        ByteBuffer localHeader = readLocalHeader(header);
+        int nameLength = Short.toUnsignedInt(localHeader.getShort(26));
+        int extraLength = Short.toUnsignedInt(localHeader.getShort(28));
+        if (extraLength == 0) {
+            return false;
+        }
+
+        long extraPosition = centralDirectory.archiveStart() + header.localHeaderOffset() +
+                JarRewriter.LOCAL_HEADER_FIXED_SIZE + nameLength;
+        byte[] extra = new byte[extraLength];
+        CentralDirectory.readFully(channel, extraPosition, extraLength).get(extra);
+        return CentralDirectoryHeader.findExtraField(extra, CentralDirectoryHeader.ZIP64_EXTRA_ID).isPresent();
+    }
+
+    private ByteBuffer readLocalHeader(CentralDirectoryHeader header) {
+        long localHeaderPosition = centralDirectory.archiveStart() + header.localHeaderOffset();
+        ByteBuffer localHeader = CentralDirectory.readFully(channel, localHeaderPosition,
+                JarRewriter.LOCAL_HEADER_FIXED_SIZE);
+        if (localHeader.getInt(0) != JarRewriter.LOCAL_HEADER_SIGNATURE) {
+            throw new BadArchiveException("bad local file header for " + header.name());
+        }
+        return localHeader;
+    }
+
+    @Override
+    public void close() {
+        if (ownsChannel) {
+            uncheckIO(channel::close);
+        }
+    }
+
+    /** Reads length bytes of the channel from position, without changing the position of the channel. */
+    private static class ChannelInputStream extends InputStream {
+        private final FileChannel channel;
+        private long position;
+        private long remaining;
+
+        private ChannelInputStream(FileChannel channel, long position, long length) {
+            this.channel = channel;
+            this.position = position;
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] bytes = new byte[1];
+            return read(bytes, 0, 1) == 1 ? Byte.toUnsignedInt(bytes[0]) : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (remaining == 0) {
+                return length == 0 ? 0 : -1;
+            }
+
+            var buffer = ByteBuffer.wrap(bytes, offset, (int) Math.min(length, remaining));
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new BadArchiveException("unexpected end of archive at offset " + position);
+            }
+
+            position += read;
+            remaining -= read;
+            return read;
+        }
+    }
+
+    private static void inflate(CentralDirectoryHeader header, ByteBuffer data, byte[] content) {
+        var inflater = new Inflater(true);
+        try {
+            inflater.setInput(data);
+            int length = 0;
+            while (length < content.length) {
+                int inflated = inflater.inflate(content, length, content.length - length);
+                if (inflated == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += inflated;
+            }
+
+            if (length != content.length) {
+                throw new BadArchiveException("truncated entry: " + header.name());
+            }
+        } catch (DataFormatException e) {
+            throw new BadArchiveException("corrupt entry " + header.name() + ": " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package no.ion.jhms.modularizer;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static no.ion.jhms.modularizer.Exceptions.uncheckIO;
+
+/**
+ * A bounded LRU cache of open {@link Archive}s with their parsed central directories, shared by {@link Jar}s.
+ *
+ * <p>An archive is {@link #acquire(Path) acquired} for use and must be {@link #release(Archive) released}
+ * afterwards.  Released archives remain open in the cache until evicted, which happens when there are more than
+ * the maximum number of open archives, or when the file has changed size, modification time or file key
+ * (e.g. inode) since it was opened.  Archives in use are never closed, and may temporarily make the number of open
+ * archives exceed the maximum.</p>
+ */
+public class ArchiveCache {
+    public static final int DEFAULT_MAX_OPEN_ARCHIVES = 64;
+
+    private static final ArchiveCache shared = new ArchiveCache(DEFAULT_MAX_OPEN_ARCHIVES);
+
+    private final int maxOpenArchives;
+    /** Access-ordered, least recently used first. */
+    private final LinkedHashMap<Path, CachedArchive> cache = new LinkedHashMap<>(16, 0.75f, true);
+    /** All archives handed out and not yet released, including those no longer in cache. */
+    private final Map<Archive, CachedArchive> acquired = new IdentityHashMap<>();
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+
+    private static class CachedArchive {
+        private final Archive archive;
+        private final long size;
+        private final FileTime lastModifiedTime;
+        private final Object fileKey;
+        private int references = 0;
+        private boolean evicted = false;
+
+        private CachedArchive(Archive archive, BasicFileAttributes attributes) {
+            this.archive = archive;
+            this.size = attributes.size();
+            this.lastModifiedTime = attributes.lastModifiedTime();
+            this.fileKey = attributes.fileKey();
+        }
+
+        private boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size() &&
+                    lastModifiedTime.equals(attributes.lastModifiedTime()) &&
+                    Objects.equals(fileKey, attributes.fileKey());
+        }
+    }
+
+    /** The cache shared by all {@link Jar}s by default. */
+    public static ArchiveCache shared() { return shared; }
+
+    public ArchiveCache(int maxOpenArchives) {
+        if (maxOpenArchives < 1) {
+            throw new IllegalArgumentException("maxOpenArchives must be positive: " + maxOpenArchives);
+        }
+        this.maxOpenArchives = maxOpenArchives;
+    }
+
+    /** Returns the open archive at path, which must be {@link #release(Archive) released} after use. */
+    public synchronized Archive acquire(Path path) {
+        Path key = path.toAbsolutePath().normalize();
+        BasicFileAttributes attributes = uncheckIO(() -> Files.readAttributes(key, BasicFileAttributes.class));
+
+        CachedArchive cachedArchive = cache.get(key);
+        if (cachedArchive != null && cachedArchive.matches(attributes)) {
+            ++hits;
+        } else {
+            ++misses;
+            if (cachedArchive != null) {
+                evict(key, cachedArchive);
+            }
+
+            cachedArchive = new CachedArchive(Archive.open(path), attributes);
+            cache.put(key, cachedArchive);
+        }
+
+        ++cachedArchive.references;
+        acquired.put(cachedArchive.archive, cachedArchive);
+        evictLeastRecentlyUsed();
+        return cachedArchive.archive;
+    }
+
+    public synchronized void release(Archive archive) {
+        CachedArchive cachedArchive = acquired.get(archive);
+        if (cachedArchive == null) {
+            throw new IllegalArgumentException("archive not acquired: " + archive.path());
+        }
+
+        if (--cachedArchive.references == 0) {
+            acquired.remove(archive);
+            if (cachedArchive.evicted) {
+                archive.close();
+            } else {
+                evictLeastRecentlyUsed();
+            }
+        }
+    }
+
+    /** Evict the archive at path, e.g. because it is about to be modified. */
+    public synchronized void invalidate(Path path) {
+        Path key = path.toAbsolutePath().normalize();
+        CachedArchive cachedArchive = cache.get(key);
+        if (cachedArchive != null) {
+            evict(key, cachedArchive);
+        }
+    }
+
+    /** Evict all archives.  Archives in use are closed when released. */
+    public synchronized void clear() {
+        List<Path> keys = new ArrayList<>(cache.keySet());
+        keys.forEach(this::invalidate);
+    }
+
+    public int maxOpenArchives() { return maxOpenArchives; }
+    public synchronized int size() { return cache.size(); }
+    public synchronized long hits() { return hits; }
+    public synchronized long misses() { return misses; }
+    public synchronized long evictions() { return evictions; }
+
+    private void evictLeastRecentlyUsed() {
+        Iterator<Map.Entry<Path, CachedArchive>> iterator = cache.entrySet().iterator();
+        while (cache.size() > maxOpenArchives && iterator.hasNext()) {
+            CachedArchive cachedArchive = iterator.next().getValue();
+            if (cachedArchive.references == 0) {
+                iterator.remove();
+                cachedArchive.evicted = true;
+                cachedArchive.archive.close();
+                ++evictions;
+            }
+        }
+    }
+
+    private void evict(Path key, CachedArchive cachedArchive) {
+        cache.remove(key);
+        cachedArchive.evicted = true;
+        if (cachedArchive.references == 0) {
+            cachedArchive.archive.close();
+        }
+        ++evictions;
+    }
+}
@@ -0,0 +1,88 @@
+package no.ion.jhms.modularizer;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.util.Locale;
+import java.util.function.Consumer;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static no.ion.jhms.modularizer.Exceptions.uncheckIO;
+
+/**
+ * Writes a file by writing a temporary file in the same directory and atomically renaming it over the target, so
+ * that the target is either left untouched or completely replaced, even if interrupted.
+ */
+public class AtomicFile {
+    /** How much to force to storage before returning. */
+    public enum Durability {
+        /** Leave it to the operating system. */
+        NONE,
+        /** Force the content of the temporary file before the rename. */
+        FILE,
+        /** Like FILE, and also force the directory after the rename, making the rename itself durable. */
+        ALL;
+
+        public static Durability fromString(String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new ErrorException("not a durability, expected none, file or all: " + name);
+            }
+        }
+    }
+
+    /**
+     * Call writer with a channel open for writing to a temporary file, and rename it to target.  If permissionsFrom
+     * is non-null, its POSIX permissions are copied to the new file.
+     */
+    public static void write(Path target, Path permissionsFrom, Durability durability, Consumer<FileChannel> writer) {
+        Path directory = target.toAbsolutePath().getParent();
+        Path temporaryPath = uncheckIO(() -> Files.createTempFile(directory, target.getFileName().toString(), ".tmp"));
+        try {
+            try (FileChannel channel = FileChannel.open(temporaryPath, WRITE)) {
+                writer.accept(channel);
+                if (durability != Durability.NONE) {
+                    channel.force(true);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+
+            if (permissionsFrom != null) {
+                copyPermissions(permissionsFrom, temporaryPath);
+            }
+
+            uncheckIO(() -> Files.move(temporaryPath, target, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING));
+
+            if (durability == Durability.ALL) {
+                forceDirectory(directory);
+            }
+        } finally {
+            uncheckIO(() -> Files.deleteIfExists(temporaryPath));
+        }
+    }
+
+    private static void copyPermissions(Path from, Path to) {
+        var fromView = Files.getFileAttributeView(from, PosixFileAttributeView.class);
+        var toView = Files.getFileAttributeView(to, PosixFileAttributeView.class);
+        if (fromView != null && toView != null) {
+            uncheckIO(() -> toView.setPermissions(fromView.readAttributes().permissions()));
+        }
+    }
+
+    private static void forceDirectory(Path directory) {
+        try (FileChannel channel = FileChannel.open(directory, READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Directories cannot be opened or forced on all platforms, e.g. Windows, where the rename is
+            // durable once it returns.
+        }
+    }
+}
@@ -1,7 +1,9 @@
 package no.ion.jhms.modularizer;
 
+import java.util.function.IntUnaryOperator;
+
 public abstract class AttributeInfo {
-    private final int attributeNameIndex;
+    private int attributeNameIndex;
     private final int originalAttributeLength;
 
     public AttributeInfo(int attributeNameIndex, int attributeLength) {
@@ -26,4 +28,15 @@ public abstract class AttributeInfo {
     }
 
     protected abstract void attributeSpecificAppendTo(Output output);
+
+    /** Whether {@link #remapConstantIndices(IntUnaryOperator)} knows every constant pool index of the attribute. */
+    public boolean canRemapConstantIndices() { return true; }
+
+    /** Replace each constant pool index of the attribute, including attribute_name_index, by remap of it. */
+    public final void remapConstantIndices(IntUnaryOperator remap) {
+        attributeNameIndex = remap.applyAsInt(attributeNameIndex);
+        attributeSpecificRemapConstantIndices(remap);
+    }
+
+    protected abstract void attributeSpecificRemapConstantIndices(IntUnaryOperator remap);
 }
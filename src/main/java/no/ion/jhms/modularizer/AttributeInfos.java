@@ -2,11 +2,16 @@ package no.ion.jhms.modularizer;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
+import java.util.function.IntUnaryOperator;
 
 public class AttributeInfos {
     private final List<AttributeInfo> attributes = new ArrayList<>();
     private ModuleAttribute moduleAttribute = null;
     private SourceFileAttribute sourceFileAttribute = null;
+    private ModulePackagesAttribute modulePackagesAttribute = null;
+    private ModuleHashesAttribute moduleHashesAttribute = null;
+    private ModuleMainClassAttribute moduleMainClassAttribute = null;
 
     public void add(AttributeInfo attribute) {
         attributes.add(attribute);
@@ -30,6 +35,82 @@ public class AttributeInfos {
         add(sourceFileAttribute);
     }
 
+    public void addModulePackages(ModulePackagesAttribute modulePackagesAttribute) {
+        if (this.modulePackagesAttribute != null) {
+            throw new BadModuleInfoException("More than one ModulePackages attribute");
+        }
+
+        this.modulePackagesAttribute = modulePackagesAttribute;
+        add(modulePackagesAttribute);
+    }
+
+    /** Replace the ModulePackages attribute in place, or add it last if there is none. */
+    public void setModulePackages(ModulePackagesAttribute modulePackagesAttribute) {
+        if (this.modulePackagesAttribute == null) {
+            addModulePackages(modulePackagesAttribute);
+        } else {
+            attributes.set(attributes.indexOf(this.modulePackagesAttribute), modulePackagesAttribute);
+            this.modulePackagesAttribute = modulePackagesAttribute;
+        }
+    }
+
+    public Optional<ModulePackagesAttribute> getModulePackagesAttribute() {
+        return Optional.ofNullable(modulePackagesAttribute);
+    }
+
+    public void addModuleHashes(ModuleHashesAttribute moduleHashesAttribute) {
+        if (this.moduleHashesAttribute != null) {
+            throw new BadModuleInfoException("More than one ModuleHashes attribute");
+        }
+
+        this.moduleHashesAttribute = moduleHashesAttribute;
+        add(moduleHashesAttribute);
+    }
+
+    /** Replace the ModuleHashes attribute in place, or add it last if there is none. */
+    public void setModuleHashes(ModuleHashesAttribute moduleHashesAttribute) {
+        if (this.moduleHashesAttribute == null) {
+            addModuleHashes(moduleHashesAttribute);
+        } else {
+            attributes.set(attributes.indexOf(this.moduleHashesAttribute), moduleHashesAttribute);
+            this.moduleHashesAttribute = moduleHashesAttribute;
+        }
+    }
+
+    public Optional<ModuleHashesAttribute> getModuleHashesAttribute() {
+        return Optional.ofNullable(moduleHashesAttribute);
+    }
+
+    public void addModuleMainClass(ModuleMainClassAttribute moduleMainClassAttribute) {
+        if (this.moduleMainClassAttribute != null) {
+            throw new BadModuleInfoException("More than one ModuleMainClass attribute");
+        }
+
+        this.moduleMainClassAttribute = moduleMainClassAttribute;
+        add(moduleMainClassAttribute);
+    }
+
+    /** Replace the ModuleMainClass attribute in place, or add it last if there is none. */
+    public void setModuleMainClass(ModuleMainClassAttribute moduleMainClassAttribute) {
+        if (this.moduleMainClassAttribute == null) {
+            addModuleMainClass(moduleMainClassAttribute);
+        } else {
+            attributes.set(attributes.indexOf(this.moduleMainClassAttribute), moduleMainClassAttribute);
+            this.moduleMainClassAttribute = moduleMainClassAttribute;
+        }
+    }
+
+    public void removeModuleMainClass() {
+        if (moduleMainClassAttribute != null) {
+            attributes.remove(moduleMainClassAttribute);
+            moduleMainClassAttribute = null;
+        }
+    }
+
+    public Optional<ModuleMainClassAttribute> getModuleMainClassAttribute() {
+        return Optional.ofNullable(moduleMainClassAttribute);
+    }
+
     public ModuleAttribute getModuleAttribute() {
         return moduleAttribute;
     }
@@ -40,6 +121,14 @@ public class AttributeInfos {
         }
     }
 
+    public boolean canRemapConstantIndices() {
+        return attributes.stream().allMatch(AttributeInfo::canRemapConstantIndices);
+    }
+
+    public void remapConstantIndices(IntUnaryOperator remap) {
+        attributes.forEach(attribute -> attribute.remapConstantIndices(remap));
+    }
+
     public void appendTo(Output output) {
         output.appendU2(attributes.size());
         for (var attribute : attributes) {
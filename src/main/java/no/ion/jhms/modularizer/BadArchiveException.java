@@ -0,0 +1,8 @@
+package no.ion.jhms.modularizer;
+
+/** The JAR (ZIP) archive is malformed or uses a feature that is not supported. */
+public class BadArchiveException extends ErrorException {
+    public BadArchiveException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,301 @@
+package no.ion.jhms.modularizer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+
+import static no.ion.jhms.modularizer.Exceptions.uncheckIO;
+
+/**
+ * The central directory of a ZIP archive, read from the end of central directory record and onwards.
+ *
+ * <p>The end of the file and the central directory are memory-mapped, and {@link #find(String)} scans the mapped
+ * central directory without creating objects for the headers that do not match.  The mapping reflects later
+ * modifications of the file, so {@link #headers()} must be called before the archive is modified in place.</p>
+ *
+ * <p>The archive may be preceded by other data, e.g. a launcher script, in case all offsets recorded in the
+ * archive are relative {@link #archiveStart()}.</p>
+ *
+ * <p>Archives with more than 65535 entries, or a central directory beyond 4 GB, have a Zip64 end of central
+ * directory record and locator preceding the end of central directory record.  These are read and written
+ * transparently.</p>
+ */
+public class CentralDirectory {
+    public static final int END_SIGNATURE = 0x06054b50;
+    public static final int END_FIXED_SIZE = 22;
+    public static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    public static final int ZIP64_END_FIXED_SIZE = 56;
+    public static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    public static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+
+    private final long archiveStart;
+    private final long offset;
+    private final long size;
+    private final long entries;
+    private final ByteBuffer buffer;
+    private final byte[] comment;
+
+    private List<CentralDirectoryHeader> headers = null;
+
+    public static CentralDirectory read(FileChannel channel) {
+        return read(channel, 0, uncheckIO(channel::size));
+    }
+
+    /**
+     * Read the central directory of an archive within the given range of the file, e.g. a JAR stored uncompressed
+     * in another JAR.  The {@link #archiveStart()} is relative the start of the file, not the range.
+     */
+    public static CentralDirectory read(FileChannel channel, long start, long end) {
+        int tailLength = (int) Math.min(end - start, END_FIXED_SIZE + MAX_COMMENT_LENGTH);
+        ByteBuffer tail = map(channel, end - tailLength, tailLength);
+
+        int endIndex = findEndRecord(tail);
+        long endPosition = end - tailLength + endIndex;
+
+        tail.position(endIndex + 4);
+        long diskNumber = u2(tail);
+        long centralDirectoryDisk = u2(tail);
+        long entriesOnDisk = u2(tail);
+        long entries = u2(tail);
+        long size = u4(tail);
+        long offset = u4(tail);
+        int commentLength = u2(tail);
+        byte[] comment = new byte[commentLength];
+        tail.get(comment);
+
+        // The end of the central directory, which is the Zip64 end of central directory record if present.
+        long centralDirectoryEnd = endPosition;
+
+        if (entries == 0xFFFF || size == 0xFFFFFFFFL || offset == 0xFFFFFFFFL) {
+            long locatorPosition = endPosition - ZIP64_LOCATOR_SIZE;
+            ByteBuffer locator = locatorPosition < start ? null :
+                    readFully(channel, locatorPosition, ZIP64_LOCATOR_SIZE);
+            if (locator != null && locator.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+                long zip64EndOffset = locator.getLong(8);
+                // The Zip64 end record normally immediately precedes the locator, which also tells the start of
+                // an archive with a prefix.  Otherwise, assume no prefix.
+                long zip64EndPosition = locatorPosition - ZIP64_END_FIXED_SIZE;
+                if (zip64EndPosition < start ||
+                        readFully(channel, zip64EndPosition, 4).getInt(0) != ZIP64_END_SIGNATURE) {
+                    zip64EndPosition = start + zip64EndOffset;
+                }
+
+                ByteBuffer zip64End = readFully(channel, zip64EndPosition, ZIP64_END_FIXED_SIZE);
+                if (zip64End.getInt(0) != ZIP64_END_SIGNATURE) {
+                    throw new BadArchiveException("bad Zip64 end of central directory record at offset " +
+                            zip64EndPosition);
+                }
+
+                diskNumber = Integer.toUnsignedLong(zip64End.getInt(16));
+                centralDirectoryDisk = Integer.toUnsignedLong(zip64End.getInt(20));
+                entriesOnDisk = zip64End.getLong(24);
+                entries = zip64End.getLong(32);
+                size = zip64End.getLong(40);
+                offset = zip64End.getLong(48);
+                centralDirectoryEnd = zip64EndPosition;
+            }
+        }
+
+        if (diskNumber != 0 || centralDirectoryDisk != 0 || entriesOnDisk != entries) {
+            throw new BadArchiveException("multi-disk archives are not supported");
+        }
+
+        if (entries < 0 || size < 0 || offset < 0) {
+            throw new BadArchiveException("bad Zip64 end of central directory record");
+        }
+
+        long archiveStart = centralDirectoryEnd - size - offset;
+        if (archiveStart < start) {
+            throw new BadArchiveException("central directory extends beyond the start of the archive");
+        }
+
+        if (size > Integer.MAX_VALUE) {
+            throw new BadArchiveException("central directory larger than 2 GB is not supported");
+        }
+
+        ByteBuffer buffer = map(channel, archiveStart + offset, (int) size);
+        return new CentralDirectory(archiveStart, offset, size, entries, buffer, comment);
+    }
+
+    private CentralDirectory(long archiveStart, long offset, long size, long entries, ByteBuffer buffer,
+                             byte[] comment) {
+        this.archiveStart = archiveStart;
+        this.offset = offset;
+        this.size = size;
+        this.entries = entries;
+        this.buffer = buffer;
+        this.comment = comment;
+    }
+
+    /** The position in the file of offset 0 of the archive.  Typically 0. */
+    public long archiveStart() { return archiveStart; }
+
+    /** The offset of the start of the central directory, relative {@link #archiveStart()}. */
+    public long offset() { return offset; }
+
+    /** The size of the central directory in bytes. */
+    public long size() { return size; }
+
+    /** The number of entries in the central directory. */
+    public long entries() { return entries; }
+
+    public byte[] comment() { return comment; }
+
+    /** All headers in the order of the central directory, parsed on first access. */
+    public List<CentralDirectoryHeader> headers() {
+        if (headers == null) {
+            ByteBuffer headersBuffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            int capacity = (int) Math.min(entries, size / CentralDirectoryHeader.FIXED_SIZE);
+            List<CentralDirectoryHeader> headers = new ArrayList<>(capacity);
+            for (long i = 0; i < entries; ++i) {
+                headers.add(CentralDirectoryHeader.read(headersBuffer));
+            }
+            this.headers = Collections.unmodifiableList(headers);
+        }
+
+        return headers;
+    }
+
+    /** Find the first header with the given name, by comparing the raw name bytes of each header. */
+    public Optional<CentralDirectoryHeader> find(String name) {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        List<CentralDirectoryHeader> headers = scan(nameBytes, true, true);
+        return headers.isEmpty() ? Optional.empty() : Optional.of(headers.get(0));
+    }
+
+    /**
+     * Find all headers with a name ending in suffix, in the order of the central directory, in a single scan
+     * comparing the raw name bytes of each header.
+     */
+    public List<CentralDirectoryHeader> findAllWithSuffix(String suffix) {
+        return scan(suffix.getBytes(StandardCharsets.UTF_8), false, false);
+    }
+
+    /** Returns the headers whose name equals, or ends with if !exact, nameBytes. */
+    private List<CentralDirectoryHeader> scan(byte[] nameBytes, boolean exact, boolean firstOnly) {
+        List<CentralDirectoryHeader> headers = new ArrayList<>();
+
+        int position = 0;
+        for (long i = 0; i < entries; ++i) {
+            if (position + CentralDirectoryHeader.FIXED_SIZE > buffer.limit() ||
+                    buffer.getInt(position) != CentralDirectoryHeader.SIGNATURE) {
+                throw new BadArchiveException("bad central directory file header at offset " + (offset + position));
+            }
+
+            int nameLength = Short.toUnsignedInt(buffer.getShort(position + 28));
+            int extraLength = Short.toUnsignedInt(buffer.getShort(position + 30));
+            int commentLength = Short.toUnsignedInt(buffer.getShort(position + 32));
+
+            if (exact ? nameLength == nameBytes.length : nameLength >= nameBytes.length) {
+                int namePosition = position + CentralDirectoryHeader.FIXED_SIZE + nameLength - nameBytes.length;
+                if (nameEquals(namePosition, nameBytes)) {
+                    ByteBuffer headerBuffer = buffer.duplicate().order(ByteOrder.LITTLE_ENDIAN).position(position);
+                    headers.add(CentralDirectoryHeader.read(headerBuffer));
+                    if (firstOnly) {
+                        break;
+                    }
+                }
+            }
+
+            position += CentralDirectoryHeader.FIXED_SIZE + nameLength + extraLength + commentLength;
+        }
+
+        return headers;
+    }
+
+    private boolean nameEquals(int position, byte[] nameBytes) {
+        if (position + nameBytes.length > buffer.limit()) {
+            return false;
+        }
+
+        for (int i = 0; i < nameBytes.length; ++i) {
+            if (buffer.get(position + i) != nameBytes[i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Write an end of central directory record for a central directory at offset of size bytes, which must end at
+     * the current position of output.  A Zip64 end of central directory record and locator are written first if
+     * the entries, offset or size do not fit the end of central directory record.
+     */
+    public static void writeEndRecord(ZipOutput output, long entries, long offset, long size, byte[] comment) {
+        if (comment.length > MAX_COMMENT_LENGTH) {
+            throw new BadArchiveException("archive comment too long");
+        }
+
+        boolean zip64 = entries >= 0xFFFF || offset >= 0xFFFFFFFFL || size >= 0xFFFFFFFFL;
+        if (zip64) {
+            long zip64EndOffset = output.position();
+            output.writeU4(ZIP64_END_SIGNATURE);
+            output.writeU8(ZIP64_END_FIXED_SIZE - 12); // size of the remaining record
+            output.writeU2(CentralDirectoryHeader.VERSION_ZIP64); // version made by
+            output.writeU2(CentralDirectoryHeader.VERSION_ZIP64); // version needed to extract
+            output.writeU4(0); // number of this disk
+            output.writeU4(0); // disk with the start of the central directory
+            output.writeU8(entries);
+            output.writeU8(entries);
+            output.writeU8(size);
+            output.writeU8(offset);
+
+            output.writeU4(ZIP64_LOCATOR_SIGNATURE);
+            output.writeU4(0); // disk with the start of the Zip64 end of central directory record
+            output.writeU8(zip64EndOffset);
+            output.writeU4(1); // total number of disks
+        }
+
+        output.writeU4(END_SIGNATURE);
+        output.writeU2(0); // number of this disk
+        output.writeU2(0); // disk with the start of the central directory
+        output.writeU2((int) Math.min(entries, 0xFFFF));
+        output.writeU2((int) Math.min(entries, 0xFFFF));
+        output.writeU4(Math.min(size, 0xFFFFFFFFL));
+        output.writeU4(Math.min(offset, 0xFFFFFFFFL));
+        output.writeU2(comment.length);
+        output.writeBytes(comment);
+    }
+
+    /** Map length bytes of the file at position, read-only and little-endian. */
+    static ByteBuffer map(FileChannel channel, long position, int length) {
+        return uncheckIO(() -> channel.map(FileChannel.MapMode.READ_ONLY, position, length))
+                .order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    static ByteBuffer readFully(FileChannel channel, long position, int length) {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            long readPosition = position + buffer.position();
+            int read = uncheckIO(() -> channel.read(buffer, readPosition));
+            if (read < 0) {
+                throw new BadArchiveException("unexpected end of archive at offset " + readPosition);
+            }
+        }
+        return buffer.flip();
+    }
+
+    /** Returns the index of the end of central directory record within tail. */
+    private static int findEndRecord(ByteBuffer tail) {
+        for (int index = tail.limit() - END_FIXED_SIZE; index >= 0; --index) {
+            if (tail.getInt(index) == END_SIGNATURE) {
+                int commentLength = Short.toUnsignedInt(tail.getShort(index + END_FIXED_SIZE - 2));
+                if (index + END_FIXED_SIZE + commentLength <= tail.limit()) {
+                    return index;
+                }
+            }
+        }
+
+        throw new BadArchiveException("no end of central directory record found, not a ZIP archive");
+    }
+
+    private static int u2(ByteBuffer buffer) { return Short.toUnsignedInt(buffer.getShort()); }
+    private static long u4(ByteBuffer buffer) { return Integer.toUnsignedLong(buffer.getInt()); }
+}
@@ -0,0 +1,253 @@
+package no.ion.jhms.modularizer;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+/** A central directory file header of a ZIP archive, see section 4.3.12 of PKWARE's APPNOTE.TXT. */
+public class CentralDirectoryHeader {
+    public static final int SIGNATURE = 0x02014b50;
+    public static final int FIXED_SIZE = 46;
+
+    public static final int METHOD_STORED = 0;
+    public static final int METHOD_DEFLATED = 8;
+
+    /** General purpose bit 3: crc-32 and sizes are in a data descriptor following the data. */
+    public static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+    /** General purpose bit 11: the name and comment are encoded in UTF-8. */
+    public static final int FLAG_UTF8 = 0x0800;
+
+    /** The header ID of the Zip64 extended information extra field, see section 4.5.3 of APPNOTE.TXT. */
+    public static final int ZIP64_EXTRA_ID = 0x0001;
+    /** The version needed to extract an entry with Zip64 extensions. */
+    public static final int VERSION_ZIP64 = 45;
+    /** The value of a 4-byte size or offset found in the Zip64 extended information extra field instead. */
+    public static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private final int versionMadeBy;
+    private final int versionNeeded;
+    private final int flags;
+    private final int method;
+    private final int lastModifiedTime;
+    private final int lastModifiedDate;
+    private final int crc;
+    private final long compressedSize;
+    private final long size;
+    private final int internalAttributes;
+    private final int externalAttributes;
+    private final long localHeaderOffset;
+    private final byte[] name;
+    private final byte[] extra;
+    private final byte[] comment;
+
+    private String resolvedName = null;
+
+    /** Read the header at the position of buffer, which must be little-endian, and advance the position past it. */
+    public static CentralDirectoryHeader read(ByteBuffer buffer) {
+        int offset = buffer.position();
+        if (buffer.remaining() < FIXED_SIZE || buffer.getInt() != SIGNATURE) {
+            throw new BadArchiveException("bad central directory file header at offset " + offset);
+        }
+
+        int versionMadeBy = u2(buffer);
+        int versionNeeded = u2(buffer);
+        int flags = u2(buffer);
+        int method = u2(buffer);
+        int lastModifiedTime = u2(buffer);
+        int lastModifiedDate = u2(buffer);
+        int crc = buffer.getInt();
+        long compressedSize = u4(buffer);
+        long size = u4(buffer);
+        int nameLength = u2(buffer);
+        int extraLength = u2(buffer);
+        int commentLength = u2(buffer);
+        int diskNumberStart = u2(buffer);
+        int internalAttributes = u2(buffer);
+        int externalAttributes = buffer.getInt();
+        long localHeaderOffset = u4(buffer);
+
+        if (diskNumberStart != 0) {
+            throw new BadArchiveException("multi-disk archives are not supported");
+        }
+
+        if (buffer.remaining() < nameLength + extraLength + commentLength) {
+            throw new BadArchiveException("truncated central directory file header at offset " + offset);
+        }
+
+        byte[] name = new byte[nameLength];
+        buffer.get(name);
+        byte[] extra = new byte[extraLength];
+        buffer.get(extra);
+        byte[] comment = new byte[commentLength];
+        buffer.get(comment);
+
+        if (size == ZIP64_MAGIC || compressedSize == ZIP64_MAGIC || localHeaderOffset == ZIP64_MAGIC) {
+            // Only the fields that overflowed are present in the Zip64 extra field, in this order.
+            ByteBuffer zip64 = findExtraField(extra, ZIP64_EXTRA_ID).orElseThrow(() -> new BadArchiveException(
+                    "missing Zip64 extended information in central directory file header at offset " + offset));
+            try {
+                if (size == ZIP64_MAGIC) size = zip64.getLong();
+                if (compressedSize == ZIP64_MAGIC) compressedSize = zip64.getLong();
+                if (localHeaderOffset == ZIP64_MAGIC) localHeaderOffset = zip64.getLong();
+            } catch (BufferUnderflowException e) {
+                throw new BadArchiveException("truncated Zip64 extended information in central directory file " +
+                        "header at offset " + offset);
+            }
+
+            if (size < 0 || compressedSize < 0 || localHeaderOffset < 0) {
+                throw new BadArchiveException("bad Zip64 extended information in central directory file header " +
+                        "at offset " + offset);
+            }
+        }
+
+        return new CentralDirectoryHeader(versionMadeBy, versionNeeded, flags, method, lastModifiedTime,
+                lastModifiedDate, crc, compressedSize, size, internalAttributes, externalAttributes,
+                localHeaderOffset, name, extra, comment);
+    }
+
+    public CentralDirectoryHeader(int versionMadeBy, int versionNeeded, int flags, int method, int lastModifiedTime,
+                                  int lastModifiedDate, int crc, long compressedSize, long size,
+                                  int internalAttributes, int externalAttributes, long localHeaderOffset,
+                                  byte[] name, byte[] extra, byte[] comment) {
+        this.versionMadeBy = versionMadeBy;
+        this.versionNeeded = versionNeeded;
+        this.flags = flags;
+        this.method = method;
+        this.lastModifiedTime = lastModifiedTime;
+        this.lastModifiedDate = lastModifiedDate;
+        this.crc = crc;
+        this.compressedSize = compressedSize;
+        this.size = size;
+        this.internalAttributes = internalAttributes;
+        this.externalAttributes = externalAttributes;
+        this.localHeaderOffset = localHeaderOffset;
+        this.name = name;
+        this.extra = extra;
+        this.comment = comment;
+    }
+
+    public int versionMadeBy() { return versionMadeBy; }
+    public int versionNeeded() { return versionNeeded; }
+    public int flags() { return flags; }
+    public int method() { return method; }
+    public int lastModifiedTime() { return lastModifiedTime; }
+    public int lastModifiedDate() { return lastModifiedDate; }
+    public int crc() { return crc; }
+    public long compressedSize() { return compressedSize; }
+    public long size() { return size; }
+    public int internalAttributes() { return internalAttributes; }
+    public int externalAttributes() { return externalAttributes; }
+    public long localHeaderOffset() { return localHeaderOffset; }
+    public byte[] nameBytes() { return name; }
+    public byte[] extra() { return extra; }
+    public byte[] comment() { return comment; }
+
+    public String name() {
+        if (resolvedName == null) {
+            // Names that are not flagged as UTF-8 should be IBM437, but like java.util.zip we assume UTF-8.
+            resolvedName = new String(name, StandardCharsets.UTF_8);
+        }
+        return resolvedName;
+    }
+
+    public boolean hasDataDescriptor() { return (flags & FLAG_DATA_DESCRIPTOR) != 0; }
+
+    /** Returns a copy of this header referring to a local file header at a different offset. */
+    public CentralDirectoryHeader withLocalHeaderOffset(long newLocalHeaderOffset) {
+        return new CentralDirectoryHeader(versionMadeBy, versionNeeded, flags, method, lastModifiedTime,
+                lastModifiedDate, crc, compressedSize, size, internalAttributes, externalAttributes,
+                newLocalHeaderOffset, name, extra, comment);
+    }
+
+    /**
+     * Write this header to output.  Sizes and offset that do not fit in 4 bytes are written to a Zip64 extra field,
+     * which replaces any Zip64 extra field of this header.
+     */
+    public void writeTo(ZipOutput output) {
+        var zip64 = ByteBuffer.allocate(3 * 8).order(ByteOrder.LITTLE_ENDIAN);
+        if (size >= ZIP64_MAGIC) zip64.putLong(size);
+        if (compressedSize >= ZIP64_MAGIC) zip64.putLong(compressedSize);
+        if (localHeaderOffset >= ZIP64_MAGIC) zip64.putLong(localHeaderOffset);
+
+        byte[] extra = withoutExtraField(this.extra, ZIP64_EXTRA_ID);
+        if (zip64.position() > 0) {
+            byte[] extraWithZip64 = new byte[extra.length + 4 + zip64.position()];
+            ByteBuffer.wrap(extraWithZip64).order(ByteOrder.LITTLE_ENDIAN)
+                    .putShort((short) ZIP64_EXTRA_ID)
+                    .putShort((short) zip64.position())
+                    .put(zip64.flip())
+                    .put(extra);
+            extra = extraWithZip64;
+        }
+
+        if (extra.length > 0xFFFF) {
+            throw new BadArchiveException("extra field too long: " + name());
+        }
+
+        output.writeU4(SIGNATURE);
+        output.writeU2(versionMadeBy);
+        output.writeU2(zip64.position() > 0 ? Math.max(versionNeeded, VERSION_ZIP64) : versionNeeded);
+        output.writeU2(flags);
+        output.writeU2(method);
+        output.writeU2(lastModifiedTime);
+        output.writeU2(lastModifiedDate);
+        output.writeU4(Integer.toUnsignedLong(crc));
+        output.writeU4(Math.min(compressedSize, ZIP64_MAGIC));
+        output.writeU4(Math.min(size, ZIP64_MAGIC));
+        output.writeU2(name.length);
+        output.writeU2(extra.length);
+        output.writeU2(comment.length);
+        output.writeU2(0); // disk number start
+        output.writeU2(internalAttributes);
+        output.writeU4(Integer.toUnsignedLong(externalAttributes));
+        output.writeU4(Math.min(localHeaderOffset, ZIP64_MAGIC));
+        output.writeBytes(name);
+        output.writeBytes(extra);
+        output.writeBytes(comment);
+    }
+
+    /** Returns the little-endian data of the first extra field with the given header ID, in the format of 4.5.1. */
+    static Optional<ByteBuffer> findExtraField(byte[] extra, int headerId) {
+        ByteBuffer buffer = ByteBuffer.wrap(extra).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.remaining() >= 4) {
+            int id = u2(buffer);
+            int length = u2(buffer);
+            if (length > buffer.remaining()) {
+                break;
+            }
+            if (id == headerId) {
+                return Optional.of(buffer.slice().limit(length).order(ByteOrder.LITTLE_ENDIAN));
+            }
+            buffer.position(buffer.position() + length);
+        }
+        return Optional.empty();
+    }
+
+    /** Returns extra without the extra fields with the given header ID, or extra itself if there are none. */
+    private static byte[] withoutExtraField(byte[] extra, int headerId) {
+        if (findExtraField(extra, headerId).isEmpty()) {
+            return extra;
+        }
+
+        var result = ByteBuffer.allocate(extra.length);
+        ByteBuffer buffer = ByteBuffer.wrap(extra).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.remaining() >= 4) {
+            int start = buffer.position();
+            int id = u2(buffer);
+            int length = Math.min(u2(buffer), buffer.remaining());
+            if (id != headerId) {
+                result.put(extra, start, 4 + length);
+            }
+            buffer.position(buffer.position() + length);
+        }
+
+        byte[] bytes = new byte[result.position()];
+        result.flip().get(bytes);
+        return bytes;
+    }
+
+    private static int u2(ByteBuffer buffer) { return Short.toUnsignedInt(buffer.getShort()); }
+    private static long u4(ByteBuffer buffer) { return Integer.toUnsignedLong(buffer.getInt()); }
+}
@@ -23,9 +23,19 @@ public enum Constant {
 
     private final int tag;
 
+    /** The constant by tag, or null for an unknown tag. */
+    private static final Constant[] BY_TAG = new Constant[21];
+
+    static {
+        Stream.of(values()).forEach(constant -> BY_TAG[constant.tag] = constant);
+    }
+
     public static Constant fromTag(int tag) {
-        return Stream.of(values()).filter(value -> value.tag == tag).findFirst()
-                .orElseThrow(() -> new IllegalArgumentException("Unknown tag: " + tag));
+        Constant constant = 0 <= tag && tag < BY_TAG.length ? BY_TAG[tag] : null;
+        if (constant == null) {
+            throw new IllegalArgumentException("Unknown tag: " + tag);
+        }
+        return constant;
     }
 
     Constant(int tag) {
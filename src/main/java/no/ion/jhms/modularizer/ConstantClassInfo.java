@@ -1,6 +1,6 @@
 package no.ion.jhms.modularizer;
 
-import java.util.Objects;
+import java.util.function.IntUnaryOperator;
 
 public class ConstantClassInfo extends ConstantPoolEntry {
     private final int nameIndex;
@@ -17,6 +17,11 @@ public class ConstantClassInfo extends ConstantPoolEntry {
         output.appendU2(nameIndex);
     }
 
+    @Override
+    public ConstantClassInfo remapIndices(IntUnaryOperator remap) {
+        return new ConstantClassInfo(remap.applyAsInt(nameIndex));
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -27,6 +32,6 @@ public class ConstantClassInfo extends ConstantPoolEntry {
 
     @Override
     public int hashCode() {
-        return Objects.hash(kind(), nameIndex);
+        return 31 * kind().ordinal() + nameIndex;
     }
 }
@@ -1,6 +1,6 @@
 package no.ion.jhms.modularizer;
 
-import java.util.Objects;
+import java.util.function.IntUnaryOperator;
 
 public class ConstantModuleInfo extends ConstantPoolEntry {
     private final int nameIndex;
@@ -18,6 +18,11 @@ public class ConstantModuleInfo extends ConstantPoolEntry {
         output.appendU2(nameIndex);
     }
 
+    @Override
+    public ConstantModuleInfo remapIndices(IntUnaryOperator remap) {
+        return new ConstantModuleInfo(remap.applyAsInt(nameIndex));
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -28,6 +33,6 @@ public class ConstantModuleInfo extends ConstantPoolEntry {
 
     @Override
     public int hashCode() {
-        return Objects.hash(kind(), nameIndex);
+        return 31 * kind().ordinal() + nameIndex;
     }
 }
@@ -1,13 +1,28 @@
 package no.ion.jhms.modularizer;
 
-import java.util.TreeMap;
-
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * The constant pool of a class file, as an array indexed by constant pool index, with a hash index of the entries
+ * to find the index of an existing entry in O(1).
+ */
 public class ConstantPool {
-    private final TreeMap<Integer, ConstantPoolEntry> constantPool = new TreeMap<>();
+    /** constant_pool_count is a u2, so the highest index is 65534. */
+    private static final int MAX_COUNT = 0xFFFF;
+
+    /** The entry with index i is at entries[i], and entries[0] is unused. */
+    private ConstantPoolEntry[] entries = new ConstantPoolEntry[64];
+    private int count = 1;
+    /** The lowest index of each distinct entry. */
+    private final Map<ConstantPoolEntry, Integer> indices = new HashMap<>();
 
     /** constant_pool_count */
     public int count() {
-        return constantPool.size() + 1;
+        return count;
     }
 
     /** Append a unique entry at the expected index. */
@@ -21,7 +36,20 @@ public class ConstantPool {
 
     // TODO: This is probably always unsafe?
     public void replaceUtf8Entry(int index, ConstantUtf8 utf8) {
-        constantPool.put(index, utf8);
+        ConstantPoolEntry replaced = getEntry(index, ConstantUtf8.class, Constant.Utf8);
+        entries[index] = utf8;
+
+        // The replaced entry may have a duplicate at a higher index, and utf8 one at a lower index.
+        if (indices.get(replaced) == index) {
+            indices.remove(replaced);
+            for (int i = index + 1; i < count; ++i) {
+                if (entries[i].equals(replaced)) {
+                    indices.put(replaced, i);
+                    break;
+                }
+            }
+        }
+        indices.merge(utf8, index, Math::min);
     }
 
     /**
@@ -29,25 +57,68 @@ public class ConstantPool {
      * the existing index is returned. 
      */
     public int add(ConstantPoolEntry entry) {
-        for (var pair : constantPool.entrySet()) {
-            var index = pair.getKey();
-            var currentEntry = pair.getValue();
-            
-            if (currentEntry.equals(entry)) {
-                return index;
-            }
-        }
-        
-        return append(entry);
+        Integer index = indices.get(entry);
+        return index == null ? append(entry) : index;
     }
 
     /** Append a unique entry to the constant pool. */
     private int append(ConstantPoolEntry entry) {
-        int index = count();
-        constantPool.put(index, entry);
+        if (count >= MAX_COUNT) {
+            throw new BadModuleInfoException("Too many constant_pool entries");
+        }
+
+        if (count == entries.length) {
+            entries = Arrays.copyOf(entries, Math.min(2 * entries.length, MAX_COUNT));
+        }
+
+        int index = count++;
+        entries[index] = entry;
+        indices.putIfAbsent(entry, index);
         return index;
     }
 
+    /**
+     * Remove the entries that are neither live nor referred to by a live entry, keeping the order of the remaining
+     * entries.  Returns the new index of each old index, with 0 mapping to 0, or empty if no entry was removed.
+     *
+     * @param live the indices of the entries referred to from outside the constant pool, 0 being ignored
+     */
+    public Optional<int[]> compact(BitSet live) {
+        if (live.length() > count) {
+            throw new BadModuleInfoException("There is no constant_pool entry with index " + (live.length() - 1));
+        }
+
+        // Entries only refer to CONSTANT_Utf8_info entries, which refer to nothing, so one pass is enough.
+        BitSet reachable = (BitSet) live.clone();
+        reachable.clear(0);
+        live.stream().filter(index -> index > 0).forEach(index -> entries[index].remapIndices(referredIndex -> {
+            getEntry(referredIndex, ConstantUtf8.class, Constant.Utf8);
+            reachable.set(referredIndex);
+            return referredIndex;
+        }));
+
+        if (reachable.cardinality() == count - 1) {
+            return Optional.empty();
+        }
+
+        // An entry may refer to a later entry, so all new indices must be known before remapping.
+        int[] newIndices = new int[count];
+        int newIndex = 1;
+        for (int index = reachable.nextSetBit(1); index >= 0; index = reachable.nextSetBit(index + 1)) {
+            newIndices[index] = newIndex++;
+        }
+
+        ConstantPoolEntry[] oldEntries = entries;
+        entries = new ConstantPoolEntry[Math.max(newIndex, 64)];
+        count = 1;
+        indices.clear();
+        for (int index = reachable.nextSetBit(1); index >= 0; index = reachable.nextSetBit(index + 1)) {
+            append(oldEntries[index].remapIndices(referredIndex -> newIndices[referredIndex]));
+        }
+
+        return Optional.of(newIndices);
+    }
+
     public String resolveUtf8(int index) {
         return getUtf8Entry(index).toString();
     }
@@ -71,10 +142,10 @@ public class ConstantPool {
     public ConstantModuleInfo getModuleInfoEntry(int index) { return getEntry(index, ConstantModuleInfo.class, Constant.Module); }
 
     private <T extends ConstantPoolEntry> T getEntry(int index, Class<T> clazz, Constant constant) {
-        ConstantPoolEntry entry = constantPool.get(index);
-        if (entry == null) {
+        if (index <= 0 || index >= count) {
             throw new BadModuleInfoException("There is no constant_pool entry with index " + index);
         }
+        ConstantPoolEntry entry = entries[index];
 
         if (entry.kind() != constant || !clazz.isInstance(entry)) {
             throw new IllegalArgumentException("Entry at index " + index + " is not " + constant + ": " + entry.kind());
@@ -85,8 +156,8 @@ public class ConstantPool {
 
     public void appendTo(Output output) {
         output.appendU2(count());
-        for (var entry : constantPool.values()) {
-            entry.appendTo(output);
+        for (int index = 1; index < count; ++index) {
+            entries[index].appendTo(output);
         }
     }
 }
@@ -1,5 +1,7 @@
 package no.ion.jhms.modularizer;
 
+import java.util.function.IntUnaryOperator;
+
 public abstract class ConstantPoolEntry {
     private final Constant constant;
 
@@ -17,4 +19,7 @@ public abstract class ConstantPoolEntry {
     }
 
     protected abstract void entrySpecificAppendTo(Output output);
+
+    /** Returns the entry with each constant pool index it refers to replaced by remap of it. */
+    public ConstantPoolEntry remapIndices(IntUnaryOperator remap) { return this; }
 }
@@ -1,9 +1,15 @@
 package no.ion.jhms.modularizer;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.IntUnaryOperator;
+
 public class GenericAttributeInfo extends AttributeInfo {
     private final String attributeName;
-    private final byte[] bytes;
-    private final int offset;
+    private byte[] bytes;
+    private int offset;
 
     /** @param offset after reading attribute_length. */
     public GenericAttributeInfo(int attributeNameIndex, String attributeName, int attributeLength,
@@ -18,4 +24,115 @@ public class GenericAttributeInfo extends AttributeInfo {
     protected void attributeSpecificAppendTo(Output output) {
         output.writeByteArray(bytes, offset, originalAttributeLength());
     }
+
+    @Override
+    public boolean canRemapConstantIndices() { return constantIndexOffsets().isPresent(); }
+
+    @Override
+    protected void attributeSpecificRemapConstantIndices(IntUnaryOperator remap) {
+        List<Integer> indexOffsets = constantIndexOffsets()
+                .orElseThrow(() -> new IllegalStateException("Unknown layout of attribute " + attributeName));
+
+        byte[] remapped = null;
+        for (int indexOffset : indexOffsets) {
+            int index = u2(indexOffset);
+            int newIndex = remap.applyAsInt(index);
+            if (newIndex != index) {
+                if (remapped == null) {
+                    remapped = Arrays.copyOfRange(bytes, offset, offset + originalAttributeLength());
+                }
+                remapped[indexOffset] = (byte) (newIndex >>> 8);
+                remapped[indexOffset + 1] = (byte) newIndex;
+            }
+        }
+
+        if (remapped != null) {
+            bytes = remapped;
+            offset = 0;
+        }
+    }
+
+    /**
+     * Returns the offset within the attribute info of each u2 constant pool index, or empty if the layout of the
+     * attribute is unknown.  Zero indices, meaning none, are excluded.
+     */
+    private Optional<List<Integer>> constantIndexOffsets() {
+        List<Integer> indexOffsets = new ArrayList<>();
+        switch (attributeName) {
+            case "ModuleResolution":
+            case "SourceDebugExtension":
+                break;
+            case "ModuleTarget":
+                indexOffsets.add(0);
+                break;
+            case "InnerClasses":
+                for (int i = 0, n = u2(0); i < n; ++i) {
+                    int classOffset = 2 + 8 * i;
+                    // inner_class_info_index, outer_class_info_index, and inner_name_index
+                    for (int indexOffset = classOffset; indexOffset < classOffset + 6; indexOffset += 2) {
+                        if (u2(indexOffset) != 0) {
+                            indexOffsets.add(indexOffset);
+                        }
+                    }
+                }
+                break;
+            case "RuntimeVisibleAnnotations":
+            case "RuntimeInvisibleAnnotations":
+                int annotationOffset = 2;
+                for (int i = 0, n = u2(0); i < n; ++i) {
+                    annotationOffset = addAnnotationIndexOffsets(annotationOffset, indexOffsets);
+                }
+                break;
+            default:
+                return Optional.empty();
+        }
+        return Optional.of(indexOffsets);
+    }
+
+    /** Add the offsets of the indices of the annotation at the offset, and return the offset after it. */
+    private int addAnnotationIndexOffsets(int annotationOffset, List<Integer> indexOffsets) {
+        indexOffsets.add(annotationOffset); // type_index
+        int numElementValuePairs = u2(annotationOffset + 2);
+        int pairOffset = annotationOffset + 4;
+        for (int i = 0; i < numElementValuePairs; ++i) {
+            indexOffsets.add(pairOffset); // element_name_index
+            pairOffset = addElementValueIndexOffsets(pairOffset + 2, indexOffsets);
+        }
+        return pairOffset;
+    }
+
+    /** Add the offsets of the indices of the element_value at the offset, and return the offset after it. */
+    private int addElementValueIndexOffsets(int valueOffset, List<Integer> indexOffsets) {
+        char tag = (char) u1(valueOffset);
+        switch (tag) {
+            case 'B': case 'C': case 'D': case 'F': case 'I': case 'J': case 'S': case 'Z': case 's': case 'c':
+                indexOffsets.add(valueOffset + 1); // const_value_index or class_info_index
+                return valueOffset + 3;
+            case 'e':
+                indexOffsets.add(valueOffset + 1); // type_name_index
+                indexOffsets.add(valueOffset + 3); // const_name_index
+                return valueOffset + 5;
+            case '@':
+                return addAnnotationIndexOffsets(valueOffset + 1, indexOffsets);
+            case '[':
+                int elementOffset = valueOffset + 3;
+                for (int i = 0, n = u2(valueOffset + 1); i < n; ++i) {
+                    elementOffset = addElementValueIndexOffsets(elementOffset, indexOffsets);
+                }
+                return elementOffset;
+            default:
+                throw new BadModuleInfoException("Bad element_value tag in " + attributeName + ": " + tag);
+        }
+    }
+
+    private int u1(int infoOffset) {
+        if (infoOffset < 0 || infoOffset >= originalAttributeLength()) {
+            throw new BadModuleInfoException("Truncated " + attributeName + " attribute");
+        }
+        return Byte.toUnsignedInt(bytes[offset + infoOffset]);
+    }
+
+    private int u2(int infoOffset) {
+        return (u1(infoOffset) << 8) | u1(infoOffset + 1);
+    }
 }
@@ -0,0 +1,124 @@
+package no.ion.jhms.modularizer;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.RandomAccess;
+import java.util.function.IntConsumer;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * A growable list of ints backed by an int[], for the constant pool indices of the class file model:  The int
+ * methods neither box nor unbox, while the {@code List<Integer>} methods keep the model's accessors unchanged.
+ */
+public class IntList extends AbstractList<Integer> implements RandomAccess {
+    private static final int[] EMPTY = new int[0];
+
+    private int[] values;
+    private int size = 0;
+
+    public IntList() {
+        this.values = EMPTY;
+    }
+
+    public IntList(int capacity) {
+        this.values = capacity == 0 ? EMPTY : new int[capacity];
+    }
+
+    public IntList(Collection<Integer> values) {
+        this(values.size());
+        values.forEach(this::add);
+    }
+
+    public int getInt(int index) {
+        Objects.checkIndex(index, size);
+        return values[index];
+    }
+
+    public void addInt(int value) {
+        if (size == values.length) {
+            values = Arrays.copyOf(values, Math.max(4, 2 * size));
+        }
+        values[size++] = value;
+        ++modCount;
+    }
+
+    public void forEachInt(IntConsumer consumer) {
+        for (int index = 0; index < size; ++index) {
+            consumer.accept(values[index]);
+        }
+    }
+
+    public void replaceAllInts(IntUnaryOperator operator) {
+        for (int index = 0; index < size; ++index) {
+            values[index] = operator.applyAsInt(values[index]);
+        }
+    }
+
+    @Override
+    public int size() { return size; }
+
+    @Override
+    public Integer get(int index) { return getInt(index); }
+
+    @Override
+    public Integer set(int index, Integer value) {
+        int previous = getInt(index);
+        values[index] = value;
+        return previous;
+    }
+
+    @Override
+    public boolean add(Integer value) {
+        addInt(value);
+        return true;
+    }
+
+    @Override
+    public void add(int index, Integer value) {
+        Objects.checkIndex(index, size + 1);
+        addInt(value);
+        System.arraycopy(values, index, values, index + 1, size - 1 - index);
+        values[index] = value;
+    }
+
+    @Override
+    public Integer remove(int index) {
+        int previous = getInt(index);
+        System.arraycopy(values, index + 1, values, index, size - 1 - index);
+        --size;
+        ++modCount;
+        return previous;
+    }
+
+    @Override
+    public boolean removeIf(Predicate<? super Integer> filter) {
+        int newSize = 0;
+        for (int index = 0; index < size; ++index) {
+            if (!filter.test(values[index])) {
+                values[newSize++] = values[index];
+            }
+        }
+
+        boolean removed = newSize < size;
+        if (removed) {
+            size = newSize;
+            ++modCount;
+        }
+        return removed;
+    }
+
+    @Override
+    public void replaceAll(UnaryOperator<Integer> operator) {
+        replaceAllInts(operator::apply);
+    }
+
+    @Override
+    public void clear() {
+        size = 0;
+        ++modCount;
+    }
+}
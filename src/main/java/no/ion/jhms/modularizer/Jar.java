@@ -1,48 +1,437 @@
 package no.ion.jhms.modularizer;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.PrintStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.Channels;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-import java.util.spi.ToolProvider;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
 
-import static java.util.spi.ToolProvider.findFirst;
-import static no.ion.jhms.modularizer.Exceptions.uncheckIO;
+import javax.lang.model.SourceVersion;
+
+/**
+ * A JAR file.  The archive is opened through an {@link ArchiveCache} on first use and kept open until
+ * {@link #close()}, after which the cache may reuse it for other {@code Jar}s of the same path.
+ *
+ * <p>The JAR may also be an entry of another JAR, as denoted by a path like outer.jar!/BOOT-INF/lib/foo.jar.  A
+ * nested JAR stored uncompressed is read in place within the outer JAR, while a compressed one is streamed
+ * through.  Updating a nested JAR rewrites the outer JAR with only that entry replaced.</p>
+ *
+ * <p>A JMOD file, i.e. a path ending in .jmod, is also supported.  It is a ZIP archive preceded by a 4-byte header,
+ * with module-info.class and other classes in the {@value #JMOD_CLASSES_DIRECTORY} directory.  Entry names passed
+ * to and from this class are relative that directory, e.g. {@value #MODULE_INFO_CLASS}.</p>
+ */
+public class Jar implements AutoCloseable {
+    public static final String MODULE_INFO_CLASS = "module-info.class";
+    public static final String JMOD_CLASSES_DIRECTORY = "classes/";
+    /** Separates the path of the outer JAR from the entry name of a nested JAR. */
+    public static final String NESTED_SEPARATOR = "!/";
+    /** The release of the root module-info.class, as opposed to the versioned ones of a multi-release JAR. */
+    public static final int BASE_RELEASE = 0;
+
+    static final String VERSIONS_DIRECTORY = "META-INF/versions/";
+    static final String META_INF_DIRECTORY = "META-INF/";
+    /** The lowest release of a versioned module-info.class, as the module system was introduced in Java 9. */
+    private static final int MIN_VERSIONED_RELEASE = 9;
 
-public class Jar {
     private final Path path;
-    private final PrintStream out;
-    private final ToolProvider jarToolProvider;
+    /** The path of the file, which is the outer JAR of a nested JAR. */
+    private final Path archivePath;
+    /** The entry name of a nested JAR within the outer JAR, or null if not nested. */
+    private final String nestedEntryName;
+    /** The directory of the classes within the archive, e.g. {@value #JMOD_CLASSES_DIRECTORY}, or empty. */
+    private final String classesDirectory;
+    private final ArchiveCache archiveCache;
+    private Archive archive = null;
+    /** The central directory header of a nested JAR within the outer JAR, or null if not yet looked up. */
+    private CentralDirectoryHeader nestedHeader = null;
+    /** A nested JAR stored uncompressed, read in place within the outer JAR, or null if not yet opened. */
+    private Archive nestedArchive = null;
+    /** The module-info.class and manifest entries of a compressed nested JAR, or null if not yet streamed. */
+    private Map<String, byte[]> streamedNestedEntries = null;
+
+    public Jar(Path path) {
+        this(path, ArchiveCache.shared());
+    }
 
-    public Jar(Path path, PrintStream out) {
+    public Jar(Path path, ArchiveCache archiveCache) {
         this.path = path;
-        this.out = out;
-        this.jarToolProvider = findFirst("jar")
-                .orElseThrow(() -> new ErrorException("no jar tool available"));
+        this.archiveCache = archiveCache;
+
+        String pathString = path.toString();
+        int separatorIndex = pathString.indexOf(NESTED_SEPARATOR);
+        if (separatorIndex == -1) {
+            this.archivePath = path;
+            this.nestedEntryName = null;
+        } else {
+            this.archivePath = Path.of(pathString.substring(0, separatorIndex));
+            this.nestedEntryName = pathString.substring(separatorIndex + NESTED_SEPARATOR.length());
+            if (nestedEntryName.isEmpty() || nestedEntryName.contains(NESTED_SEPARATOR)) {
+                throw new ErrorException("only JARs nested directly in another JAR are supported: " + path);
+            }
+        }
+
+        this.classesDirectory = nestedEntryName == null && isJmod(path) ? JMOD_CLASSES_DIRECTORY : "";
+    }
+
+    private Jar(Path path, ArchiveCache archiveCache, CentralDirectoryHeader nestedHeader) {
+        this(path, archiveCache);
+        this.nestedHeader = nestedHeader;
     }
 
     public Path path() { return path; }
+    public boolean isNested() { return nestedEntryName != null; }
+
+    /** Whether path denotes a JMOD file rather than a JAR. */
+    public static boolean isJmod(Path path) {
+        Path fileName = path.getFileName();
+        return fileName != null && fileName.toString().endsWith(".jmod");
+    }
+
+    /** The entry name of the module-info.class of the given release, or the root one if {@link #BASE_RELEASE}. */
+    public static String moduleInfoClassName(int release) {
+        return release == BASE_RELEASE ? MODULE_INFO_CLASS : VERSIONS_DIRECTORY + release + "/" + MODULE_INFO_CLASS;
+    }
+
+    /** Returns the release of the module-info.class entry with the given name, or empty if not such an entry. */
+    public static OptionalInt moduleInfoClassRelease(String name) {
+        if (name.equals(MODULE_INFO_CLASS)) {
+            return OptionalInt.of(BASE_RELEASE);
+        }
+
+        if (!name.startsWith(VERSIONS_DIRECTORY) || !name.endsWith("/" + MODULE_INFO_CLASS)) {
+            return OptionalInt.empty();
+        }
+
+        String release = name.substring(VERSIONS_DIRECTORY.length(), name.length() - MODULE_INFO_CLASS.length() - 1);
+        // Like the JDK, only release numbers without leading zeros are recognized.
+        if (!release.matches("[1-9][0-9]{0,8}") || Integer.parseInt(release) < MIN_VERSIONED_RELEASE) {
+            return OptionalInt.empty();
+        }
+
+        return OptionalInt.of(Integer.parseInt(release));
+    }
+
+    /** The names of all entries of the JAR, in the order of the central directory. */
+    public List<String> entryNames() {
+        if (isNested()) {
+            throw new ErrorException("listing the entries of a nested JAR is not supported: " + path);
+        }
+
+        return entryNames(archive());
+    }
+
+    /**
+     * The nested JARs of this JAR with an entry name accepted by isIncluded, in the order of the central directory.
+     * They are found in a single scan of the central directory, and need no further lookup in it.
+     */
+    public List<Jar> nestedJars(Predicate<String> isIncluded) {
+        if (isNested()) {
+            throw new ErrorException("only JARs nested directly in another JAR are supported: " + path);
+        }
 
+        return archive().centralDirectory().headers().stream()
+                .filter(header -> isIncluded.test(header.name()))
+                .map(header -> new Jar(Path.of(path + NESTED_SEPARATOR + header.name()), archiveCache, header))
+                .collect(Collectors.toList());
+    }
+
+    /** The packages of the module, see {@link ModuleContents}. */
+    public SortedSet<String> packages() {
+        return contents().packages();
+    }
+
+    /**
+     * The packages and classes of the module, derived from the entry names in a single pass over the central
+     * directory, or over the nested JAR if it is deflated.
+     */
+    public ModuleContents contents() {
+        if (!isNested()) {
+            return ModuleContents.fromEntryNames(entryNames(archive()), classesDirectory);
+        }
+
+        Optional<Archive> nested = nestedArchive();
+        if (nested.isPresent()) {
+            return ModuleContents.fromEntryNames(entryNames(nested.get()), "");
+        }
+
+        List<String> names = new ArrayList<>();
+        try (InputStream in = archive().openEntry(nestedHeader())) {
+            StreamingJarRewriter.read(in, name -> {
+                names.add(name);
+                return false;
+            });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return ModuleContents.fromEntryNames(names, "");
+    }
+
+    static SortedSet<String> packages(List<String> entryNames, String classesDirectory) {
+        return ModuleContents.fromEntryNames(entryNames, classesDirectory).packages();
+    }
+
+    /**
+     * Whether the '/'-separated directory names a package, i.e. each name is a Java identifier and not a keyword.
+     * Resource directories like static/ and native/ are therefore not packages, as with the jar tool.
+     */
+    static boolean isPackageDirectory(String directory) {
+        return SourceVersion.isName(directory.replace('/', '.'));
+    }
+
+    private static List<String> entryNames(Archive archive) {
+        return archive.centralDirectory().headers().stream()
+                .map(CentralDirectoryHeader::name)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Read module-info.class by looking it up in the memory-mapped central directory, and inflating only that
+     * entry.  No other entries, nor the manifest, are read.
+     */
     public Optional<ModuleInfoClass> readModuleInfoClass() {
-        JarFile jarFile = uncheckIO(() -> new JarFile(path.toFile(), false));
-        JarEntry moduleInfoClassEntry = jarFile.getJarEntry("module-info.class");
-        if (moduleInfoClassEntry == null) return Optional.empty();
-        InputStream inputStream = uncheckIO(() -> jarFile.getInputStream(moduleInfoClassEntry));
-        byte[] bytes = uncheckIO(inputStream::readAllBytes);
-        ModuleInfoClass moduleInfoClass = ModuleInfoClassReader.disassemble(bytes);
-        return Optional.of(moduleInfoClass);
-    }
-
-    public void updateModuleInfoClass(Path moduleInfoClassPath, Path jarPath) {
-        // Observed with a module declaration 'module foo {}':  The module-info.class matches that of
-        // MinimalModuleInfoClass::create, but after adding it to the jar with below command the constant
-        // pool entries are permuted and with 3 new entries related to ModulePackages (listing the packages
-        // in the JAR file).
-        //
-        // DO NOT EXPECT the original module-info.class ends up in the JAR file when adding one.
-        jarToolProvider.run(out, out, "--update", "--file", jarPath.toString(), "-C",
-                moduleInfoClassPath.getParent().toString(), moduleInfoClassPath.getFileName().toString());
+        return readModuleInfoClassBytes().map(ModuleInfoClassReader::disassemble);
+    }
+
+    /** Like {@link #readModuleInfoClass()}, but returns the raw bytes of module-info.class. */
+    public Optional<byte[]> readModuleInfoClassBytes() {
+        if (isNested()) {
+            return Optional.ofNullable(readModuleInfoClassBytesByRelease().get(BASE_RELEASE));
+        }
+
+        Archive archive = archive();
+        return archive.find(classesDirectory + MODULE_INFO_CLASS).map(archive::readEntry);
+    }
+
+    /**
+     * Read META-INF/MANIFEST.MF by looking it up in the central directory like {@link #readModuleInfoClass()},
+     * without reading any other entries.
+     */
+    public Optional<JarManifest> readManifest() {
+        if (!classesDirectory.isEmpty()) {
+            throw new ErrorException("a JMOD file has no manifest: " + path);
+        }
+
+        if (!isNested()) {
+            Archive archive = archive();
+            return archive.find(JarManifest.NAME).map(archive::readEntry).map(JarManifest::new);
+        }
+
+        Optional<Archive> nested = nestedArchive();
+        if (nested.isPresent()) {
+            return nested.get().find(JarManifest.NAME).map(nested.get()::readEntry).map(JarManifest::new);
+        }
+
+        return Optional.ofNullable(streamedNestedEntries().get(JarManifest.NAME)).map(JarManifest::new);
+    }
+
+    /**
+     * Read the raw bytes of the root module-info.class by {@link #BASE_RELEASE}, and of each versioned
+     * META-INF/versions/N/module-info.class of a multi-release JAR by N, found in a single scan of the central
+     * directory.
+     */
+    public SortedMap<Integer, byte[]> readModuleInfoClassBytesByRelease() {
+        if (!isNested()) {
+            return readModuleInfoClassBytesByRelease(archive(), classesDirectory);
+        }
+
+        Optional<Archive> nested = nestedArchive();
+        if (nested.isPresent()) {
+            return readModuleInfoClassBytesByRelease(nested.get(), "");
+        }
+
+        var moduleInfoClasses = new TreeMap<Integer, byte[]>();
+        streamedNestedEntries().forEach((name, bytes) -> moduleInfoClassRelease(name).ifPresent(release ->
+                moduleInfoClasses.putIfAbsent(release, bytes)));
+        return moduleInfoClasses;
+    }
+
+    private static SortedMap<Integer, byte[]> readModuleInfoClassBytesByRelease(Archive archive,
+                                                                               String classesDirectory) {
+        var moduleInfoClasses = new TreeMap<Integer, byte[]>();
+        for (var header : archive.centralDirectory().findAllWithSuffix(MODULE_INFO_CLASS)) {
+            if (!header.name().startsWith(classesDirectory)) {
+                continue;
+            }
+
+            OptionalInt release = moduleInfoClassRelease(header.name().substring(classesDirectory.length()));
+            if (release.isPresent() && !moduleInfoClasses.containsKey(release.getAsInt())) {
+                moduleInfoClasses.put(release.getAsInt(), archive.readEntry(header));
+            }
+        }
+        return moduleInfoClasses;
+    }
+
+    /**
+     * Replace (or add) the module-info.class of the JAR with the serialized moduleInfoClass.  The bytes of
+     * moduleInfoClass end up in the JAR as-is, and all other entries are copied verbatim.
+     */
+    public void updateModuleInfoClass(Output moduleInfoClass) {
+        writeTo(path, Map.of(MODULE_INFO_CLASS, moduleInfoClass.toByteArray()), AtomicFile.Durability.FILE);
+    }
+
+    /**
+     * Write the JAR to target, which may be the path of this JAR, with the entries named by the keys of
+     * replacements replaced or added.  The JAR is written once, to a temporary file that is atomically renamed to
+     * target.  For a nested JAR, the outer JAR is written to target, or over the outer JAR if target is the path
+     * of this JAR.
+     */
+    public void writeTo(Path target, Map<String, byte[]> replacements, AtomicFile.Durability durability) {
+        writeTo(target, replacements, durability, null);
+    }
+
+    /**
+     * Like {@link #writeTo(Path, Map, AtomicFile.Durability)}, and also recompress the deflated entries of the
+     * archive if compression is non-null.  For a nested JAR, those of the outer JAR are recompressed.
+     */
+    public void writeTo(Path target, Map<String, byte[]> replacements, AtomicFile.Durability durability,
+                        JarRewriter.Compression compression) {
+        Path archiveTarget = target.equals(path) ? archivePath : target;
+        Map<String, byte[]> archiveReplacements = isNested() && !replacements.isEmpty() ?
+                Map.of(nestedEntryName, rewriteNested(replacements)) :
+                inClassesDirectory(replacements);
+
+        prepareForModification(archiveTarget);
+        JarRewriter.rewrite(archivePath, archiveTarget, archiveReplacements, durability, compression);
+    }
+
+    /** Returns the nested JAR with the entries named by the keys of replacements replaced or added. */
+    private byte[] rewriteNested(Map<String, byte[]> replacements) {
+        CentralDirectoryHeader header = nestedHeader();
+        var bytes = new ByteArrayOutputStream();
+        if (header.method() == CentralDirectoryHeader.METHOD_STORED) {
+            try (Archive nested = archive().openNested(header)) {
+                ZipOutput output = new ZipOutput(Channels.newChannel(bytes));
+                new JarRewriter(nested, replacements).writeTo(output);
+                output.flush();
+            }
+            return bytes.toByteArray();
+        }
+
+        // The streaming rewriter can only add an entry if none of the replaced entries exist.
+        Set<String> replaced = new HashSet<>();
+        try (InputStream in = archive().openEntry(header)) {
+            StreamingJarRewriter.rewrite(in, bytes, replacements::containsKey, replacements.keySet().iterator().next(),
+                    (name, content) -> {
+                        replaced.add(name);
+                        return Optional.of(replacements.get(name));
+                    });
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (!replaced.containsAll(replacements.keySet())) {
+            throw new IllegalArgumentException("cannot both add and replace entries of a compressed nested JAR: " +
+                    path);
+        }
+
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Like {@link #updateModuleInfoClass(Output)}, except the new module-info.class is appended after the last
+     * entry and only the central directory is rewritten.  The old module-info.class remains as dead bytes.
+     */
+    public void appendModuleInfoClass(Output moduleInfoClass) {
+        append(Map.of(MODULE_INFO_CLASS, moduleInfoClass.toByteArray()));
+    }
+
+    /** Like {@link #appendModuleInfoClass(Output)}, for the entries named by the keys of replacements. */
+    public void append(Map<String, byte[]> replacements) {
+        if (isNested()) {
+            throw new ErrorException("cannot append to a nested JAR: " + path);
+        }
+
+        prepareForModification(path);
+        JarRewriter.appendInPlace(path, inClassesDirectory(replacements));
+    }
+
+    @Override
+    public void close() {
+        if (nestedArchive != null) {
+            nestedArchive.close();
+            nestedArchive = null;
+        }
+        nestedHeader = null;
+        streamedNestedEntries = null;
+        if (archive != null) {
+            archiveCache.release(archive);
+            archive = null;
+        }
+    }
+
+    private Archive archive() {
+        if (archive == null) {
+            archive = archiveCache.acquire(archivePath);
+        }
+        return archive;
+    }
+
+    private Map<String, byte[]> inClassesDirectory(Map<String, byte[]> entries) {
+        if (classesDirectory.isEmpty()) {
+            return entries;
+        }
+
+        var result = new LinkedHashMap<String, byte[]>();
+        entries.forEach((name, content) -> result.put(classesDirectory + name, content));
+        return result;
+    }
+
+    private CentralDirectoryHeader nestedHeader() {
+        if (nestedHeader == null) {
+            nestedHeader = archive().find(nestedEntryName)
+                    .orElseThrow(() -> new ErrorException("no such entry: " + path));
+        }
+        return nestedHeader;
+    }
+
+    /**
+     * The nested JAR opened in place within the outer JAR, or empty if it is compressed.  It is kept until
+     * {@link #close()}.
+     */
+    private Optional<Archive> nestedArchive() {
+        CentralDirectoryHeader header = nestedHeader();
+        if (header.method() != CentralDirectoryHeader.METHOD_STORED) {
+            return Optional.empty();
+        }
+
+        if (nestedArchive == null) {
+            nestedArchive = archive().openNested(header);
+        }
+        return Optional.of(nestedArchive);
+    }
+
+    /**
+     * The module-info.class and manifest entries of a compressed nested JAR, read in a single streaming pass that
+     * is shared by {@link #readModuleInfoClassBytesByRelease()} and {@link #readManifest()}.
+     */
+    private Map<String, byte[]> streamedNestedEntries() {
+        if (streamedNestedEntries == null) {
+            try (InputStream in = archive().openEntry(nestedHeader())) {
+                streamedNestedEntries = StreamingJarRewriter.read(in, name ->
+                        moduleInfoClassRelease(name).isPresent() || name.equals(JarManifest.NAME));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return streamedNestedEntries;
+    }
+
+    private void prepareForModification(Path target) {
+        close();
+        archiveCache.invalidate(target);
     }
 }
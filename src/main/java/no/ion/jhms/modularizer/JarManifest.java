@@ -0,0 +1,164 @@
+package no.ion.jhms.modularizer;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+
+/**
+ * The META-INF/MANIFEST.MF of a JAR, edited as bytes:  Setting a main attribute replaces only the lines of that
+ * attribute, leaving the line wrapping, line endings, and all other attributes and sections byte-for-byte intact.
+ */
+public class JarManifest {
+    public static final String NAME = "META-INF/MANIFEST.MF";
+    public static final String AUTOMATIC_MODULE_NAME = "Automatic-Module-Name";
+
+    /** The maximum length of a line in bytes, excluding the line ending. */
+    private static final int MAX_LINE_LENGTH = 72;
+
+    private final byte[] bytes;
+
+    public JarManifest(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    /** Returns a manifest with only the Manifest-Version main attribute. */
+    public static JarManifest create() {
+        return new JarManifest("Manifest-Version: 1.0\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+    }
+
+    public byte[] toByteArray() { return bytes.clone(); }
+
+    /** Returns the value of the main attribute, whose name is case-insensitive, or empty if not found. */
+    public Optional<String> getMainAttribute(String name) {
+        return findMainAttribute(name).map(attribute -> attribute.value);
+    }
+
+    /** Returns a manifest with the main attribute replaced in place, or added last in the main section. */
+    public JarManifest withMainAttribute(String name, String value) {
+        Optional<Attribute> existing = findMainAttribute(name);
+        if (existing.isPresent() && existing.get().value.equals(value)) {
+            return this;
+        }
+
+        String lineEnding = lineEnding();
+        byte[] attribute = wrap(name + ": " + value, lineEnding);
+
+        var output = new ByteArrayOutputStream(bytes.length + attribute.length + lineEnding.length());
+        if (existing.isPresent()) {
+            output.write(bytes, 0, existing.get().start);
+            output.write(attribute, 0, attribute.length);
+            output.write(bytes, existing.get().end, bytes.length - existing.get().end);
+        } else {
+            int end = endOfMainSection();
+            output.write(bytes, 0, end);
+            if (end > 0 && bytes[end - 1] != '\n' && bytes[end - 1] != '\r') {
+                output.write(lineEnding.getBytes(StandardCharsets.UTF_8), 0, lineEnding.length());
+            }
+            output.write(attribute, 0, attribute.length);
+            output.write(bytes, end, bytes.length - end);
+        }
+
+        return new JarManifest(output.toByteArray());
+    }
+
+    /** A main attribute, spanning the bytes from start to end including continuation lines and line endings. */
+    private static class Attribute {
+        private final int start;
+        private final int end;
+        private final String value;
+
+        private Attribute(int start, int end, String value) {
+            this.start = start;
+            this.end = end;
+            this.value = value;
+        }
+    }
+
+    private Optional<Attribute> findMainAttribute(String name) {
+        int offset = 0;
+        while (offset < bytes.length && !isLineEnding(bytes[offset])) {
+            int start = offset;
+            var header = new ByteArrayOutputStream();
+            offset = appendLine(offset, header);
+            while (offset < bytes.length && bytes[offset] == ' ') {
+                offset = appendLine(offset + 1, header);
+            }
+
+            String line = header.toString(StandardCharsets.UTF_8);
+            int colon = line.indexOf(": ");
+            if (colon != -1 && line.substring(0, colon).equalsIgnoreCase(name)) {
+                return Optional.of(new Attribute(start, offset, line.substring(colon + 2)));
+            }
+        }
+
+        return Optional.empty();
+    }
+
+    /** Append the line at offset excluding its line ending to output, and return the offset of the next line. */
+    private int appendLine(int offset, ByteArrayOutputStream output) {
+        int end = offset;
+        while (end < bytes.length && !isLineEnding(bytes[end])) {
+            ++end;
+        }
+        output.write(bytes, offset, end - offset);
+        return skipLineEnding(end);
+    }
+
+    private int skipLineEnding(int offset) {
+        if (offset < bytes.length && bytes[offset] == '\r') {
+            ++offset;
+        }
+        if (offset < bytes.length && bytes[offset] == '\n') {
+            ++offset;
+        }
+        return offset;
+    }
+
+    /** The offset of the empty line ending the main section, or the end of the manifest if there is none. */
+    private int endOfMainSection() {
+        int offset = 0;
+        while (offset < bytes.length && !isLineEnding(bytes[offset])) {
+            while (offset < bytes.length && !isLineEnding(bytes[offset])) {
+                ++offset;
+            }
+            offset = skipLineEnding(offset);
+        }
+        return offset;
+    }
+
+    /** The line ending of the first line, or CRLF as written by the JDK if there is none. */
+    private String lineEnding() {
+        for (int offset = 0; offset < bytes.length; ++offset) {
+            if (bytes[offset] == '\n') {
+                return "\n";
+            } else if (bytes[offset] == '\r') {
+                return offset + 1 < bytes.length && bytes[offset + 1] == '\n' ? "\r\n" : "\r";
+            }
+        }
+        return "\r\n";
+    }
+
+    /**
+     * Returns the header line encoded as UTF-8 and wrapped like the JDK does:  Each line is at most
+     * {@value #MAX_LINE_LENGTH} bytes, continued on the next line after a space, without splitting characters.
+     */
+    private static byte[] wrap(String header, String lineEnding) {
+        var output = new ByteArrayOutputStream();
+        int lineLength = 0;
+        for (int offset = 0; offset < header.length(); ) {
+            int codePoint = header.codePointAt(offset);
+            byte[] character = new String(Character.toChars(codePoint)).getBytes(StandardCharsets.UTF_8);
+            if (lineLength + character.length > MAX_LINE_LENGTH) {
+                output.writeBytes((lineEnding + " ").getBytes(StandardCharsets.UTF_8));
+                lineLength = 1;
+            }
+            output.writeBytes(character);
+            lineLength += character.length;
+            offset += Character.charCount(codePoint);
+        }
+        output.writeBytes(lineEnding.getBytes(StandardCharsets.UTF_8));
+        return output.toByteArray();
+    }
+
+    private static boolean isLineEnding(byte b) { return b == '\r' || b == '\n'; }
+}
@@ -0,0 +1,497 @@
+package no.ion.jhms.modularizer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipException;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Rewrites a JAR file in one sequential pass, replacing or adding a few entries.
+ *
+ * <p>All other entries are copied verbatim:  The local file header, the compressed data and any data descriptor
+ * are transferred as raw bytes, so CRC, sizes, timestamps and extra fields are preserved and no entry is
+ * inflated or deflated.  The cost of a rewrite is therefore proportional to the size of the archive.</p>
+ *
+ * <p>If a {@link Compression} is given, deflated entries are instead inflated and either stored or deflated again
+ * with the given level.  The entries are streamed through fixed-size buffers, compressed in parallel on the common
+ * fork-join pool, and written in the original order.  Entries larger than {@link #MAX_PARALLEL_ENTRY_SIZE} are
+ * instead streamed straight to the output.  Stored entries remain stored, as e.g. the nested JARs of a Spring Boot
+ * JAR must be.</p>
+ */
+public class JarRewriter {
+    public static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    public static final int LOCAL_HEADER_FIXED_SIZE = 30;
+    private static final int VERSION_DEFLATE = 20;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    /** The largest entry that is recompressed in memory, in parallel with other entries. */
+    static final long MAX_PARALLEL_ENTRY_SIZE = 4 * 1024 * 1024;
+    /** The total uncompressed size of the entries being compressed ahead of the entry being written. */
+    private static final long MAX_PENDING_BYTES = Math.max(64 * 1024 * 1024,
+            2 * ForkJoinPool.getCommonPoolParallelism() * MAX_PARALLEL_ENTRY_SIZE);
+    /** The bytes accounted for each pending entry in addition to its size, bounding the number of small entries. */
+    private static final long PENDING_ENTRY_OVERHEAD = 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** How to compress entries when rewriting. */
+    public enum Compression {
+        /** Store all entries uncompressed. */
+        STORE(Deflater.NO_COMPRESSION),
+        FAST(Deflater.BEST_SPEED),
+        DEFAULT(Deflater.DEFAULT_COMPRESSION),
+        MAX(Deflater.BEST_COMPRESSION);
+
+        private final int level;
+
+        Compression(int level) {
+            this.level = level;
+        }
+
+        public static Compression fromString(String name) {
+            try {
+                return valueOf(name.toUpperCase(Locale.ROOT));
+            } catch (IllegalArgumentException e) {
+                throw new ErrorException("not a compression, expected store, fast, default or max: " + name);
+            }
+        }
+    }
+
+    private final Archive source;
+    private final Map<String, byte[]> replacements;
+    private final Compression compression;
+
+    /** Replace or add the entries named by the keys of replacements in the JAR at path. */
+    public static void rewriteInPlace(Path path, Map<String, byte[]> replacements) {
+        rewrite(path, path, replacements, AtomicFile.Durability.FILE);
+    }
+
+    /**
+     * Replace or add the entries named by the keys of replacements in the JAR at path, by overwriting the central
+     * directory with the new entries followed by a new central directory.  Replaced entries are left behind as
+     * unreferenced bytes.  The cost is proportional to the size of the central directory rather than the archive,
+     * but the JAR is corrupt if interrupted.
+     */
+    public static void appendInPlace(Path path, Map<String, byte[]> replacements) {
+        try (FileChannel channel = FileChannel.open(path, READ, WRITE)) {
+            CentralDirectory centralDirectory = CentralDirectory.read(channel);
+            // The central directory is memory-mapped and will be overwritten, so parse it first.
+            List<CentralDirectoryHeader> originalHeaders = centralDirectory.headers();
+            Map<String, CentralDirectoryHeader> originalHeadersByName = new HashMap<>();
+            originalHeaders.forEach(header -> originalHeadersByName.putIfAbsent(header.name(), header));
+
+            channel.position(centralDirectory.archiveStart() + centralDirectory.offset());
+            ZipOutput output = new ZipOutput(channel, centralDirectory.offset());
+
+            Map<String, CentralDirectoryHeader> newHeaders = new LinkedHashMap<>();
+            replacements.forEach((name, content) -> {
+                CentralDirectoryHeader original = originalHeadersByName.get(name);
+                byte[] nameBytes = original == null ? name.getBytes(StandardCharsets.UTF_8) : original.nameBytes();
+                newHeaders.put(name, writeEntry(output, nameBytes, content, original));
+            });
+
+            List<CentralDirectoryHeader> headers = new ArrayList<>(originalHeaders.size() + newHeaders.size());
+            for (var header : originalHeaders) {
+                CentralDirectoryHeader newHeader = newHeaders.remove(header.name());
+                headers.add(newHeader == null ? header : newHeader);
+            }
+            headers.addAll(newHeaders.values());
+
+            writeCentralDirectory(output, headers, centralDirectory.comment());
+            output.flush();
+            channel.truncate(channel.position());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Write the JAR at source with replaced or added entries to a temporary file, and atomically rename it to
+     * target, which may be source.  The permissions of source, and any data preceding the archive, are retained.
+     */
+    public static void rewrite(Path source, Path target, Map<String, byte[]> replacements,
+                               AtomicFile.Durability durability) {
+        rewrite(source, target, replacements, durability, null);
+    }
+
+    /** Like {@link #rewrite(Path, Path, Map, AtomicFile.Durability)}, recompressing if compression is non-null. */
+    public static void rewrite(Path source, Path target, Map<String, byte[]> replacements,
+                               AtomicFile.Durability durability, Compression compression) {
+        try (Archive archive = Archive.open(source)) {
+            AtomicFile.write(target, source, durability, channel -> {
+                // Data preceding the archive, e.g. the header of a JMOD file or a launcher script, is retained.
+                ZipOutput prefix = new ZipOutput(channel);
+                prefix.transferFrom(archive.channel(), 0, archive.centralDirectory().archiveStart());
+
+                ZipOutput output = new ZipOutput(channel);
+                new JarRewriter(archive, replacements, compression).writeTo(output);
+                output.flush();
+            });
+        }
+    }
+
+    public JarRewriter(Archive source, Map<String, byte[]> replacements) {
+        this(source, replacements, null);
+    }
+
+    /** A rewriter that also recompresses the deflated entries, unless compression is null. */
+    public JarRewriter(Archive source, Map<String, byte[]> replacements, Compression compression) {
+        this.source = source;
+        this.replacements = replacements;
+        this.compression = compression;
+    }
+
+    /** Write the rewritten archive to output, in the order of the original central directory. */
+    public void writeTo(ZipOutput output) {
+        CentralDirectory centralDirectory = source.centralDirectory();
+        Map<String, byte[]> entriesToAdd = new LinkedHashMap<>(replacements);
+        List<CentralDirectoryHeader> headers = new ArrayList<>(centralDirectory.headers().size() + entriesToAdd.size());
+        Deque<PendingEntry> pendingEntries = new ArrayDeque<>();
+        long pendingBytes = 0;
+
+        for (var header : centralDirectory.headers()) {
+            byte[] content = entriesToAdd.remove(header.name());
+            boolean recompress = content == null && compression != null &&
+                    header.method() == CentralDirectoryHeader.METHOD_DEFLATED;
+            if (recompress && header.size() > MAX_PARALLEL_ENTRY_SIZE) {
+                while (!pendingEntries.isEmpty()) {
+                    PendingEntry entry = pendingEntries.removeFirst();
+                    pendingBytes -= entry.bytes;
+                    headers.add(write(output, entry));
+                }
+                headers.add(recompressTo(output, header));
+                continue;
+            }
+
+            long bytes = (recompress ? header.size() : 0) + PENDING_ENTRY_OVERHEAD;
+            while (!pendingEntries.isEmpty() && pendingBytes + bytes > MAX_PENDING_BYTES) {
+                PendingEntry entry = pendingEntries.removeFirst();
+                pendingBytes -= entry.bytes;
+                headers.add(write(output, entry));
+            }
+
+            final CompletableFuture<CompressedEntry> compressedEntry;
+            if (content != null) {
+                compressedEntry = CompletableFuture.completedFuture(compress(content, header, compression));
+            } else if (recompress) {
+                compressedEntry = CompletableFuture.supplyAsync(() -> recompress(header), ForkJoinPool.commonPool());
+            } else {
+                compressedEntry = null;
+            }
+            pendingEntries.add(new PendingEntry(header, compressedEntry, bytes));
+            pendingBytes += bytes;
+        }
+
+        while (!pendingEntries.isEmpty()) {
+            headers.add(write(output, pendingEntries.removeFirst()));
+        }
+
+        entriesToAdd.forEach((name, content) -> headers.add(writeEntry(output, name.getBytes(StandardCharsets.UTF_8),
+                compress(content, null, compression), null)));
+
+        writeCentralDirectory(output, headers, centralDirectory.comment());
+    }
+
+    /**
+     * An entry of the source archive to be written, or copied verbatim if compressedEntry is null.  The bytes are
+     * those accounted against {@link #MAX_PENDING_BYTES}.
+     */
+    private static class PendingEntry {
+        private final CentralDirectoryHeader original;
+        private final CompletableFuture<CompressedEntry> compressedEntry;
+        private final long bytes;
+
+        private PendingEntry(CentralDirectoryHeader original, CompletableFuture<CompressedEntry> compressedEntry,
+                             long bytes) {
+            this.original = original;
+            this.compressedEntry = compressedEntry;
+            this.bytes = bytes;
+        }
+    }
+
+    private CentralDirectoryHeader write(ZipOutput output, PendingEntry entry) {
+        if (entry.compressedEntry == null) {
+            long position = output.position();
+            output.transferFrom(source.channel(), source.centralDirectory().archiveStart() +
+                    entry.original.localHeaderOffset(), source.entryLength(entry.original));
+            return entry.original.withLocalHeaderOffset(position);
+        }
+
+        final CompressedEntry compressedEntry;
+        try {
+            compressedEntry = entry.compressedEntry.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw e;
+        }
+
+        return writeEntry(output, entry.original.nameBytes(), compressedEntry, entry.original);
+    }
+
+    /**
+     * Recompress a deflated entry of at most {@link #MAX_PARALLEL_ENTRY_SIZE} bytes, like
+     * {@link #compress(byte[], CentralDirectoryHeader, Compression)}.  Only the result is held in memory.
+     */
+    private CompressedEntry recompress(CentralDirectoryHeader original) {
+        int size = (int) original.size();
+        if (compression != Compression.STORE) {
+            var data = new Output();
+            deflate(original, compression.level, data::writeByteArray);
+            if (data.size() < size) {
+                return new CompressedEntry(CentralDirectoryHeader.METHOD_DEFLATED, data.toByteArray(), original.crc(),
+                        size);
+            }
+        }
+
+        var content = new Output();
+        inflate(original, content::writeByteArray);
+        return new CompressedEntry(CentralDirectoryHeader.METHOD_STORED, content.toByteArray(), original.crc(), size);
+    }
+
+    /**
+     * Recompress a deflated entry by streaming it straight to output.  The CRC and size are those of the original,
+     * while the compressed size of a deflated entry is in a data descriptor after the data, since stored entries
+     * cannot have one in java.util.zip.  Unlike {@link #recompress(CentralDirectoryHeader)}, the entry is deflated
+     * even if that does not make it smaller.
+     */
+    private CentralDirectoryHeader recompressTo(ZipOutput output, CentralDirectoryHeader original) {
+        long localHeaderOffset = output.position();
+        if (compression == Compression.STORE) {
+            CentralDirectoryHeader header = newHeader(original.nameBytes(), original, 0,
+                    CentralDirectoryHeader.METHOD_STORED, original.crc(), original.size(), original.size(),
+                    localHeaderOffset);
+            writeLocalHeader(output, header);
+            inflate(original, output::writeBytes);
+            return header;
+        }
+
+        writeLocalHeader(output, newHeader(original.nameBytes(), original, CentralDirectoryHeader.FLAG_DATA_DESCRIPTOR,
+                CentralDirectoryHeader.METHOD_DEFLATED, 0, 0, 0, localHeaderOffset));
+        long dataOffset = output.position();
+        deflate(original, compression.level, output::writeBytes);
+        long compressedSize = output.position() - dataOffset;
+
+        output.writeU4(DATA_DESCRIPTOR_SIGNATURE);
+        output.writeU4(Integer.toUnsignedLong(original.crc()));
+        // Like java.util.zip, the sizes are 8 bytes only if they do not fit in 4.
+        if (compressedSize >= CentralDirectoryHeader.ZIP64_MAGIC ||
+                original.size() >= CentralDirectoryHeader.ZIP64_MAGIC) {
+            output.writeU8(compressedSize);
+            output.writeU8(original.size());
+        } else {
+            output.writeU4(compressedSize);
+            output.writeU4(original.size());
+        }
+
+        return newHeader(original.nameBytes(), original, CentralDirectoryHeader.FLAG_DATA_DESCRIPTOR,
+                CentralDirectoryHeader.METHOD_DEFLATED, original.crc(), compressedSize, original.size(),
+                localHeaderOffset);
+    }
+
+    /** Inflate the entry of the source archive to sink through a fixed-size buffer, verifying its size and CRC. */
+    private void inflate(CentralDirectoryHeader header, ZipInput.ByteSink sink) {
+        var crc32 = new CRC32();
+        long size = 0;
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try (InputStream in = source.openEntry(header)) {
+            for (int length; (length = in.read(buffer)) != -1; size += length) {
+                crc32.update(buffer, 0, length);
+                sink.write(buffer, 0, length);
+            }
+        } catch (ZipException e) {
+            throw new BadArchiveException("corrupt entry " + header.name() + ": " + e.getMessage());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        if (size != header.size()) {
+            throw new BadArchiveException("size mismatch: " + header.name());
+        }
+        if ((int) crc32.getValue() != header.crc()) {
+            throw new BadArchiveException("CRC mismatch: " + header.name());
+        }
+    }
+
+    /** Inflate the entry of the source archive and deflate it with level to sink, through fixed-size buffers. */
+    private void deflate(CentralDirectoryHeader header, int level, ZipInput.ByteSink sink) {
+        var deflater = new Deflater(level, true);
+        byte[] buffer = new byte[BUFFER_SIZE];
+        try {
+            inflate(header, (bytes, offset, length) -> {
+                deflater.setInput(bytes, offset, length);
+                while (!deflater.needsInput()) {
+                    sink.write(buffer, 0, deflater.deflate(buffer));
+                }
+            });
+            deflater.finish();
+            while (!deflater.finished()) {
+                sink.write(buffer, 0, deflater.deflate(buffer));
+            }
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static void writeCentralDirectory(ZipOutput output, List<CentralDirectoryHeader> headers, byte[] comment) {
+        long centralDirectoryOffset = output.position();
+        headers.forEach(header -> header.writeTo(output));
+        long centralDirectorySize = output.position() - centralDirectoryOffset;
+
+        CentralDirectory.writeEndRecord(output, headers.size(), centralDirectoryOffset, centralDirectorySize, comment);
+    }
+
+    /** The data of an entry, either stored or deflated, along with the CRC and size of the uncompressed content. */
+    static class CompressedEntry {
+        private final int method;
+        private final byte[] data;
+        private final int crc;
+        private final int size;
+
+        private CompressedEntry(int method, byte[] data, int crc, int size) {
+            this.method = method;
+            this.data = data;
+            this.crc = crc;
+            this.size = size;
+        }
+    }
+
+    /**
+     * Compress the content of an entry.  The content is stored uncompressed if the original entry was, as required
+     * for e.g. the nested JARs of a Spring Boot JAR, if compression is {@link Compression#STORE STORE}, or if
+     * deflating does not make it smaller.  Otherwise it is deflated with the level of compression, or the default
+     * level if null.
+     */
+    static CompressedEntry compress(byte[] content, CentralDirectoryHeader original, Compression compression) {
+        var crc32 = new CRC32();
+        crc32.update(content);
+        int crc = (int) crc32.getValue();
+
+        boolean store = (original != null && original.method() == CentralDirectoryHeader.METHOD_STORED) ||
+                compression == Compression.STORE;
+        if (!store) {
+            byte[] data = deflate(content, compression == null ? Deflater.DEFAULT_COMPRESSION : compression.level);
+            if (data.length < content.length) {
+                return new CompressedEntry(CentralDirectoryHeader.METHOD_DEFLATED, data, crc, content.length);
+            }
+        }
+
+        return new CompressedEntry(CentralDirectoryHeader.METHOD_STORED, content, crc, content.length);
+    }
+
+    /**
+     * Write a local file header and data for an entry with the given uncompressed content, and return its
+     * central directory file header.  If original is non-null, its timestamp and attributes are retained, and the
+     * content is stored uncompressed if the original was.
+     */
+    static CentralDirectoryHeader writeEntry(ZipOutput output, byte[] name, byte[] content,
+                                             CentralDirectoryHeader original) {
+        return writeEntry(output, name, compress(content, original, null), original);
+    }
+
+    private static CentralDirectoryHeader writeEntry(ZipOutput output, byte[] name, CompressedEntry entry,
+                                                     CentralDirectoryHeader original) {
+        CentralDirectoryHeader header = newHeader(name, original, 0, entry.method, entry.crc, entry.data.length,
+                entry.size, output.position());
+        writeLocalHeader(output, header);
+        output.writeBytes(entry.data);
+        return header;
+    }
+
+    /**
+     * The central directory file header of a new entry with the given flags in addition to the UTF-8 flag.  If
+     * original is non-null, its timestamp and attributes are retained.
+     */
+    private static CentralDirectoryHeader newHeader(byte[] name, CentralDirectoryHeader original, int flags,
+                                                    int method, int crc, long compressedSize, long size,
+                                                    long localHeaderOffset) {
+        final int versionMadeBy, time, date, internalAttributes, externalAttributes;
+        final byte[] comment;
+        if (original == null) {
+            LocalDateTime now = LocalDateTime.now();
+            versionMadeBy = VERSION_DEFLATE;
+            flags |= CentralDirectoryHeader.FLAG_UTF8;
+            time = (now.getHour() << 11) | (now.getMinute() << 5) | (now.getSecond() / 2);
+            date = (Math.max(now.getYear() - 1980, 0) << 9) | (now.getMonthValue() << 5) | now.getDayOfMonth();
+            internalAttributes = 0;
+            externalAttributes = 0;
+            comment = new byte[0];
+        } else {
+            versionMadeBy = original.versionMadeBy();
+            flags |= original.flags() & CentralDirectoryHeader.FLAG_UTF8;
+            time = original.lastModifiedTime();
+            date = original.lastModifiedDate();
+            internalAttributes = original.internalAttributes();
+            externalAttributes = original.externalAttributes();
+            comment = original.comment();
+        }
+
+        return new CentralDirectoryHeader(versionMadeBy, VERSION_DEFLATE, flags, method, time, date, crc,
+                compressedSize, size, internalAttributes, externalAttributes, localHeaderOffset, name, new byte[0],
+                comment);
+    }
+
+    /**
+     * Write the local file header of the entry, with the CRC and sizes zero if they are in a data descriptor, and
+     * the sizes in a Zip64 extra field if they do not fit in 4 bytes.
+     */
+    private static void writeLocalHeader(ZipOutput output, CentralDirectoryHeader header) {
+        boolean hasDataDescriptor = header.hasDataDescriptor();
+        boolean zip64 = !hasDataDescriptor && (header.size() >= CentralDirectoryHeader.ZIP64_MAGIC ||
+                header.compressedSize() >= CentralDirectoryHeader.ZIP64_MAGIC);
+        output.writeU4(LOCAL_HEADER_SIGNATURE);
+        output.writeU2(zip64 ? CentralDirectoryHeader.VERSION_ZIP64 : VERSION_DEFLATE);
+        output.writeU2(header.flags());
+        output.writeU2(header.method());
+        output.writeU2(header.lastModifiedTime());
+        output.writeU2(header.lastModifiedDate());
+        output.writeU4(hasDataDescriptor ? 0 : Integer.toUnsignedLong(header.crc()));
+        output.writeU4(hasDataDescriptor ? 0 : Math.min(header.compressedSize(), CentralDirectoryHeader.ZIP64_MAGIC));
+        output.writeU4(hasDataDescriptor ? 0 : Math.min(header.size(), CentralDirectoryHeader.ZIP64_MAGIC));
+        output.writeU2(header.nameBytes().length);
+        output.writeU2(zip64 ? 4 + 16 : 0); // extra field length
+        output.writeBytes(header.nameBytes());
+        if (zip64) {
+            output.writeU2(CentralDirectoryHeader.ZIP64_EXTRA_ID);
+            output.writeU2(16);
+            output.writeU8(header.size());
+            output.writeU8(header.compressedSize());
+        }
+    }
+
+    private static byte[] deflate(byte[] content, int level) {
+        var deflater = new Deflater(level, true);
+        try {
+            deflater.setInput(content);
+            deflater.finish();
+            var output = new Output();
+            byte[] buffer = new byte[Math.max(64, content.length)];
+            while (!deflater.finished()) {
+                int length = deflater.deflate(buffer);
+                output.writeByteArray(buffer, 0, length);
+            }
+            return output.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+}
@@ -12,15 +12,59 @@ public class Main {
                 "Options:\n" +
                 "  -E,--add-exports 'PACKAGE [to MODULE [, MODULE]...]'\n" +
                 "                                Add an 'exports' directive.\n" +
+                "     --add-opens 'PACKAGE [to MODULE [, MODULE]...]'\n" +
+                "                                Add an 'opens' directive.\n" +
+                "     --add-provides 'SERVICE with CLASS [, CLASS]...'\n" +
+                "                                Add a 'provides' directive.\n" +
                 "  -A,--add-requires '[static|transitive] MODULE[@VERSION]'\n" +
                 "                                Add a 'requires' directive.\n" +
+                "     --add-uses SERVICE        Add a 'uses' directive.\n" +
+                "     --append                  Append the new module-info.class to the JAR and\n" +
+                "                                rewrite only the central directory.\n" +
+                "     --automatic-module-name MODULE\n" +
+                "                                Set Automatic-Module-Name in the manifest of the\n" +
+                "                                JAR, rewriting only the manifest entry.\n" +
+                "     --check                   Fail if the update would change the JAR, without\n" +
+                "                                changing it.  JARs already up to date are never\n" +
+                "                                rewritten.\n" +
+                "     --compression store|fast|default|max\n" +
+                "                                Rewrite the JAR with all deflated entries stored,\n" +
+                "                                or deflated again with the given level.  Stored\n" +
+                "                                entries remain stored.\n" +
                 "  -d,--describe-module          Print module descriptor info.\n" +
-                "  -f,--file FILE                Either a JAR or module-info.class.\n" +
+                "  -f,--file FILE                A JAR, JMOD, module-info.class, or a directory of\n" +
+                "                                classes like target/classes.  With --update,\n" +
+                "                                '-' reads the JAR from standard input and writes\n" +
+                "                                the updated JAR to standard output.  Its stored\n" +
+                "                                entries with a data descriptor must have the\n" +
+                "                                optional data descriptor signature.\n" +
+                "                                A JAR nested in another JAR is denoted by e.g.\n" +
+                "                                outer.jar!/BOOT-INF/lib/foo.jar.  With\n" +
+                "                                --describe-module, the nested entry name may be a\n" +
+                "                                glob pattern like BOOT-INF/lib/*.jar.\n" +
+                "     --fsync none|file|all     Force nothing, the new JAR (default), or also its\n" +
+                "                                directory to storage before returning.\n" +
+                "     --hash-modules REGEX      Record the SHA-256 hash of each module on the\n" +
+                "                                module path matching REGEX that depends on the\n" +
+                "                                module, directly or indirectly.\n" +
                 "  -e,--main-class CLASS         Set the main class, or remove if empty.\n" +
                 "  -m,--module MODULE[@VERSION]  Set module name and optionally version.\n" +
+                "  -p,--module-path PATH         The JARs, JMODs, and directories of them to find\n" +
+                "                                the modules of --hash-modules in.\n" +
                 "  -V,--module-version VERSION   Set module version, or remove if empty.\n" +
+                "  -o,--output FILE              Write the updated JAR to FILE instead of updating\n" +
+                "                                the JAR in-place.\n" +
+                "     --release N               Only describe or update the module-info.class of\n" +
+                "                                release N of a multi-release JAR, or 0 for the\n" +
+                "                                root module-info.class.  By default, all are.\n" +
                 "     --remove-exports PACKAGE   Remove an 'exports' directive.\n" +
+                "     --remove-opens PACKAGE     Remove an 'opens' directive.\n" +
+                "     --remove-provides SERVICE  Remove a 'provides' directive.\n" +
                 "     --remove-requires MODULE   Remove a 'requires' directive.\n" +
+                "     --remove-uses SERVICE      Remove a 'uses' directive.\n" +
+                "     --runtime-image JAVA_HOME\n" +
+                "                                With --describe-module, describe all modules of\n" +
+                "                                the runtime image at JAVA_HOME instead of FILE.\n" +
                 "  -u,--update                   Update FILE in-place. [required]\n" +
                 "";
     }
@@ -0,0 +1,131 @@
+package no.ion.jhms.modularizer;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The Modified UTF-8 of CONSTANT_Utf8_info, see JVMS 4.4.7:  Each char of a String is encoded as 1 to 3 bytes,
+ * NUL as 2 bytes, and a supplementary character as its two surrogates of 3 bytes each.
+ *
+ * <p>Module, package and class names are nearly always ASCII, for which the encoding is the Latin-1 of the
+ * String.  Decoding therefore checks 8 bytes at a time for ASCII, and creates the String directly from the bytes
+ * if all are.</p>
+ */
+public class ModifiedUtf8 {
+    /** The length of CONSTANT_Utf8_info is a u2. */
+    public static final int MAX_LENGTH = 0xFFFF;
+
+    private static final VarHandle LONG_VIEW = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final long LOW_BITS = 0x0101010101010101L;
+
+    private ModifiedUtf8() {}
+
+    /** Returns the exactly sized Modified UTF-8 encoding of text. */
+    public static byte[] encode(String text) {
+        int length = encodedLength(text);
+        if (length == text.length()) {
+            return text.getBytes(StandardCharsets.ISO_8859_1);
+        }
+
+        byte[] bytes = new byte[length];
+        int offset = 0;
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if (1 <= c && c <= 0x7F) {
+                bytes[offset++] = (byte) c;
+            } else if (c <= 0x7FF) {
+                bytes[offset++] = (byte) (0b11000000 | (c >>> 6));
+                bytes[offset++] = (byte) (0b10000000 | (c & 0b00111111));
+            } else {
+                bytes[offset++] = (byte) (0b11100000 | (c >>> 12));
+                bytes[offset++] = (byte) (0b10000000 | ((c >>> 6) & 0b00111111));
+                bytes[offset++] = (byte) (0b10000000 | (c & 0b00111111));
+            }
+        }
+        return bytes;
+    }
+
+    private static int encodedLength(String text) {
+        int length = text.length();
+        for (int i = 0; i < text.length(); ++i) {
+            char c = text.charAt(i);
+            if (c == 0 || c > 0x7F) {
+                length += c <= 0x7FF ? 1 : 2;
+            }
+        }
+
+        if (length > MAX_LENGTH) {
+            throw new BadModuleInfoException("CONSTANT_Utf8 entry would be longer than " + MAX_LENGTH +
+                    " bytes: " + length);
+        }
+        return length;
+    }
+
+    /** Returns the String of the Modified UTF-8 encoded bytes from start (inclusive) to end (exclusive). */
+    public static String decode(byte[] bytes, int start, int end) {
+        int asciiEnd = asciiEnd(bytes, start, end);
+        if (asciiEnd == end) {
+            return new String(bytes, start, end - start, StandardCharsets.ISO_8859_1);
+        }
+
+        char[] chars = new char[end - start];
+        int length = 0;
+        for (int offset = start; offset < asciiEnd; ++offset) {
+            chars[length++] = (char) bytes[offset];
+        }
+
+        for (int offset = asciiEnd; offset < end; ) {
+            int x = bytes[offset] & 0xFF;
+            if (1 <= x && x <= 0x7F) {
+                chars[length++] = (char) x;
+                offset += 1;
+            } else if ((x & 0b11100000) == 0b11000000) {
+                int y = continuationByte(bytes, offset, 1, end);
+                chars[length++] = (char) (((x & 0b00011111) << 6) | y);
+                offset += 2;
+            } else if ((x & 0b11110000) == 0b11100000) {
+                int y = continuationByte(bytes, offset, 1, end);
+                int z = continuationByte(bytes, offset, 2, end);
+                chars[length++] = (char) (((x & 0b00001111) << 12) | (y << 6) | z);
+                offset += 3;
+            } else {
+                throw malformed(offset);
+            }
+        }
+
+        return new String(chars, 0, length);
+    }
+
+    /** Returns the offset of the first byte from start that is not a non-NUL ASCII character, or end. */
+    private static int asciiEnd(byte[] bytes, int start, int end) {
+        int offset = start;
+        for (; offset + Long.BYTES <= end; offset += Long.BYTES) {
+            long word = (long) LONG_VIEW.get(bytes, offset);
+            // A byte with the high bit set, or a zero byte.
+            if (((word | ((word - LOW_BITS) & ~word)) & HIGH_BITS) != 0) {
+                break;
+            }
+        }
+
+        while (offset < end && bytes[offset] > 0) {
+            ++offset;
+        }
+        return offset;
+    }
+
+    /** Returns the 6 payload bits of the continuation byte at offset + index. */
+    private static int continuationByte(byte[] bytes, int offset, int index, int end) {
+        if (offset + index >= end || (bytes[offset + index] & 0b11000000) != 0b10000000) {
+            throw malformed(offset);
+        }
+        return bytes[offset + index] & 0b00111111;
+    }
+
+    private static BadModuleInfoException malformed(int offset) {
+        return new BadModuleInfoException("Failed to deserialize CONSTANT_Utf8 constant pool entry at byte index " +
+                offset);
+    }
+}
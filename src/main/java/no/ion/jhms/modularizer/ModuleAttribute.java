@@ -2,8 +2,13 @@ package no.ion.jhms.modularizer;
 
 import java.lang.module.ModuleDescriptor;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.EnumSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
+import java.util.function.IntUnaryOperator;
 import java.util.function.Predicate;
 
 public class ModuleAttribute extends AttributeInfo {
@@ -13,9 +18,15 @@ public class ModuleAttribute extends AttributeInfo {
     private List<Requires> requires = new ArrayList<>();
     private List<Exports> exports = new ArrayList<>();
     private List<Opens> opens = new ArrayList<>();
-    private List<Integer> usesIndices = new ArrayList<>();
+    private final IntList usesIndices = new IntList();
     private List<Provides> provides = new ArrayList<>();
 
+    /** The directives removed in O(1) by the remove methods, purged from the lists on access or once half removed. */
+    private final Set<Object> removed = Collections.newSetFromMap(new IdentityHashMap<>());
+    /** The uses removed in O(1) by removeUses, by constant pool index, purged from usesIndices when next accessed. */
+    private final BitSet removedUses = new BitSet();
+    private int removedUsesCount = 0;
+
     public ModuleAttribute(int attributeNameIndex, int attributeLength, int moduleNameIndex, int moduleFlags,
                            int moduleVersionIndex) {
         super(attributeNameIndex, attributeLength);
@@ -24,12 +35,62 @@ public class ModuleAttribute extends AttributeInfo {
         this.moduleVersionIndex = moduleVersionIndex;
     }
 
+    /** Add the directive, or if removed with the remove method and not yet purged, keep it where it was. */
+    public void addRequires(Requires requires) {
+        if (!removed.remove(requires)) {
+            this.requires.add(requires);
+        }
+    }
+
+    public void addExports(Exports exports) {
+        if (!removed.remove(exports)) {
+            this.exports.add(exports);
+        }
+    }
+
+    public void addOpens(Opens opens) {
+        if (!removed.remove(opens)) {
+            this.opens.add(opens);
+        }
+    }
 
-    public void addRequires(Requires requires) { this.requires.add(requires); }
-    public void addExports(Exports exports) { this.exports.add(exports); }
-    public void addOpens(Opens opens) { this.opens.add(opens); }
-    public void addUses(int usesIndex) { this.usesIndices.add(usesIndex); }
-    public void addProvides(Provides provides) { this.provides.add(provides); }
+    /** Add the uses, or if removed with removeUses and not yet purged, keep it where it was. */
+    public void addUses(int usesIndex) {
+        if (removedUses.get(usesIndex)) {
+            removedUses.clear(usesIndex);
+            --removedUsesCount;
+        } else {
+            this.usesIndices.addInt(usesIndex);
+        }
+    }
+
+    public void addProvides(Provides provides) {
+        if (!removed.remove(provides)) {
+            this.provides.add(provides);
+        }
+    }
+
+    public void removeRequires(Requires requires) { markRemoved(requires); }
+    public void removeExports(Exports exports) { markRemoved(exports); }
+    public void removeOpens(Opens opens) { markRemoved(opens); }
+    public void removeProvides(Provides provides) { markRemoved(provides); }
+
+    public void removeUses(int usesIndex) {
+        if (!removedUses.get(usesIndex)) {
+            removedUses.set(usesIndex);
+            if (++removedUsesCount > usesIndices.size() / 2) {
+                purgeRemoved();
+            }
+        }
+    }
+
+    /** Mark the directive for removal, purging once half the directives are marked to keep removal O(1) amortized. */
+    private void markRemoved(Object directive) {
+        if (removed.add(directive) &&
+                removed.size() > (requires.size() + exports.size() + opens.size() + provides.size()) / 2) {
+            purgeRemoved();
+        }
+    }
 
     public void setModuleNameIndex(int moduleNameIndex) { this.moduleNameIndex = moduleNameIndex; }
     public void setModuleVersionIndex(int newModuleVersionIndex) { moduleVersionIndex = newModuleVersionIndex; }
@@ -37,11 +98,11 @@ public class ModuleAttribute extends AttributeInfo {
     public int moduleNameIndex() { return moduleNameIndex; }
     public int moduleFlags() { return moduleFlags; }
     public int moduleVersionIndex() { return moduleVersionIndex; }
-    public List<Requires> requires() { return requires; }
-    public List<Exports> exports() { return exports; }
-    public List<Opens> opens() { return opens; }
-    public List<Integer> usesIndices() { return usesIndices; }
-    public List<Provides> provides() { return provides; }
+    public List<Requires> requires() { purgeRemoved(); return requires; }
+    public List<Exports> exports() { purgeRemoved(); return exports; }
+    public List<Opens> opens() { purgeRemoved(); return opens; }
+    public IntList usesIndices() { purgeRemoved(); return usesIndices; }
+    public List<Provides> provides() { purgeRemoved(); return provides; }
 
     public EnumSet<ModuleDescriptor.Modifier> getModuleModifiers() {
         EnumSet<ModuleDescriptor.Modifier> modifiers = EnumSet.noneOf(ModuleDescriptor.Modifier.class);
@@ -52,11 +113,50 @@ public class ModuleAttribute extends AttributeInfo {
     }
 
     public void removeRequiresIf(Predicate<Requires> removePredicate) {
+        purgeRemoved();
         requires.removeIf(removePredicate);
     }
 
+    public void removeExportsIf(Predicate<Exports> removePredicate) {
+        purgeRemoved();
+        exports.removeIf(removePredicate);
+    }
+
+    public void removeOpensIf(Predicate<Opens> removePredicate) {
+        purgeRemoved();
+        opens.removeIf(removePredicate);
+    }
+
+    public void removeUsesIf(Predicate<Integer> removePredicate) {
+        purgeRemoved();
+        usesIndices.removeIf(removePredicate);
+    }
+
+    public void removeProvidesIf(Predicate<Provides> removePredicate) {
+        purgeRemoved();
+        provides.removeIf(removePredicate);
+    }
+
+    private void purgeRemoved() {
+        if (!removed.isEmpty()) {
+            requires.removeIf(removed::contains);
+            exports.removeIf(removed::contains);
+            opens.removeIf(removed::contains);
+            provides.removeIf(removed::contains);
+            removed.clear();
+        }
+
+        if (removedUsesCount > 0) {
+            usesIndices.removeIf(removedUses::get);
+            removedUses.clear();
+            removedUsesCount = 0;
+        }
+    }
+
     @Override
     protected void attributeSpecificAppendTo(Output output) {
+        purgeRemoved();
+
         output.appendU2(moduleNameIndex);
         output.appendU2(moduleFlags);
         output.appendU2(moduleVersionIndex);
@@ -71,9 +171,21 @@ public class ModuleAttribute extends AttributeInfo {
         opens.forEach(o -> o.appendTo(output));
 
         output.appendU2(usesIndices.size());
-        usesIndices.forEach(output::appendU2);
+        usesIndices.forEachInt(output::appendU2);
 
         output.appendU2(provides.size());
         provides.forEach(p -> p.appendTo(output));
     }
+
+    @Override
+    protected void attributeSpecificRemapConstantIndices(IntUnaryOperator remap) {
+        purgeRemoved();
+        moduleNameIndex = remap.applyAsInt(moduleNameIndex);
+        moduleVersionIndex = remap.applyAsInt(moduleVersionIndex);
+        requires.forEach(r -> r.remapConstantIndices(remap));
+        exports.forEach(e -> e.remapConstantIndices(remap));
+        opens.forEach(o -> o.remapConstantIndices(remap));
+        usesIndices.replaceAllInts(remap);
+        provides.forEach(p -> p.remapConstantIndices(remap));
+    }
 }
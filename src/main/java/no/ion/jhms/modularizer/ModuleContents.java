@@ -0,0 +1,74 @@
+package no.ion.jhms.modularizer;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * The packages and classes of a module, derived from its entry names in a single pass like the module system does:
+ * Each directory containing a file is a package, except META-INF and directories that are not legal package names.
+ * The entries of the versioned directories of a multi-release JAR are included.  Lookups are O(1), to validate any
+ * number of edits without rescanning the archive.
+ */
+public class ModuleContents {
+    private static final String CLASS_SUFFIX = ".class";
+
+    private final Set<String> packages;
+    private final Set<String> classes;
+
+    private ModuleContents(Set<String> packages, Set<String> classes) {
+        this.packages = packages;
+        this.classes = classes;
+    }
+
+    /**
+     * @param entryNames        the '/'-separated names of the entries
+     * @param classesDirectory  the directory of the classes, e.g. {@value Jar#JMOD_CLASSES_DIRECTORY}, or empty
+     */
+    public static ModuleContents fromEntryNames(List<String> entryNames, String classesDirectory) {
+        Set<String> directories = new HashSet<>();
+        Set<String> classes = new HashSet<>();
+        for (String name : entryNames) {
+            if (!name.startsWith(classesDirectory) || name.endsWith("/")) {
+                continue;
+            }
+
+            int start = classesDirectory.length();
+            if (name.startsWith(Jar.VERSIONS_DIRECTORY, start)) {
+                int releaseEnd = name.indexOf('/', start + Jar.VERSIONS_DIRECTORY.length());
+                if (releaseEnd == -1) {
+                    continue;
+                }
+                start = releaseEnd + 1;
+            } else if (name.startsWith(Jar.META_INF_DIRECTORY, start)) {
+                continue;
+            }
+
+            int lastSlash = name.lastIndexOf('/');
+            if (lastSlash > start) {
+                directories.add(name.substring(start, lastSlash));
+                if (name.endsWith(CLASS_SUFFIX)) {
+                    classes.add(name.substring(start, name.length() - CLASS_SUFFIX.length()).replace('/', '.'));
+                }
+            }
+        }
+
+        Set<String> packages = new HashSet<>();
+        for (String directory : directories) {
+            if (Jar.isPackageDirectory(directory)) {
+                packages.add(directory.replace('/', '.'));
+            }
+        }
+
+        return new ModuleContents(packages, classes);
+    }
+
+    public SortedSet<String> packages() { return new TreeSet<>(packages); }
+
+    public boolean hasPackage(String packageName) { return packages.contains(packageName); }
+
+    /** Whether there is a class file for the binary class name, e.g. a.b.C or a.b.C$D. */
+    public boolean hasClass(String className) { return classes.contains(className); }
+}
@@ -1,11 +1,23 @@
 package no.ion.jhms.modularizer;
 
+import java.io.IOException;
 import java.io.PrintStream;
+import java.io.UncheckedIOException;
 import java.lang.module.ModuleDescriptor;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.SortedMap;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import static java.util.Objects.requireNonNull;
+import static no.ion.jhms.modularizer.Exceptions.uncheckIO;
 
 public class ModuleDescription {
     private final PrintStream out;
@@ -13,7 +25,9 @@ public class ModuleDescription {
 
     public static class Options {
         private Path jarPath = null;
+        private Path runtimeImage = null;
         private PrintStream out = System.out;
+        private Integer release = null; // null: all releases
 
         public Options() {}
 
@@ -22,7 +36,21 @@ public class ModuleDescription {
             return this;
         }
 
+        /** Describe all modules of the runtime image (Java home) at path, instead of a JAR. */
+        public Options setRuntimeImage(Path path) {
+            this.runtimeImage = requireNonNull(path);
+            return this;
+        }
+
+        /** Describe only the module-info.class of the given release of a multi-release JAR. */
+        public Options setRelease(int release) {
+            this.release = release;
+            return this;
+        }
+
         public Path jarPath() { return jarPath; }
+        public Optional<Path> runtimeImage() { return Optional.ofNullable(runtimeImage); }
+        public Optional<Integer> release() { return Optional.ofNullable(release); }
         public PrintStream out() { return out; }
     }
 
@@ -31,7 +59,9 @@ public class ModuleDescription {
     }
 
     private boolean isModuleInfoClassFile() { return options.jarPath.getFileName().toString().equals("module-info.class"); }
-    private boolean isJarFile() { return options.jarPath.getFileName().toString().endsWith(".jar"); }
+    private boolean isJarFile() {
+        return options.jarPath.getFileName().toString().endsWith(".jar") || Jar.isJmod(options.jarPath);
+    }
 
     private ModuleDescription(PrintStream out, Options options) {
         this.out = out;
@@ -39,28 +69,207 @@ public class ModuleDescription {
     }
 
     private void describe() {
+        if (options.runtimeImage != null) {
+            if (options.jarPath != null) {
+                throw new ErrorException("--runtime-image conflicts with --file");
+            }
+            describeRuntimeImage(options.runtimeImage);
+            return;
+        }
+
         if (options.jarPath() == null) {
             throw new ErrorException("missing JAR path");
         }
 
-        final ModuleInfoClass moduleInfoClass;
-        if (isJarFile()) {
-            Jar jar = new Jar(options.jarPath(), out);
-            Optional<ModuleInfoClass> jarModuleInfoClass = jar.readModuleInfoClass();
-            if (jarModuleInfoClass.isPresent()) {
-                moduleInfoClass = jarModuleInfoClass.get();
-            } else {
+        if (Files.isDirectory(options.jarPath())) {
+            SortedMap<Integer, byte[]> moduleInfoClasses = new ModuleDirectory(options.jarPath())
+                    .readModuleInfoClassBytesByRelease();
+            if (options.release != null) {
+                moduleInfoClasses = moduleInfoClasses.subMap(options.release, options.release + 1);
+            }
+            if (moduleInfoClasses.isEmpty()) {
                 throw new ErrorException("no module declaration found: " + options.jarPath());
             }
+            print(moduleInfoClasses);
+        } else if (isJarFile()) {
+            String path = options.jarPath().toString();
+            int separatorIndex = path.indexOf(Jar.NESTED_SEPARATOR);
+            if (separatorIndex != -1 && isGlob(path.substring(separatorIndex + Jar.NESTED_SEPARATOR.length()))) {
+                describeNestedJars(Path.of(path.substring(0, separatorIndex)),
+                        path.substring(separatorIndex + Jar.NESTED_SEPARATOR.length()));
+                return;
+            }
+
+            try (Jar jar = new Jar(options.jarPath())) {
+                SortedMap<Integer, byte[]> moduleInfoClasses = readModuleInfoClasses(jar);
+                if (!moduleInfoClasses.isEmpty()) {
+                    print(moduleInfoClasses);
+                } else {
+                    out.print(describeAutomaticModule(jar)
+                            .orElseThrow(() -> new ErrorException("no module declaration found: " + jar.path())));
+                }
+            }
         } else if (isModuleInfoClassFile()) {
             ModuleInfoClassReader reader = ModuleInfoClassReader.open(options.jarPath());
-            moduleInfoClass = reader.parse();
+            print(reader.parse());
         } else {
-            throw new ErrorException("file neither *.jar nor module-info.class");
+            throw new ErrorException("file neither a directory, *.jar, *.jmod nor module-info.class");
+        }
+    }
+
+    /**
+     * Describe each JAR nested in the outer JAR with an entry name matching the glob pattern, in the order of the
+     * central directory, preceded by a comment with its path.  The central directory of the outer JAR is scanned
+     * once, and each nested JAR is opened once for both its module-info.class and its manifest.
+     */
+    private void describeNestedJars(Path outerPath, String glob) {
+        Pattern pattern = globToPattern(glob);
+        try (Jar outer = new Jar(outerPath)) {
+            boolean first = true;
+            for (Jar nested : outer.nestedJars(name -> pattern.matcher(name).matches())) {
+                if (!first) {
+                    out.println();
+                }
+                first = false;
+
+                try (nested) {
+                    describeNestedJar(nested);
+                }
+            }
+        }
+    }
+
+    private void describeNestedJar(Jar nested) {
+        SortedMap<Integer, byte[]> moduleInfoClasses = readModuleInfoClasses(nested);
+        Optional<String> automaticModule = moduleInfoClasses.isEmpty() ?
+                describeAutomaticModule(nested) :
+                Optional.empty();
+        if (automaticModule.isPresent()) {
+            out.println("// " + nested.path());
+            out.print(automaticModule.get());
+        } else if (moduleInfoClasses.isEmpty()) {
+            out.println("// " + nested.path() + ": no module declaration");
+        } else {
+            out.println("// " + nested.path());
+            print(moduleInfoClasses);
+        }
+    }
+
+    /**
+     * Describe each module in the lib/modules jimage of the runtime image through its jrt:/ filesystem, ordered by
+     * module name.  The module-info.class are parsed and printed in parallel.
+     */
+    private void describeRuntimeImage(Path javaHome) {
+        if (!Files.isRegularFile(javaHome.resolve("lib").resolve("modules"))) {
+            throw new ErrorException("not a runtime image, missing lib/modules: " + javaHome);
+        }
+
+        List<String> descriptions;
+        try (FileSystem jrt = openJrtFileSystem(javaHome)) {
+            List<Path> moduleInfoClassPaths;
+            try (var modules = Files.list(jrt.getPath("/modules"))) {
+                moduleInfoClassPaths = modules
+                        .map(module -> module.resolve(Jar.MODULE_INFO_CLASS))
+                        .filter(Files::isRegularFile)
+                        .sorted()
+                        .collect(Collectors.toList());
+            }
+
+            descriptions = moduleInfoClassPaths.parallelStream()
+                    .map(path -> describe(ModuleInfoClassReader.disassemble(uncheckIO(() -> Files.readAllBytes(path)))))
+                    .collect(Collectors.toList());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+
+        out.print(String.join("\n", descriptions));
+    }
+
+    private static FileSystem openJrtFileSystem(Path javaHome) {
+        try {
+            return FileSystems.newFileSystem(URI.create("jrt:/"), Map.of("java.home", javaHome.toString()));
+        } catch (IOException e) {
+            throw new ErrorException("failed to open the runtime image " + javaHome + ": " + e.getMessage());
         }
+    }
+
+    private SortedMap<Integer, byte[]> readModuleInfoClasses(Jar jar) {
+        SortedMap<Integer, byte[]> moduleInfoClasses = jar.readModuleInfoClassBytesByRelease();
+        if (options.release != null) {
+            moduleInfoClasses = moduleInfoClasses.subMap(options.release, options.release + 1);
+        }
+        return moduleInfoClasses;
+    }
+
+    /**
+     * Returns the description of the automatic module named by the Automatic-Module-Name of the manifest of a JAR
+     * without module-info.class, or empty if there is no such attribute.
+     */
+    private Optional<String> describeAutomaticModule(Jar jar) {
+        if (Jar.isJmod(jar.path()) || (options.release != null && options.release != Jar.BASE_RELEASE)) {
+            return Optional.empty();
+        }
+
+        Optional<String> name = jar.readManifest()
+                .flatMap(manifest -> manifest.getMainAttribute(JarManifest.AUTOMATIC_MODULE_NAME));
+
+        return name.map(moduleName -> {
+            ModuleDescriptor descriptor;
+            try {
+                descriptor = ModuleDescriptor.newAutomaticModule(moduleName).build();
+            } catch (IllegalArgumentException e) {
+                throw new ErrorException("bad " + JarManifest.AUTOMATIC_MODULE_NAME + " in " + jar.path() + ": " +
+                        e.getMessage());
+            }
+            return new ModuleInfoPrinter(descriptor).getModuleInfoJava();
+        });
+    }
+
+    /**
+     * The versioned module-info.class of a multi-release JAR are described after the root one, each preceded by a
+     * comment with the entry name.
+     */
+    private void print(SortedMap<Integer, byte[]> moduleInfoClasses) {
+        boolean first = true;
+        for (var entry : moduleInfoClasses.entrySet()) {
+            if (!first) {
+                out.println();
+            }
+            if (entry.getKey() != Jar.BASE_RELEASE) {
+                out.println("// " + Jar.moduleInfoClassName(entry.getKey()));
+            }
+            print(ModuleInfoClassReader.disassemble(entry.getValue()));
+            first = false;
+        }
+    }
+
+    private static boolean isGlob(String name) { return name.indexOf('*') != -1 || name.indexOf('?') != -1; }
+
+    /** '*' matches within a directory, '**' across directories, and '?' any character but '/'. */
+    static Pattern globToPattern(String glob) {
+        var regex = new StringBuilder();
+        for (int i = 0; i < glob.length(); ++i) {
+            char c = glob.charAt(i);
+            if (c == '*' && i + 1 < glob.length() && glob.charAt(i + 1) == '*') {
+                regex.append(".*");
+                ++i;
+            } else if (c == '*') {
+                regex.append("[^/]*");
+            } else if (c == '?') {
+                regex.append("[^/]");
+            } else {
+                regex.append(Pattern.quote(String.valueOf(c)));
+            }
+        }
+        return Pattern.compile(regex.toString());
+    }
+
+    private void print(ModuleInfoClass moduleInfoClass) {
+        out.print(describe(moduleInfoClass));
+    }
 
+    private static String describe(ModuleInfoClass moduleInfoClass) {
         ModuleDescriptor descriptor = new ModuleDescriptorFactory(moduleInfoClass).make();
-        ModuleInfoPrinter printer = new ModuleInfoPrinter(descriptor);
-        options.out().print(printer.getModuleInfoJava());
+        return new ModuleInfoPrinter(descriptor).getModuleInfoJava();
     }
 }
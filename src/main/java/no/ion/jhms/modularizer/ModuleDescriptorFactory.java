@@ -94,7 +94,7 @@ public class ModuleDescriptorFactory {
             }
         });
 
-        moduleAttribute.usesIndices().forEach(usesIndex -> {
+        moduleAttribute.usesIndices().forEachInt(usesIndex -> {
             builder.uses(constantPool.resolveClassName(usesIndex));
         });
 
@@ -107,6 +107,9 @@ public class ModuleDescriptorFactory {
             builder.provides(serviceInterface, providers);
         });
 
+        builder.packages(moduleInfoClass.getPackages());
+        moduleInfoClass.getMainClass().ifPresent(builder::mainClass);
+
         return builder.build();
     }
 }
@@ -0,0 +1,103 @@
+package no.ion.jhms.modularizer;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static no.ion.jhms.modularizer.Exceptions.uncheckIO;
+
+/**
+ * An exploded module, i.e. a directory of classes like target/classes, with module-info.class at the root and
+ * optionally versioned ones in META-INF/versions/N as in a multi-release JAR.
+ */
+public class ModuleDirectory {
+    private final Path path;
+
+    public ModuleDirectory(Path path) {
+        this.path = path;
+    }
+
+    public Path path() { return path; }
+
+    /** Returns the bytes of each module-info.class by release, with the root one as {@link Jar#BASE_RELEASE}. */
+    public SortedMap<Integer, byte[]> readModuleInfoClassBytesByRelease() {
+        SortedMap<Integer, byte[]> moduleInfoClasses = new TreeMap<>();
+
+        Path rootModuleInfoClass = path.resolve(Jar.MODULE_INFO_CLASS);
+        if (Files.isRegularFile(rootModuleInfoClass)) {
+            moduleInfoClasses.put(Jar.BASE_RELEASE, uncheckIO(() -> Files.readAllBytes(rootModuleInfoClass)));
+        }
+
+        Path versionsDirectory = path.resolve(Jar.VERSIONS_DIRECTORY);
+        if (Files.isDirectory(versionsDirectory)) {
+            for (Path versionDirectory : list(versionsDirectory)) {
+                String name = Jar.VERSIONS_DIRECTORY + versionDirectory.getFileName() + "/" + Jar.MODULE_INFO_CLASS;
+                OptionalInt release = Jar.moduleInfoClassRelease(name);
+                Path moduleInfoClass = versionDirectory.resolve(Jar.MODULE_INFO_CLASS);
+                if (release.isPresent() && Files.isRegularFile(moduleInfoClass)) {
+                    moduleInfoClasses.put(release.getAsInt(), uncheckIO(() -> Files.readAllBytes(moduleInfoClass)));
+                }
+            }
+        }
+
+        return moduleInfoClasses;
+    }
+
+    /**
+     * Replace or create each module-info.class through an atomic rename, by its name relative the directory as
+     * returned by {@link Jar#moduleInfoClassName(int)}.
+     */
+    public void writeModuleInfoClasses(Map<String, byte[]> moduleInfoClasses, AtomicFile.Durability durability) {
+        moduleInfoClasses.forEach((name, bytes) -> {
+            Path target = path.resolve(name);
+            uncheckIO(() -> Files.createDirectories(target.getParent()));
+            Path permissionsFrom = Files.exists(target) ? target : null;
+            AtomicFile.write(target, permissionsFrom, durability, channel -> {
+                ByteBuffer buffer = ByteBuffer.wrap(bytes);
+                while (buffer.hasRemaining()) {
+                    uncheckIO(() -> channel.write(buffer));
+                }
+            });
+        });
+    }
+
+    /** Returns the packages of the module, see {@link ModuleContents}. */
+    public SortedSet<String> packages() {
+        return contents().packages();
+    }
+
+    /** Returns the packages and classes of the module.  Subdirectories are walked in parallel. */
+    public ModuleContents contents() {
+        List<String> fileNames = list(path).parallelStream()
+                .flatMap(this::fileNames)
+                .collect(Collectors.toList());
+        return ModuleContents.fromEntryNames(fileNames, "");
+    }
+
+    /** Returns the '/'-separated names relative the module directory of all regular files at or below path. */
+    private Stream<String> fileNames(Path path) {
+        if (Files.isDirectory(path)) {
+            return list(path).parallelStream().flatMap(this::fileNames);
+        } else if (Files.isRegularFile(path)) {
+            return Stream.of(this.path.relativize(path).toString().replace(path.getFileSystem().getSeparator(), "/"));
+        } else {
+            return Stream.empty();
+        }
+    }
+
+    private static List<Path> list(Path directory) {
+        return uncheckIO(() -> {
+            try (Stream<Path> children = Files.list(directory)) {
+                return children.collect(Collectors.toList());
+            }
+        });
+    }
+}
@@ -0,0 +1,137 @@
+package no.ion.jhms.modularizer;
+
+import java.io.InputStream;
+import java.lang.module.FindException;
+import java.lang.module.ModuleDescriptor;
+import java.lang.module.ModuleFinder;
+import java.lang.module.ModuleReader;
+import java.lang.module.ModuleReference;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static no.ion.jhms.modularizer.Exceptions.uncheckIO;
+
+/**
+ * Computes the hashes recorded in the ModuleHashes attribute of a module, like {@code jmod --hash-modules}:  the
+ * hash of each module on a module path that matches a pattern and depends on the module directly or indirectly.
+ * A hash is the SHA-256 of the module content as the JDK computes it when resolving the module:  the name and
+ * content of each resource of the module, as listed by its {@link ModuleReader}, in the order of the names.
+ */
+public class ModuleHasher {
+    public static final String ALGORITHM = "SHA-256";
+
+    private final Pattern pattern;
+    private final List<Path> modulePath;
+    private Map<String, ModuleReference> modules = null;
+    private Map<String, Set<String>> dependentsByModule = null;
+
+    public ModuleHasher(Pattern pattern, List<Path> modulePath) {
+        this.pattern = pattern;
+        this.modulePath = List.copyOf(modulePath);
+    }
+
+    /** Returns the hash of each module to record in the ModuleHashes attribute of moduleName, by module name. */
+    public SortedMap<String, byte[]> hashes(String moduleName) {
+        SortedMap<String, ModuleReference> references = dependents(moduleName);
+        if (references.isEmpty()) {
+            throw new ErrorException("no module on the module path matching '" + pattern + "' depends on " +
+                    moduleName);
+        }
+
+        return references.entrySet().parallelStream()
+                .collect(Collectors.toMap(Map.Entry::getKey, entry -> hash(entry.getValue()),
+                        (first, second) -> first, TreeMap::new));
+    }
+
+    /** Returns each module matching the pattern that depends on moduleName, by module name. */
+    SortedMap<String, ModuleReference> dependents(String moduleName) {
+        findModules();
+
+        Set<String> visited = new HashSet<>();
+        Deque<String> pending = new ArrayDeque<>(List.of(moduleName));
+        SortedMap<String, ModuleReference> references = new TreeMap<>();
+        while (!pending.isEmpty()) {
+            for (String dependent : dependentsByModule.getOrDefault(pending.poll(), Set.of())) {
+                if (dependent.equals(moduleName) || !visited.add(dependent)) {
+                    continue;
+                }
+
+                pending.add(dependent);
+                if (pattern.matcher(dependent).matches()) {
+                    references.put(dependent, modules.get(dependent));
+                }
+            }
+        }
+
+        return references;
+    }
+
+    /**
+     * Returns the SHA-256 of the module content, like jdk.internal.module.ModuleHashes.computeHash:  the UTF-8 name
+     * followed by the content of each resource, sorted by name.
+     */
+    static byte[] hash(ModuleReference reference) {
+        MessageDigest digest = newDigest();
+        byte[] buffer = new byte[32 * 1024];
+        uncheckIO(() -> {
+            try (ModuleReader reader = reference.open(); Stream<String> names = reader.list()) {
+                for (String name : names.sorted().collect(Collectors.toList())) {
+                    digest.update(name.getBytes(StandardCharsets.UTF_8));
+                    try (InputStream in = reader.open(name).orElseThrow(() -> new ErrorException(
+                            "cannot hash module " + reference.descriptor().name() + ": failed to open " + name))) {
+                        for (int length; (length = in.read(buffer)) != -1; ) {
+                            digest.update(buffer, 0, length);
+                        }
+                    }
+                }
+            }
+        });
+        return digest.digest();
+    }
+
+    private void findModules() {
+        if (modules != null) {
+            return;
+        }
+
+        Set<ModuleReference> references;
+        try {
+            references = ModuleFinder.of(modulePath.toArray(Path[]::new)).findAll();
+        } catch (FindException e) {
+            throw new ErrorException("bad module path: " + e.getMessage());
+        }
+
+        modules = new HashMap<>();
+        dependentsByModule = new HashMap<>();
+        for (ModuleReference reference : references) {
+            String name = reference.descriptor().name();
+            modules.put(name, reference);
+            for (ModuleDescriptor.Requires requires : reference.descriptor().requires()) {
+                dependentsByModule.computeIfAbsent(requires.name(), required -> new TreeSet<>()).add(name);
+            }
+        }
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package no.ion.jhms.modularizer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * The JDK-specific ModuleHashes attribute, tying the module to the modules that depend on it by recording a hash
+ * of each, as written by {@code jmod --hash-modules}.
+ */
+public class ModuleHashesAttribute extends AttributeInfo {
+    public static final String NAME = "ModuleHashes";
+
+    private int algorithmIndex;
+    private final List<Hash> hashes;
+
+    public static class Hash {
+        private int moduleNameIndex;
+        private final byte[] hash;
+
+        public Hash(int moduleNameIndex, byte[] hash) {
+            this.moduleNameIndex = moduleNameIndex;
+            this.hash = hash;
+        }
+
+        /** The constant pool index of the CONSTANT_Module_info of the hashed module. */
+        public int moduleNameIndex() { return moduleNameIndex; }
+        public byte[] hash() { return hash; }
+    }
+
+    public ModuleHashesAttribute(int attributeNameIndex, int attributeLength, int algorithmIndex, List<Hash> hashes) {
+        super(attributeNameIndex, attributeLength);
+        this.algorithmIndex = algorithmIndex;
+        this.hashes = new ArrayList<>(hashes);
+    }
+
+    /** The constant pool index of the CONSTANT_Utf8_info naming the algorithm, e.g. SHA-256. */
+    public int algorithmIndex() { return algorithmIndex; }
+    public List<Hash> hashes() { return hashes; }
+
+    @Override
+    protected void attributeSpecificAppendTo(Output output) {
+        output.appendU2(algorithmIndex);
+        output.appendU2(hashes.size());
+        for (Hash hash : hashes) {
+            output.appendU2(hash.moduleNameIndex);
+            output.appendU2(hash.hash.length);
+            output.writeByteArray(hash.hash, 0, hash.hash.length);
+        }
+    }
+
+    @Override
+    protected void attributeSpecificRemapConstantIndices(IntUnaryOperator remap) {
+        algorithmIndex = remap.applyAsInt(algorithmIndex);
+        hashes.forEach(hash -> hash.moduleNameIndex = remap.applyAsInt(hash.moduleNameIndex));
+    }
+}
@@ -1,8 +1,19 @@
 package no.ion.jhms.modularizer;
 
+import java.lang.module.ModuleDescriptor;
 import java.lang.module.ModuleDescriptor.Version;
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.SortedSet;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 public class ModuleInfoClass {
     public static final int ACC_MODULE = 0x8000;
@@ -15,6 +26,8 @@ public class ModuleInfoClass {
     private int accessFlags;
     private int thisClass;
     private final AttributeInfos attributes;
+    /** The directives of the Module attribute by name, built on first use. */
+    private Directives directives = null;
 
     public ModuleInfoClass(int magic, int minorVersion, int majorVersion, ConstantPool constantPool, int accessFlags,
                            int thisClass, AttributeInfos attributes) {
@@ -46,7 +59,71 @@ public class ModuleInfoClass {
         getAttributeInfos().getModuleAttribute().setModuleNameIndex(moduleInfoIndex);
     }
 
+    /** Returns the packages of the ModulePackages attribute, or empty if there is no such attribute. */
+    public SortedSet<String> getPackages() {
+        var packages = new TreeSet<String>();
+        attributes.getModulePackagesAttribute().ifPresent(attribute -> attribute.packageIndices()
+                .forEachInt(index -> packages.add(constantPool.resolvePackageName(index))));
+        return packages;
+    }
+
+    /**
+     * Set the ModulePackages attribute to the given packages, e.g. those found in a JAR, and the packages the Module
+     * and ModuleMainClass attributes require to be there:  the exported and opened packages, those of the service
+     * providers, and that of the main class.  Existing constant pool entries are reused, and the attribute is added
+     * if missing.
+     */
+    public void setPackages(Set<String> packages) {
+        ModuleAttribute moduleAttribute = attributes.getModuleAttribute();
+        var allPackages = new TreeSet<>(packages);
+        moduleAttribute.exports().forEach(exports -> allPackages.add(constantPool.resolvePackageName(exports.index())));
+        moduleAttribute.opens().forEach(opens -> allPackages.add(constantPool.resolvePackageName(opens.index())));
+        moduleAttribute.provides().forEach(provides -> provides.providesWithIndices().forEachInt(index ->
+                packageOf(constantPool.resolveClassName(index)).ifPresent(allPackages::add)));
+        getMainClass().flatMap(ModuleInfoClass::packageOf).ifPresent(allPackages::add);
+
+        var packageIndices = new IntList(allPackages.size());
+        for (String packageName : allPackages) {
+            packageIndices.addInt(addPackage(packageName));
+        }
+
+        int attributeNameIndex = attributes.getModulePackagesAttribute()
+                .map(AttributeInfo::attributeNameIndex)
+                .orElseGet(() -> constantPool.add(ConstantUtf8.fromString(ModulePackagesAttribute.NAME)));
+        attributes.setModulePackages(new ModulePackagesAttribute(attributeNameIndex, -1, packageIndices));
+    }
+
+    /** Returns the hashes of the ModuleHashes attribute by module name, or empty if there is no such attribute. */
+    public SortedMap<String, byte[]> getModuleHashes() {
+        var hashes = new TreeMap<String, byte[]>();
+        attributes.getModuleHashesAttribute().ifPresent(attribute -> attribute.hashes()
+                .forEach(hash -> hashes.put(constantPool.resolveModuleName(hash.moduleNameIndex()), hash.hash())));
+        return hashes;
+    }
+
+    /** Returns the algorithm of the ModuleHashes attribute, e.g. SHA-256, or empty if there is no such attribute. */
+    public Optional<String> getModuleHashesAlgorithm() {
+        return attributes.getModuleHashesAttribute()
+                .map(attribute -> constantPool.resolveUtf8(attribute.algorithmIndex()));
+    }
+
+    /** Set the ModuleHashes attribute to the hashes by module name, computed with the given algorithm. */
+    public void setModuleHashes(String algorithm, SortedMap<String, byte[]> hashesByModuleName) {
+        int algorithmIndex = constantPool.add(ConstantUtf8.fromString(algorithm));
+        List<ModuleHashesAttribute.Hash> hashes = new ArrayList<>(hashesByModuleName.size());
+        hashesByModuleName.forEach((moduleName, hash) ->
+                hashes.add(new ModuleHashesAttribute.Hash(addModule(moduleName), hash)));
+
+        int attributeNameIndex = attributes.getModuleHashesAttribute()
+                .map(AttributeInfo::attributeNameIndex)
+                .orElseGet(() -> constantPool.add(ConstantUtf8.fromString(ModuleHashesAttribute.NAME)));
+        attributes.setModuleHashes(new ModuleHashesAttribute(attributeNameIndex, -1, algorithmIndex, hashes));
+    }
+
+    /** Serialize the class file, after removing the constant pool entries that are no longer referred to. */
     public void appendTo(Output output) {
+        compactConstantPool();
+
         output.appendU4(magic);
         output.appendU2(minorVersion);
         output.appendU2(majorVersion);
@@ -60,6 +137,29 @@ public class ModuleInfoClass {
         attributes.appendTo(output);
     }
 
+    /**
+     * Remove the constant pool entries orphaned by edits, e.g. the old version after setting the module version,
+     * and remap all indices.  The pool is left as-is if an attribute may refer to entries in an unknown way.
+     */
+    private void compactConstantPool() {
+        if (!attributes.canRemapConstantIndices()) {
+            return;
+        }
+
+        BitSet live = new BitSet(constantPool.count());
+        live.set(thisClass);
+        attributes.remapConstantIndices(index -> {
+            live.set(index);
+            return index;
+        });
+
+        constantPool.compact(live).ifPresent(newIndices -> {
+            thisClass = newIndices[thisClass];
+            attributes.remapConstantIndices(index -> newIndices[index]);
+            directives = null;
+        });
+    }
+
     public Optional<Version> getModuleVersion() {
         int moduleVersionIndex = attributes.getModuleAttribute().moduleVersionIndex();
         if (moduleVersionIndex == 0) {
@@ -75,7 +175,6 @@ public class ModuleInfoClass {
 
         var moduleAttribute = attributes.getModuleAttribute();
 
-        // TODO: support replacing/removal of existing UTF8 entry
         int index = constantPool.add(utf8);
         moduleAttribute.setModuleVersionIndex(index);
     }
@@ -83,90 +182,192 @@ public class ModuleInfoClass {
     public void removeModuleVersion() {
         var moduleAttribute = attributes.getModuleAttribute();
 
-        int index = moduleAttribute.moduleVersionIndex();
-        if (index > 0) {
-            // TODO: Proper support for removing entries from constant pool.
-            // Removing entries from the constant pool requires keeping track of all references
-            // to each constant pool entry:
-            //   1. Only if reference count reaches 0 is an entry removed.
-            //   2. If an entry is removed, all references to the following entries must be decremented.
-            //
-            // In particular, this requires understanding ALL sections of the class file, which can contain
-            // expressions.
-            moduleAttribute.setModuleVersionIndex(0);
-        }
+        // The orphaned CONSTANT_Utf8_info is removed by compactConstantPool() on serialization.
+        moduleAttribute.setModuleVersionIndex(0);
     }
 
     public Optional<Requires> getRequires(String moduleName) {
-        ModuleAttribute moduleAttribute = attributes.getModuleAttribute();
-        for (var requires : moduleAttribute.requires()) {
-            int indexOfModuleName = requires.requiresIndex();
-            String requiresModuleName = constantPool.resolveModuleName(indexOfModuleName);
-            if (requiresModuleName.equals(moduleName)) {
-                return Optional.of(requires);
-            }
-        }
-
-        return Optional.empty();
+        return Optional.ofNullable(directives().requires.get(moduleName));
     }
 
     public void setRequires(String moduleName, EnumSet<RequiresFlag> flags, Optional<Version> version) {
         int requiresFlags = RequiresFlag.toRequiresFlag(flags);
+        int versionUtf8Index = version.map(v -> constantPool.add(ConstantUtf8.fromString(v.toString()))).orElse(0);
 
-        ModuleAttribute moduleAttribute = attributes.getModuleAttribute();
-        for (var requires : moduleAttribute.requires()) {
-            int indexOfModuleName = requires.requiresIndex();
-            String requiresModuleName = constantPool.resolveModuleName(indexOfModuleName);
-            if (!requiresModuleName.equals(moduleName)) {
-                continue;
-            }
-
+        Requires requires = directives().requires.get(moduleName);
+        if (requires == null) {
+            requires = new Requires(addModule(moduleName), requiresFlags, versionUtf8Index);
+            attributes.getModuleAttribute().addRequires(requires);
+            directives.requires.put(moduleName, requires);
+        } else {
             requires.setFlags(requiresFlags);
+            requires.setRequiresVersionIndex(versionUtf8Index);
+        }
+    }
 
-            if (version.isPresent()) {
-                // TODO: Ref. count and be able to remove entries in constant pool
-                var versionUtf8Entry = ConstantUtf8.fromString(version.get().toString());
-                int versionUtf8Index = constantPool.add(versionUtf8Entry);
-                requires.setRequiresVersionIndex(versionUtf8Index);
-            } else {
-                // TODO: Ref. count and be able to remove entry in constant pool
-                requires.setRequiresVersionIndex(0);
+    public void removeRequires(String module) {
+        Requires requires = directives().requires.get(module);
+        if (requires != null) {
+            if (RequiresFlag.MANDATED.hasFlag(requires.requiresFlags())) {
+                throw new ErrorException("unable to remove mandated module: " + module);
             }
+            attributes.getModuleAttribute().removeRequires(requires);
+            directives.requires.remove(module);
+        }
+    }
 
-            return;
+    /** Returns the main class of the ModuleMainClass attribute, or empty if there is no such attribute. */
+    public Optional<String> getMainClass() {
+        return attributes.getModuleMainClassAttribute()
+                .map(attribute -> constantPool.resolveClassName(attribute.mainClassIndex()));
+    }
+
+    public void setMainClass(String className) {
+        int mainClassIndex = addClass(className);
+        int attributeNameIndex = attributes.getModuleMainClassAttribute()
+                .map(AttributeInfo::attributeNameIndex)
+                .orElseGet(() -> constantPool.add(ConstantUtf8.fromString(ModuleMainClassAttribute.NAME)));
+        attributes.setModuleMainClass(new ModuleMainClassAttribute(attributeNameIndex, -1, mainClassIndex));
+    }
+
+    public void removeMainClass() {
+        attributes.removeModuleMainClass();
+    }
+
+    /** Export the package, to the given modules only unless empty, replacing any existing exports of the package. */
+    public void setExports(String packageName, List<String> moduleTargets) {
+        Exports exports = directives().exports.get(packageName);
+        if (exports == null) {
+            exports = new Exports(addPackage(packageName), 0);
+            attributes.getModuleAttribute().addExports(exports);
+            directives.exports.put(packageName, exports);
+        } else {
+            exports.toIndices().clear();
         }
+        IntList toIndices = exports.toIndices();
+        moduleTargets.forEach(moduleName -> toIndices.addInt(addModule(moduleName)));
+    }
 
-        var moduleNameUtf8Entry = ConstantUtf8.fromString(moduleName);
-        int moduleNameUtf8Index = constantPool.add(moduleNameUtf8Entry);
-        var moduleNameModuleEntry = new ConstantModuleInfo(moduleNameUtf8Index);
-        int moduleNameModuleIndex = constantPool.add(moduleNameModuleEntry);
+    public void removeExports(String packageName) {
+        Exports exports = directives().exports.remove(packageName);
+        if (exports != null) {
+            attributes.getModuleAttribute().removeExports(exports);
+        }
+    }
+
+    /** Open the package, to the given modules only unless empty, replacing any existing opens of the package. */
+    public void setOpens(String packageName, List<String> moduleTargets) {
+        if (attributes.getModuleAttribute().getModuleModifiers().contains(ModuleDescriptor.Modifier.OPEN)) {
+            throw new ErrorException("an open module cannot have 'opens' directives: " + getModuleName());
+        }
 
-        final int versionUtf8Index;
-        if (version.isPresent()) {
-            var versionUtf8Entry = ConstantUtf8.fromString(version.get().toString());
-            versionUtf8Index = constantPool.add(versionUtf8Entry);
+        Opens opens = directives().opens.get(packageName);
+        if (opens == null) {
+            opens = new Opens(addPackage(packageName), 0);
+            attributes.getModuleAttribute().addOpens(opens);
+            directives.opens.put(packageName, opens);
         } else {
-            versionUtf8Index = 0;
+            opens.toIndices().clear();
         }
+        IntList toIndices = opens.toIndices();
+        moduleTargets.forEach(moduleName -> toIndices.addInt(addModule(moduleName)));
+    }
 
-        Requires requires = new Requires(moduleNameModuleIndex, requiresFlags, versionUtf8Index);
-        moduleAttribute.addRequires(requires);
+    public void removeOpens(String packageName) {
+        Opens opens = directives().opens.remove(packageName);
+        if (opens != null) {
+            attributes.getModuleAttribute().removeOpens(opens);
+        }
     }
 
-    public void removeRequires(String module) {
-        // TODO: Ref. count and be able to remove entries in constant pool
-        attributes.getModuleAttribute().removeRequiresIf(requires -> {
-            int requiresIndex = requires.requiresIndex();
-            String moduleName = constantPool.resolveModuleName(requiresIndex);
-            if (moduleName.equals(module)) {
-                if (RequiresFlag.MANDATED.hasFlag(requires.requiresFlags())) {
-                    throw new ErrorException("unable to remove mandated module: " + module);
-                }
-                return true;
-            } else {
-                return false;
-            }
-        });
+    public void addUses(String serviceName) {
+        if (!directives().uses.containsKey(serviceName)) {
+            int usesIndex = addClass(serviceName);
+            attributes.getModuleAttribute().addUses(usesIndex);
+            directives.uses.put(serviceName, usesIndex);
+        }
+    }
+
+    public void removeUses(String serviceName) {
+        Integer usesIndex = directives().uses.remove(serviceName);
+        if (usesIndex != null) {
+            attributes.getModuleAttribute().removeUses(usesIndex);
+        }
+    }
+
+    /** Provide the service with the given implementations, replacing any existing provides of the service. */
+    public void setProvides(String serviceName, List<String> implementationNames) {
+        Provides provides = directives().provides.get(serviceName);
+        if (provides == null) {
+            provides = new Provides(addClass(serviceName));
+            attributes.getModuleAttribute().addProvides(provides);
+            directives.provides.put(serviceName, provides);
+        } else {
+            provides.providesWithIndices().clear();
+        }
+        IntList withIndices = provides.providesWithIndices();
+        implementationNames.forEach(className -> withIndices.addInt(addClass(className)));
+    }
+
+    public void removeProvides(String serviceName) {
+        Provides provides = directives().provides.remove(serviceName);
+        if (provides != null) {
+            attributes.getModuleAttribute().removeProvides(provides);
+        }
+    }
+
+    private Directives directives() {
+        if (directives == null) {
+            directives = new Directives(constantPool, attributes.getModuleAttribute());
+        }
+        return directives;
+    }
+
+    /**
+     * The requires, exports, opens, uses, and provides of the Module attribute by module, package, or service name,
+     * making each lookup O(1) instead of resolving the name of every directive.  The edits of this class keep it in
+     * sync with the Module attribute.  Should there be duplicates, the first directive wins, as it did before.
+     */
+    private static class Directives {
+        private final Map<String, Requires> requires = new HashMap<>();
+        private final Map<String, Exports> exports = new HashMap<>();
+        private final Map<String, Opens> opens = new HashMap<>();
+        private final Map<String, Integer> uses = new HashMap<>();
+        private final Map<String, Provides> provides = new HashMap<>();
+
+        private Directives(ConstantPool constantPool, ModuleAttribute moduleAttribute) {
+            moduleAttribute.requires().forEach(directive ->
+                    requires.putIfAbsent(constantPool.resolveModuleName(directive.requiresIndex()), directive));
+            moduleAttribute.exports().forEach(directive ->
+                    exports.putIfAbsent(constantPool.resolvePackageName(directive.index()), directive));
+            moduleAttribute.opens().forEach(directive ->
+                    opens.putIfAbsent(constantPool.resolvePackageName(directive.index()), directive));
+            moduleAttribute.usesIndices().forEachInt(index ->
+                    uses.putIfAbsent(constantPool.resolveClassName(index), index));
+            moduleAttribute.provides().forEach(directive ->
+                    provides.putIfAbsent(constantPool.resolveClassName(directive.providesIndex()), directive));
+        }
+    }
+
+    /** Returns the package of the binary class name, or empty if in the unnamed package. */
+    static Optional<String> packageOf(String className) {
+        int lastDot = className.lastIndexOf('.');
+        return lastDot == -1 ? Optional.empty() : Optional.of(className.substring(0, lastDot));
     }
 
+    /** Returns the index of the CONSTANT_Class_info of the binary class name, adding it if necessary. */
+    private int addClass(String className) {
+        int utf8Index = constantPool.add(ConstantUtf8.fromString(className.replace('.', '/')));
+        return constantPool.add(new ConstantClassInfo(utf8Index));
+    }
+
+    private int addPackage(String packageName) {
+        int utf8Index = constantPool.add(ConstantUtf8.fromString(packageName.replace('.', '/')));
+        return constantPool.add(new ConstantPackageInfo(utf8Index));
+    }
+
+    private int addModule(String moduleName) {
+        int utf8Index = constantPool.add(ConstantUtf8.fromString(moduleName));
+        return constantPool.add(new ConstantModuleInfo(utf8Index));
+    }
 }
@@ -2,14 +2,36 @@ package no.ion.jhms.modularizer;
 
 import java.io.IOException;
 import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
-
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Reads a module-info.class from a ByteBuffer, which may be a heap buffer, a direct buffer, or e.g. a memory-mapped
+ * region of a .class file or a stored JAR entry.  The bytes of a heap buffer are referred to rather than copied.
+ *
+ * <p>A structural validation pass first checks every count and length against the size of the class file and of
+ * the enclosing attribute, so the parse itself reads without bounds checks, and corrupt input fails with a
+ * {@link BadModuleInfoException} saying what is wrong where.</p>
+ */
 public class ModuleInfoClassReader {
+    private static final String MODULE = "Module";
+    private static final String SOURCE_FILE = "SourceFile";
 
-    private final byte[] bytes;
+    private final ByteBuffer buffer;
+    /** The array backing the buffer if accessible, otherwise null. */
+    private final byte[] array;
+    private final int arrayOffset;
     private int offset = 0;
 
+    /** The offset of each CONSTANT_Utf8_info entry, by constant pool index, set by the validation pass. */
+    private int[] utf8Offsets = new int[0];
+    private boolean validated = false;
+
     public static ModuleInfoClassReader open(Path moduleInfoClassPath) {
         byte[] bytes;
         try {
@@ -22,27 +44,46 @@ public class ModuleInfoClassReader {
     }
 
     public static ModuleInfoClassReader openWith(byte[] bytes) {
-        return new ModuleInfoClassReader(bytes).initialParse();
+        return new ModuleInfoClassReader(bytes);
+    }
+
+    public static ModuleInfoClassReader openWith(ByteBuffer buffer) {
+        return new ModuleInfoClassReader(buffer);
     }
 
     public static ModuleInfoClass disassemble(byte[] bytes) {
         return openWith(bytes).parse();
     }
 
+    public static ModuleInfoClass disassemble(ByteBuffer buffer) {
+        return openWith(buffer).parse();
+    }
+
     public ModuleInfoClassReader(byte[] bytes) {
-        this.bytes = bytes;
+        this(ByteBuffer.wrap(bytes));
     }
 
-    private ModuleInfoClassReader initialParse() {
-        return this;
+    /** Reads the class file from the position to the limit of the buffer, leaving the buffer itself untouched. */
+    public ModuleInfoClassReader(ByteBuffer buffer) {
+        this.buffer = buffer.slice();
+        if (this.buffer.hasArray()) {
+            this.array = this.buffer.array();
+            this.arrayOffset = this.buffer.arrayOffset();
+        } else {
+            this.array = null;
+            this.arrayOffset = 0;
+        }
     }
 
     public ModuleInfoClass parse() {
-        int magic = readU4();
-        if (magic != ModuleInfoClass.MAGIC) {
-            throw new BadModuleInfoException("Does not start with magic " + ModuleInfoClass.MAGIC);
+        if (!validated) {
+            validateStructure();
+            validated = true;
         }
 
+        offset = 0;
+        int magic = readU4();
+
         int minorVersion = readU2();
         int majorVersion = readU2();
         ConstantPool constantPool = constantPool();
@@ -94,19 +135,33 @@ public class ModuleInfoClassReader {
 
             String attributeName = constantPool.resolveUtf8(attributeNameIndex);
             switch (attributeName) {
-                case "Module":
+                case MODULE:
                     attributeInfos.addModuleAttribute(readModuleAttribute(attributeNameIndex, attributeLength));
                     break;
-                case "SourceFile":
+                case SOURCE_FILE:
                     attributeInfos.addSourceFile(new SourceFileAttribute(attributeNameIndex, attributeLength, readU2()));
                     break;
-                case "ModulePackages":
-                case "ModuleMainClass":
+                case ModulePackagesAttribute.NAME:
+                    attributeInfos.addModulePackages(readModulePackagesAttribute(attributeNameIndex, attributeLength));
+                    break;
+                case ModuleHashesAttribute.NAME:
+                    attributeInfos.addModuleHashes(readModuleHashesAttribute(attributeNameIndex, attributeLength));
+                    break;
+                case ModuleMainClassAttribute.NAME:
+                    attributeInfos.addModuleMainClass(
+                            new ModuleMainClassAttribute(attributeNameIndex, attributeLength, readU2()));
+                    break;
+                case "ModuleTarget":
+                case "ModuleResolution":
                 case "InnerClasses":
                 case "SourceDebugExtension":
                 case "RuntimeVisibleAnnotations":
                 case "RuntimeInvisibleAnnotations":
-                    attributeInfos.add(new GenericAttributeInfo(attributeNameIndex, attributeName, attributeLength, bytes, offset));
+                    attributeInfos.add(array == null
+                            ? new GenericAttributeInfo(attributeNameIndex, attributeName, attributeLength,
+                                                       copyOf(offset, attributeLength), 0)
+                            : new GenericAttributeInfo(attributeNameIndex, attributeName, attributeLength,
+                                                       array, arrayOffset + offset));
                     offset += attributeLength;
                     break;
                 default:
@@ -119,6 +174,32 @@ public class ModuleInfoClassReader {
         return attributeInfos;
     }
 
+    private ModulePackagesAttribute readModulePackagesAttribute(int attributeNameIndex, int attributeLength) {
+        int packageCount = readU2();
+
+        var packageIndices = new IntList(packageCount);
+        for (int index = 0; index < packageCount; ++index) {
+            packageIndices.addInt(readU2());
+        }
+
+        return new ModulePackagesAttribute(attributeNameIndex, attributeLength, packageIndices);
+    }
+
+    private ModuleHashesAttribute readModuleHashesAttribute(int attributeNameIndex, int attributeLength) {
+        int algorithmIndex = readU2();
+        int hashesCount = readU2();
+
+        List<ModuleHashesAttribute.Hash> hashes = new ArrayList<>(hashesCount);
+        for (int index = 0; index < hashesCount; ++index) {
+            int moduleNameIndex = readU2();
+            int hashLength = readU2();
+            hashes.add(new ModuleHashesAttribute.Hash(moduleNameIndex, copyOf(offset, hashLength)));
+            offset += hashLength;
+        }
+
+        return new ModuleHashesAttribute(attributeNameIndex, attributeLength, algorithmIndex, hashes);
+    }
+
     private ModuleAttribute readModuleAttribute(int attributeNameIndex, int attributeLength) {
         int moduleNameIndex = readU2();
         int moduleFlags = readU2();
@@ -222,7 +303,7 @@ public class ModuleInfoClassReader {
                 case InvokeDynamic:
                     throw new UnsupportedOperationException("Constant pool tag: " + tag);
                 default:
-                    throw new BadModuleInfoException("Unknown constant pool tag at " + index + ": " + tag);
+                    throw new IllegalStateException("Unknown constant pool tag passed validation: " + tag);
             }
         }
 
@@ -241,7 +322,9 @@ public class ModuleInfoClassReader {
         int length = readU2();
         int start = offset;
         offset += length;
-        return new ConstantUtf8(bytes, start, offset);
+        return array == null
+                ? new ConstantUtf8(copyOf(start, length), 0, length)
+                : new ConstantUtf8(array, arrayOffset + start, arrayOffset + offset);
     }
 
     private ConstantClassInfo readConstantClassInfo() {
@@ -249,14 +332,227 @@ public class ModuleInfoClassReader {
         return new ConstantClassInfo(nameIndex);
     }
 
-    private int readU4() { return (readU2() << 16) | readU2(); }
-    private int readU2() { return (readU1() << 8) | readU1(); }
-    private int readU1() { return 0xFF & bytes[offset++]; }
+    /**
+     * Verify that every count and length of the class file fits within the class file, and within the enclosing
+     * attribute for the attributes parsed by this reader, and that these attributes have the exact length of their
+     * content.
+     */
+    private void validateStructure() {
+        offset = 0;
+        int end = buffer.limit();
+
+        // magic, minor_version, major_version, constant_pool_count
+        require(4, end, "magic");
+        if (buffer.getInt(0) != ModuleInfoClass.MAGIC) {
+            throw new BadModuleInfoException("Does not start with magic " + ModuleInfoClass.MAGIC);
+        }
+        require(10, end, "class file header");
+        offset = 8;
+        int constantPoolCount = readU2();
+        utf8Offsets = new int[constantPoolCount];
+        for (int index = 1; index < constantPoolCount; ++index) {
+            require(1, end, "constant_pool entry");
+            int tag = readU1();
+            int size = constantSize(index, tag);
+            require(size, end, "constant_pool entry");
+            if (tag == Constant.Utf8.tag()) {
+                utf8Offsets[index] = offset;
+                size += Short.toUnsignedInt(buffer.getShort(offset));
+                require(size, end, "CONSTANT_Utf8 entry");
+            } else if (tag == Constant.Long.tag() || tag == Constant.Double.tag()) {
+                ++index;
+            }
+            offset += size;
+        }
+
+        // access_flags, this_class, super_class, interfaces_count
+        require(8, end, "class file header");
+        offset += 6;
+        int interfacesCount = readU2();
+        require(2 * interfacesCount, end, "interfaces");
+        offset += 2 * interfacesCount;
+
+        for (String members : List.of("fields", "methods")) {
+            require(2, end, members + "_count");
+            int membersCount = readU2();
+            String member = members + " entry";
+            for (int index = 0; index < membersCount; ++index) {
+                // access_flags, name_index, descriptor_index
+                require(6, end, member);
+                offset += 6;
+                validateAttributes(end);
+            }
+        }
 
-    private void assertIndex(int index) {
-        if (index >= bytes.length) {
-            throw new IndexOutOfBoundsException(index);
+        validateAttributes(end);
+        if (offset != end) {
+            throw new BadModuleInfoException("Trailing " + (end - offset) + " bytes after the class file at offset " +
+                    offset);
         }
     }
 
+    private void validateAttributes(int end) {
+        require(2, end, "attributes_count");
+        int attributesCount = readU2();
+        for (int index = 0; index < attributesCount; ++index) {
+            require(6, end, "attribute_info");
+            int attributeNameIndex = readU2();
+            int attributeLength = readU4();
+            if (attributeLength < 0 || attributeLength > end - offset) {
+                throw new BadModuleInfoException("attribute_length " + Integer.toUnsignedString(attributeLength) +
+                        " exceeds the remaining " + (end - offset) + " bytes at offset " + (offset - 4));
+            }
+
+            int attributeEnd = offset + attributeLength;
+            String attributeName = utf8At(attributeNameIndex).orElse("");
+            String attribute = attributeName + " attribute";
+            switch (attributeName) {
+                case MODULE:
+                    validateModuleAttribute(attributeEnd);
+                    break;
+                case SOURCE_FILE:
+                case ModuleMainClassAttribute.NAME:
+                    require(2, attributeEnd, attribute);
+                    offset += 2;
+                    break;
+                case ModulePackagesAttribute.NAME:
+                    require(2, attributeEnd, attribute);
+                    int packageCount = readU2();
+                    require(2 * packageCount, attributeEnd, attribute);
+                    offset += 2 * packageCount;
+                    break;
+                case ModuleHashesAttribute.NAME:
+                    require(4, attributeEnd, attribute);
+                    offset += 2;
+                    int hashesCount = readU2();
+                    for (int hashIndex = 0; hashIndex < hashesCount; ++hashIndex) {
+                        require(4, attributeEnd, attribute);
+                        offset += 2;
+                        int hashLength = readU2();
+                        require(hashLength, attributeEnd, attribute);
+                        offset += hashLength;
+                    }
+                    break;
+                default:
+                    offset = attributeEnd;
+            }
+
+            if (offset != attributeEnd) {
+                throw new BadModuleInfoException("bad " + attributeName + " attribute_length " + attributeLength +
+                        ": the content is " + (attributeLength - (attributeEnd - offset)) + " bytes");
+            }
+        }
+    }
+
+    private void validateModuleAttribute(int end) {
+        // module_name_index, module_flags, module_version_index, requires_count
+        require(8, end, "Module attribute");
+        offset += 6;
+        int requiresCount = readU2();
+        require(6 * requiresCount, end, "Module requires");
+        offset += 6 * requiresCount;
+
+        for (String directive : List.of("exports", "opens")) {
+            String what = "Module " + directive;
+            require(2, end, what + "_count");
+            int count = readU2();
+            for (int index = 0; index < count; ++index) {
+                // index, flags, to_count
+                require(6, end, what);
+                offset += 4;
+                int toCount = readU2();
+                require(2 * toCount, end, what);
+                offset += 2 * toCount;
+            }
+        }
+
+        require(2, end, "Module uses_count");
+        int usesCount = readU2();
+        require(2 * usesCount, end, "Module uses");
+        offset += 2 * usesCount;
+
+        require(2, end, "Module provides_count");
+        int providesCount = readU2();
+        for (int index = 0; index < providesCount; ++index) {
+            // provides_index, provides_with_count
+            require(4, end, "Module provides");
+            offset += 2;
+            int withCount = readU2();
+            require(2 * withCount, end, "Module provides");
+            offset += 2 * withCount;
+        }
+    }
+
+    /** The size of the constant pool entry after the tag, excluding the bytes of a CONSTANT_Utf8_info. */
+    static int constantSize(int index, int tag) {
+        switch (tag) {
+            case 1: // Utf8
+            case 7: // Class
+            case 8: // String
+            case 16: // MethodType
+            case 19: // Module
+            case 20: // Package
+                return 2;
+            case 15: // MethodHandle
+                return 3;
+            case 3: // Integer
+            case 4: // Float
+            case 9: // Fieldref
+            case 10: // Methodref
+            case 11: // InterfaceMethodref
+            case 12: // NameAndType
+            case 17: // Dynamic
+            case 18: // InvokeDynamic
+                return 4;
+            case 5: // Long
+            case 6: // Double
+                return 8;
+            default:
+                throw new BadModuleInfoException("Unknown constant pool tag at " + index + ": " + tag);
+        }
+    }
+
+    /** Returns the CONSTANT_Utf8_info at the index if it is ASCII, as is the name of all known attributes. */
+    private Optional<String> utf8At(int index) {
+        if (index <= 0 || index >= utf8Offsets.length || utf8Offsets[index] == 0) {
+            return Optional.empty();
+        }
+
+        int start = utf8Offsets[index];
+        int length = Short.toUnsignedInt(buffer.getShort(start));
+        byte[] name = copyOf(start + 2, length);
+        for (byte b : name) {
+            if (b <= 0) {
+                return Optional.empty();
+            }
+        }
+        return Optional.of(new String(name, StandardCharsets.US_ASCII));
+    }
+
+    private void require(int length, int end, String what) {
+        if (length > end - offset) {
+            throw new BadModuleInfoException("Truncated " + what + " at offset " + offset + ": " + length +
+                    " bytes needed, " + (end - offset) + " left");
+        }
+    }
+
+    private byte[] copyOf(int start, int length) {
+        byte[] copy = new byte[length];
+        buffer.duplicate().position(start).get(copy);
+        return copy;
+    }
+
+    private int readU4() {
+        int value = buffer.getInt(offset);
+        offset += 4;
+        return value;
+    }
+
+    private int readU2() {
+        int value = Short.toUnsignedInt(buffer.getShort(offset));
+        offset += 2;
+        return value;
+    }
+
+    private int readU1() { return Byte.toUnsignedInt(buffer.get(offset++)); }
 }
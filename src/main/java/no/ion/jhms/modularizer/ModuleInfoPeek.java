@@ -0,0 +1,202 @@
+package no.ion.jhms.modularizer;
+
+import java.nio.ByteBuffer;
+import java.util.Optional;
+
+/**
+ * A lightweight view of the module name, version and requires of a module-info.class, for scanning many
+ * descriptors:  Only the offsets of the constant pool entries and of the Module attribute are found up front, and
+ * strings are decoded on access.  Unlike {@link ModuleInfoClassReader}, no model of the class file is built and the
+ * rest of the Module attribute is not read, and unlike {@link java.lang.module.ModuleDescriptor} nothing is
+ * validated beyond what is read.
+ */
+public class ModuleInfoPeek {
+    private static final byte[] MODULE = {'M', 'o', 'd', 'u', 'l', 'e'};
+
+    private final ByteBuffer buffer;
+    /** The offset of each constant pool entry after its tag, by constant pool index. */
+    private final int[] constantOffsets;
+    /** The offset of the Module attribute after attribute_length. */
+    private final int moduleOffset;
+    private final int requiresCount;
+
+    private String moduleName = null;
+
+    public static ModuleInfoPeek of(byte[] bytes) {
+        return new ModuleInfoPeek(ByteBuffer.wrap(bytes));
+    }
+
+    /** Peeks at the class file from the position to the limit of the buffer, leaving the buffer itself untouched. */
+    public static ModuleInfoPeek of(ByteBuffer buffer) {
+        return new ModuleInfoPeek(buffer.slice());
+    }
+
+    private ModuleInfoPeek(ByteBuffer buffer) {
+        this.buffer = buffer;
+
+        require(0, 10, "class file header");
+        if (buffer.getInt(0) != ModuleInfoClass.MAGIC) {
+            throw new BadModuleInfoException("Does not start with magic " + ModuleInfoClass.MAGIC);
+        }
+
+        int constantPoolCount = u2(8);
+        constantOffsets = new int[constantPoolCount];
+        int offset = 10;
+        for (int index = 1; index < constantPoolCount; ++index) {
+            require(offset, 1, "constant_pool entry");
+            int tag = Byte.toUnsignedInt(buffer.get(offset));
+            int size = ModuleInfoClassReader.constantSize(index, tag);
+            constantOffsets[index] = ++offset;
+            require(offset, size, "constant_pool entry");
+            if (tag == Constant.Utf8.tag()) {
+                size += u2(offset);
+            } else if (tag == Constant.Long.tag() || tag == Constant.Double.tag()) {
+                ++index;
+            }
+            offset += size;
+        }
+
+        // access_flags, this_class, super_class, interfaces_count
+        require(offset, 8, "class file header");
+        offset += 8 + 2 * u2(offset + 6);
+        for (String members : new String[] { "fields", "methods" }) {
+            require(offset, 2, members + "_count");
+            int membersCount = u2(offset);
+            offset += 2;
+            for (int index = 0; index < membersCount; ++index) {
+                // access_flags, name_index, descriptor_index
+                offset = skipAttributes(offset + 6);
+            }
+        }
+
+        require(offset, 2, "attributes_count");
+        int attributesCount = u2(offset);
+        offset += 2;
+        for (int index = 0; index < attributesCount; ++index) {
+            require(offset, 6, "attribute_info");
+            int attributeNameIndex = u2(offset);
+            int attributeLength = buffer.getInt(offset + 2);
+            offset += 6;
+            require(offset, attributeLength, "attribute_info");
+            if (isUtf8(attributeNameIndex, MODULE)) {
+                // module_name_index, module_flags, module_version_index, requires_count
+                require(offset, 8, "Module attribute");
+                moduleOffset = offset;
+                requiresCount = u2(offset + 6);
+                if (8 + 6 * requiresCount > attributeLength) {
+                    throw new BadModuleInfoException("Truncated Module requires at offset " + (offset + 8));
+                }
+                return;
+            }
+            offset += attributeLength;
+        }
+
+        throw new BadModuleInfoException("Missing Module attribute");
+    }
+
+    public String moduleName() {
+        if (moduleName == null) {
+            moduleName = resolveModuleName(u2(moduleOffset));
+        }
+        return moduleName;
+    }
+
+    /** The raw module version, or empty if none. */
+    public Optional<String> moduleVersion() { return resolveOptionalUtf8(u2(moduleOffset + 4)); }
+
+    public int moduleFlags() { return u2(moduleOffset + 2); }
+
+    public int requiresCount() { return requiresCount; }
+
+    public String requiresName(int index) { return resolveModuleName(u2(requiresOffset(index))); }
+
+    /** The requires_flags, see {@link RequiresFlag#hasFlag(int)}. */
+    public int requiresFlags(int index) { return u2(requiresOffset(index) + 2); }
+
+    /** The raw version of the required module when compiled, or empty if none. */
+    public Optional<String> requiresVersion(int index) { return resolveOptionalUtf8(u2(requiresOffset(index) + 4)); }
+
+    private int requiresOffset(int index) {
+        if (index < 0 || index >= requiresCount) {
+            throw new IndexOutOfBoundsException("requires index " + index + " out of bounds for length " +
+                    requiresCount);
+        }
+        return moduleOffset + 8 + 6 * index;
+    }
+
+    private int skipAttributes(int offset) {
+        require(offset, 2, "attributes_count");
+        int attributesCount = u2(offset);
+        offset += 2;
+        for (int index = 0; index < attributesCount; ++index) {
+            require(offset, 6, "attribute_info");
+            int attributeLength = buffer.getInt(offset + 2);
+            offset += 6;
+            require(offset, attributeLength, "attribute_info");
+            offset += attributeLength;
+        }
+        return offset;
+    }
+
+    private String resolveModuleName(int index) {
+        return resolveUtf8(u2(constantOffset(index, Constant.Module)));
+    }
+
+    private Optional<String> resolveOptionalUtf8(int index) {
+        return index == 0 ? Optional.empty() : Optional.of(resolveUtf8(index));
+    }
+
+    private String resolveUtf8(int index) {
+        int offset = constantOffset(index, Constant.Utf8);
+        int length = u2(offset);
+        if (buffer.hasArray()) {
+            int start = buffer.arrayOffset() + offset + 2;
+            return ModifiedUtf8.decode(buffer.array(), start, start + length);
+        }
+
+        byte[] bytes = new byte[length];
+        buffer.duplicate().position(offset + 2).get(bytes);
+        return ModifiedUtf8.decode(bytes, 0, length);
+    }
+
+    /** Whether the entry at the index is a CONSTANT_Utf8_info with the bytes, compared without decoding. */
+    private boolean isUtf8(int index, byte[] bytes) {
+        if (index <= 0 || index >= constantOffsets.length || constantOffsets[index] == 0) {
+            return false;
+        }
+
+        int offset = constantOffsets[index];
+        if (buffer.get(offset - 1) != Constant.Utf8.tag() || u2(offset) != bytes.length) {
+            return false;
+        }
+
+        for (int i = 0; i < bytes.length; ++i) {
+            if (buffer.get(offset + 2 + i) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private int constantOffset(int index, Constant constant) {
+        if (index <= 0 || index >= constantOffsets.length || constantOffsets[index] == 0) {
+            throw new BadModuleInfoException("There is no constant_pool entry with index " + index);
+        }
+
+        int offset = constantOffsets[index];
+        int tag = Byte.toUnsignedInt(buffer.get(offset - 1));
+        if (tag != constant.tag()) {
+            throw new BadModuleInfoException("Entry at index " + index + " is not " + constant + ": " +
+                    Constant.fromTag(tag));
+        }
+        return offset;
+    }
+
+    private void require(int offset, int length, String what) {
+        if (length < 0 || length > buffer.limit() - offset) {
+            throw new BadModuleInfoException("Truncated " + what + " at offset " + offset);
+        }
+    }
+
+    private int u2(int offset) { return Short.toUnsignedInt(buffer.getShort(offset)); }
+}
@@ -0,0 +1,28 @@
+package no.ion.jhms.modularizer;
+
+import java.util.function.IntUnaryOperator;
+
+/** The ModuleMainClass attribute, naming the main class of the module, see JVMS 4.7.27. */
+public class ModuleMainClassAttribute extends AttributeInfo {
+    public static final String NAME = "ModuleMainClass";
+
+    private int mainClassIndex;
+
+    public ModuleMainClassAttribute(int attributeNameIndex, int attributeLength, int mainClassIndex) {
+        super(attributeNameIndex, attributeLength);
+        this.mainClassIndex = mainClassIndex;
+    }
+
+    /** The constant pool index of the CONSTANT_Class_info of the main class. */
+    public int mainClassIndex() { return mainClassIndex; }
+
+    @Override
+    protected void attributeSpecificAppendTo(Output output) {
+        output.appendU2(mainClassIndex);
+    }
+
+    @Override
+    protected void attributeSpecificRemapConstantIndices(IntUnaryOperator remap) {
+        mainClassIndex = remap.applyAsInt(mainClassIndex);
+    }
+}
@@ -0,0 +1,30 @@
+package no.ion.jhms.modularizer;
+
+import java.util.function.IntUnaryOperator;
+
+/** The ModulePackages attribute, listing all packages of the module, see JVMS 4.7.26. */
+public class ModulePackagesAttribute extends AttributeInfo {
+    public static final String NAME = "ModulePackages";
+
+    private final IntList packageIndices;
+
+    /** @param packageIndices is owned by the attribute. */
+    public ModulePackagesAttribute(int attributeNameIndex, int attributeLength, IntList packageIndices) {
+        super(attributeNameIndex, attributeLength);
+        this.packageIndices = packageIndices;
+    }
+
+    /** The constant pool indices of the CONSTANT_Package_info of each package. */
+    public IntList packageIndices() { return packageIndices; }
+
+    @Override
+    protected void attributeSpecificAppendTo(Output output) {
+        output.appendU2(packageIndices.size());
+        packageIndices.forEachInt(output::appendU2);
+    }
+
+    @Override
+    protected void attributeSpecificRemapConstantIndices(IntUnaryOperator remap) {
+        packageIndices.replaceAllInts(remap);
+    }
+}
@@ -1,30 +1,60 @@
 package no.ion.jhms.modularizer;
 
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.lang.module.ModuleDescriptor;
+import java.nio.channels.Channels;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.SortedMap;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
 
 import static java.util.Objects.requireNonNull;
-import static no.ion.jhms.modularizer.Exceptions.uncheckIO;
 
 public class ModuleUpdater {
+    /** The JAR path denoting that the JAR is read from standard input and written to standard output. */
+    public static final String STANDARD_STREAMS = "-";
+
     private final PrintStream out;
     private final Options options;
+    private final ModuleHasher moduleHasher;
+    private final Map<String, SortedMap<String, byte[]>> moduleHashesByModule = new HashMap<>();
 
     public static class Options {
         private Path jarPath = null;
+        private InputStream in = System.in;
+        private boolean append = false;
+        private boolean check = false;
+        private Integer release = null; // null: all releases
+        private Path outputPath = null;
+        private AtomicFile.Durability durability = AtomicFile.Durability.FILE;
+        private JarRewriter.Compression compression = null; // null: copy entries verbatim
         private String moduleName = null;
+        private String automaticModuleName = null;
         private Optional<String> mainClass = null; // null: no change, empty: remove
         private Optional<ModuleDescriptor.Version> version = null;  // null: no change, empty: remove
         private List<Options.Requires> requiresToAdd = new ArrayList<>();
         private List<String> requiresToRemove = new ArrayList<>();
         private List<Options.Exports> exportsToAdd = new ArrayList<>();
         private List<String> exportsToRemove = new ArrayList<>();
+        private List<Options.Opens> opensToAdd = new ArrayList<>();
+        private List<String> opensToRemove = new ArrayList<>();
+        private List<String> usesToAdd = new ArrayList<>();
+        private List<String> usesToRemove = new ArrayList<>();
+        private List<Options.Provides> providesToAdd = new ArrayList<>();
+        private List<String> providesToRemove = new ArrayList<>();
+        private Pattern hashModules = null;
+        private List<Path> modulePath = null;
 
         public Options() {}
 
@@ -33,6 +63,66 @@ public class ModuleUpdater {
             return this;
         }
 
+        /** The stream to read the JAR from if the JAR path is {@value ModuleUpdater#STANDARD_STREAMS}. */
+        public Options setIn(InputStream in) {
+            this.in = requireNonNull(in);
+            return this;
+        }
+
+        /** Whether to append the new module-info.class to the JAR instead of rewriting the whole JAR. */
+        public Options setAppend(boolean append) {
+            this.append = append;
+            return this;
+        }
+
+        /** Whether to fail if the JAR would be changed, instead of changing it. */
+        public Options setCheck(boolean check) {
+            this.check = check;
+            return this;
+        }
+
+        /**
+         * Update only the module-info.class of the given release of a multi-release JAR, or the root module-info.class
+         * if {@link Jar#BASE_RELEASE}.  By default, all are updated.
+         */
+        public Options setRelease(int release) {
+            this.release = release;
+            return this;
+        }
+
+        /** Write the updated JAR to outputPath instead of updating the JAR in-place. */
+        public Options setOutputPath(Path outputPath) {
+            this.outputPath = requireNonNull(outputPath);
+            return this;
+        }
+
+        /** How much of the new JAR file to force to storage before it replaces the target. */
+        public Options setDurability(AtomicFile.Durability durability) {
+            this.durability = requireNonNull(durability);
+            return this;
+        }
+
+        /** Recompress all deflated entries of the JAR, which is then rewritten even if module-info.class is not. */
+        public Options setCompression(JarRewriter.Compression compression) {
+            this.compression = requireNonNull(compression);
+            return this;
+        }
+
+        /**
+         * Record the hashes of the modules on the module path that match the pattern and depend on the module, in
+         * the ModuleHashes attribute.
+         */
+        public Options setHashModules(Pattern hashModules) {
+            this.hashModules = requireNonNull(hashModules);
+            return this;
+        }
+
+        /** The JARs, JMODs, and directories of JARs and JMODs to find the modules of --hash-modules in. */
+        public Options setModulePath(List<Path> modulePath) {
+            this.modulePath = List.copyOf(modulePath);
+            return this;
+        }
+
         public Options setMainClass(String mainClass) {
             this.mainClass = Optional.of(mainClass);
             return this;
@@ -62,14 +152,39 @@ public class ModuleUpdater {
             return this;
         }
 
+        /** Set the Automatic-Module-Name main attribute of the manifest, which is created if missing. */
+        public Options setAutomaticModuleName(String automaticModuleName) {
+            requireNonNull(automaticModuleName);
+            this.automaticModuleName = new UnicodePointer(automaticModuleName)
+                    .skipModuleName()
+                    .filter(name -> name.equals(automaticModuleName))
+                    .orElseThrow(() -> new ErrorException("not a module name: " + automaticModuleName));
+            return this;
+        }
+
         public Path jarPath() { return jarPath; }
+        public boolean append() { return append; }
+        public boolean check() { return check; }
+        public Optional<Integer> release() { return Optional.ofNullable(release); }
+        public Path outputPath() { return outputPath; }
+        public AtomicFile.Durability durability() { return durability; }
+        public Optional<JarRewriter.Compression> compression() { return Optional.ofNullable(compression); }
         public String moduleName() { return moduleName; }
+        public Optional<String> automaticModuleName() { return Optional.ofNullable(automaticModuleName); }
         public Optional<String> mainClass() { return mainClass; }
         public Optional<ModuleDescriptor.Version> version() { return version; }
         public List<Requires> requiresToAdd() { return requiresToAdd; }
         public List<String> requiresToRemove() { return requiresToRemove; }
         public List<Exports> exportsToAdd() { return exportsToAdd; }
         public List<String> exportsToRemove() { return exportsToRemove; }
+        public List<Opens> opensToAdd() { return opensToAdd; }
+        public List<String> opensToRemove() { return opensToRemove; }
+        public List<String> usesToAdd() { return usesToAdd; }
+        public List<String> usesToRemove() { return usesToRemove; }
+        public List<Provides> providesToAdd() { return providesToAdd; }
+        public List<String> providesToRemove() { return providesToRemove; }
+        public Optional<Pattern> hashModules() { return Optional.ofNullable(hashModules); }
+        public Optional<List<Path>> modulePath() { return Optional.ofNullable(modulePath); }
 
         public static class Requires {
             private final String moduleName;
@@ -133,6 +248,70 @@ public class ModuleUpdater {
             exportsToRemove.add(packageName);
             return this;
         }
+
+        public static class Opens {
+            private final String packageName;
+            private final List<String> moduleTargets = new ArrayList<>();
+
+            public Opens(String packageName) {
+                this.packageName = requireNonNull(packageName);
+            }
+
+            public Options.Opens addTarget(String moduleName) {
+                moduleTargets.add(requireNonNull(moduleName));
+                return this;
+            }
+
+            public String packageName() { return packageName; }
+            public List<String> moduleTargets() { return moduleTargets; }
+        }
+
+        public Options addOpens(Options.Opens opens) {
+            this.opensToAdd.add(requireNonNull(opens));
+            return this;
+        }
+
+        public Options removeOpens(String packageName) {
+            opensToRemove.add(requireNonNull(packageName));
+            return this;
+        }
+
+        public Options addUses(String serviceName) {
+            usesToAdd.add(requireNonNull(serviceName));
+            return this;
+        }
+
+        public Options removeUses(String serviceName) {
+            usesToRemove.add(requireNonNull(serviceName));
+            return this;
+        }
+
+        public static class Provides {
+            private final String serviceName;
+            private final List<String> implementationNames = new ArrayList<>();
+
+            public Provides(String serviceName) {
+                this.serviceName = requireNonNull(serviceName);
+            }
+
+            public Options.Provides addImplementation(String className) {
+                implementationNames.add(requireNonNull(className));
+                return this;
+            }
+
+            public String serviceName() { return serviceName; }
+            public List<String> implementationNames() { return implementationNames; }
+        }
+
+        public Options addProvides(Options.Provides provides) {
+            this.providesToAdd.add(requireNonNull(provides));
+            return this;
+        }
+
+        public Options removeProvides(String serviceName) {
+            providesToRemove.add(requireNonNull(serviceName));
+            return this;
+        }
     }
 
     public static void update(PrintStream out, Options options) { new ModuleUpdater(out, options).update(); }
@@ -140,19 +319,235 @@ public class ModuleUpdater {
     private ModuleUpdater(PrintStream out, Options options) {
         this.out = out;
         this.options = options;
+        this.moduleHasher = options.hashModules == null || options.modulePath == null ?
+                null :
+                new ModuleHasher(options.hashModules, options.modulePath);
     }
 
     public void update() {
+        if (options.append && options.outputPath != null) {
+            throw new ErrorException("--append cannot be used with --output");
+        } else if (options.append && options.compression != null) {
+            throw new ErrorException("--append cannot be used with --compression");
+        } else if (options.hashModules != null && options.modulePath == null) {
+            throw new ErrorException("--hash-modules requires --module-path");
+        }
+
         Path jarPath = options.jarPath;
-        if (!jarPath.toString().endsWith(".jar")) {
-            throw new ErrorException("JAR file must have .jar extension: " + jarPath);
+        if (Files.isDirectory(jarPath)) {
+            updateDirectory(new ModuleDirectory(jarPath));
+            return;
+        }
+
+        boolean jmod = !jarPath.toString().equals(STANDARD_STREAMS) && Jar.isJmod(jarPath);
+        String extension = jmod ? ".jmod" : ".jar";
+        if (options.outputPath != null && !options.outputPath.toString().endsWith(extension)) {
+            throw new ErrorException("output file must have " + extension + " extension: " + options.outputPath);
+        }
+
+        if (jarPath.toString().equals(STANDARD_STREAMS)) {
+            updateStream();
+            return;
         }
 
+        if (!jarPath.toString().endsWith(".jar") && !jmod) {
+            throw new ErrorException("JAR file must have .jar or .jmod extension: " + jarPath);
+        }
+
+        try (Jar jar = new Jar(jarPath)) {
+            update(jar);
+        }
+    }
+
+    private void update(Jar jar) {
+        String source = jar.path().toString();
+        Map<String, byte[]> replacements = options.automaticModuleName != null && !hasModuleInfoClassEdits() ?
+                new LinkedHashMap<>() :
+                editSelected(jar.readModuleInfoClassBytesByRelease(), source, jar::contents);
+        if (options.automaticModuleName != null) {
+            editManifest(jar).ifPresent(manifest -> replacements.put(JarManifest.NAME, manifest));
+        }
+
+        if (options.check) {
+            if (!replacements.isEmpty()) {
+                failCheck(source);
+            }
+        } else if (options.outputPath != null) {
+            // The output is written even if unchanged, as a copy of the JAR.
+            jar.writeTo(options.outputPath, replacements, options.durability, options.compression);
+        } else if (!replacements.isEmpty() || options.compression != null) {
+            if (options.append) {
+                jar.append(replacements);
+            } else {
+                jar.writeTo(jar.path(), replacements, options.durability, options.compression);
+            }
+        }
+    }
+
+    /**
+     * Returns the manifest of the JAR with the Automatic-Module-Name of the options, or empty if unchanged.  Only
+     * the lines of that attribute are changed.  A missing manifest is added, last in the JAR.
+     */
+    private Optional<byte[]> editManifest(Jar jar) {
+        Optional<JarManifest> manifest = jar.readManifest();
+        JarManifest edited = manifest.orElseGet(JarManifest::create)
+                .withMainAttribute(JarManifest.AUTOMATIC_MODULE_NAME, options.automaticModuleName);
+        if (manifest.isPresent() && edited == manifest.get()) {
+            return Optional.empty();
+        }
+        return Optional.of(edited.toByteArray());
+    }
+
+    /** Update the module-info.class files of an exploded module in place, each through an atomic rename. */
+    private void updateDirectory(ModuleDirectory directory) {
+        if (options.append) {
+            throw new ErrorException("--append cannot be used with a directory");
+        } else if (options.outputPath != null) {
+            throw new ErrorException("--output cannot be used with a directory");
+        } else if (options.compression != null) {
+            throw new ErrorException("--compression cannot be used with a directory");
+        } else if (options.automaticModuleName != null) {
+            throw new ErrorException("--automatic-module-name cannot be used with a directory");
+        }
+
+        String source = directory.path().toString();
+        Map<String, byte[]> replacements = editSelected(directory.readModuleInfoClassBytesByRelease(),
+                source, directory::contents);
+
+        if (options.check) {
+            if (!replacements.isEmpty()) {
+                failCheck(source);
+            }
+        } else {
+            directory.writeModuleInfoClasses(replacements, options.durability);
+        }
+    }
+
+    /**
+     * Edit the selected module-info.class files, and return the new content of those that changed by entry name.
+     * If none are selected, a module-info.class is created for the selected release, or the root one.  The
+     * contents of the module are listed at most once, and only if a module-info.class is edited.
+     */
+    private Map<String, byte[]> editSelected(SortedMap<Integer, byte[]> moduleInfoClasses, String source,
+                                             Supplier<ModuleContents> contentsSupplier) {
+        Supplier<ModuleContents> contents = memoize(contentsSupplier);
+        Map<String, byte[]> replacements = new LinkedHashMap<>();
+        if (moduleInfoClasses.keySet().stream().noneMatch(this::isSelected)) {
+            int release = options.release == null ? Jar.BASE_RELEASE : options.release;
+            edit(Optional.empty(), source(source, release), contents).ifPresent(moduleInfoClass ->
+                    replacements.put(Jar.moduleInfoClassName(release), moduleInfoClass.toByteArray()));
+        } else {
+            moduleInfoClasses.forEach((release, bytes) -> {
+                if (isSelected(release)) {
+                    edit(Optional.of(bytes), source(source, release), contents).ifPresent(moduleInfoClass ->
+                            replacements.put(Jar.moduleInfoClassName(release), moduleInfoClass.toByteArray()));
+                }
+            });
+        }
+
+        return replacements;
+    }
+
+    /**
+     * Read a JAR from the input stream of the options, and write the updated JAR in a single pass to out, or to
+     * the output path of the options.
+     */
+    private void updateStream() {
+        if (options.append) {
+            throw new ErrorException("--append cannot be used when reading the JAR from standard input");
+        } else if (options.compression != null) {
+            throw new ErrorException("--compression cannot be used when reading the JAR from standard input");
+        } else if (options.automaticModuleName != null) {
+            throw new ErrorException(
+                    "--automatic-module-name cannot be used when reading the JAR from standard input");
+        }
+
+        if (options.check) {
+            updateStream(OutputStream.nullOutputStream());
+        } else if (options.outputPath == null) {
+            updateStream(out);
+            out.flush();
+        } else {
+            AtomicFile.write(options.outputPath, null, options.durability,
+                    channel -> updateStream(Channels.newOutputStream(channel)));
+        }
+    }
+
+    private void updateStream(OutputStream outputStream) {
+        int releaseIfNone = options.release == null ? Jar.BASE_RELEASE : options.release;
+        StreamingJarRewriter.rewrite(options.in, outputStream,
+                name -> Jar.moduleInfoClassRelease(name).stream().anyMatch(this::isSelected),
+                Jar.moduleInfoClassName(releaseIfNone),
+                (name, moduleInfoClassBytes) -> {
+                    String source = source("standard input", Jar.moduleInfoClassRelease(name).orElseThrow());
+                    Optional<byte[]> newModuleInfoClassBytes = edit(moduleInfoClassBytes, source, null)
+                            .map(Output::toByteArray);
+                    if (options.check && newModuleInfoClassBytes.isPresent()) {
+                        failCheck(source);
+                    }
+                    return newModuleInfoClassBytes;
+                });
+    }
+
+    private static void requirePackage(Supplier<ModuleContents> contents, String packageName, String source) {
+        if (contents != null && !contents.get().hasPackage(packageName)) {
+            throw new ErrorException("no package " + packageName + " in " + source);
+        }
+    }
+
+    private static void requireClass(Supplier<ModuleContents> contents, String className, String source) {
+        if (contents != null && !contents.get().hasClass(className)) {
+            throw new ErrorException("no class " + className + " in " + source);
+        }
+    }
+
+    private static <T> Supplier<T> memoize(Supplier<T> supplier) {
+        var value = new ArrayList<T>(1);
+        return () -> {
+            if (value.isEmpty()) {
+                value.add(supplier.get());
+            }
+            return value.get(0);
+        };
+    }
+
+    /** Whether any option edits module-info.class, as opposed to only the manifest or the compression. */
+    private boolean hasModuleInfoClassEdits() {
+        return options.moduleName != null || options.mainClass != null || options.version != null ||
+                !options.requiresToAdd.isEmpty() || !options.requiresToRemove.isEmpty() ||
+                !options.exportsToAdd.isEmpty() || !options.exportsToRemove.isEmpty() ||
+                !options.opensToAdd.isEmpty() || !options.opensToRemove.isEmpty() ||
+                !options.usesToAdd.isEmpty() || !options.usesToRemove.isEmpty() ||
+                !options.providesToAdd.isEmpty() || !options.providesToRemove.isEmpty() ||
+                options.hashModules != null;
+    }
+
+    /** Whether the module-info.class of release should be updated: all are, unless a release has been selected. */
+    private boolean isSelected(int release) {
+        return options.release == null || options.release == release;
+    }
+
+    private static String source(String jar, int release) {
+        return release == Jar.BASE_RELEASE ? jar : jar + " for release " + release;
+    }
+
+    private static void failCheck(String source) {
+        throw new ErrorException("module-info.class would be changed: " + source);
+    }
+
+    /**
+     * Apply the edits of the options to the module-info.class in moduleInfoClassBytes, or to a minimal
+     * module-info.class if empty and a module name has been set.  Unless contents is null, the packages and classes
+     * named by the edits must exist in the module, and an edited module-info.class also gets its ModulePackages
+     * attribute rebuilt from the packages of the module.  Returns the serialized module-info.class, or empty if there
+     * are no edits or the edits leave module-info.class byte-for-byte identical.
+     */
+    private Optional<Output> edit(Optional<byte[]> moduleInfoClassBytes, String source,
+                                  Supplier<ModuleContents> contents) {
+        Optional<ModuleInfoClass> moduleInfoClass = moduleInfoClassBytes.map(ModuleInfoClassReader::disassemble);
         boolean modified = false;
         boolean createdMinimalModuleClassGivenModuleName = false;
 
-        Jar jar = new Jar(jarPath, out);
-        Optional<ModuleInfoClass> moduleInfoClass = jar.readModuleInfoClass();
         if (moduleInfoClass.isEmpty()) {
             if (options.moduleName != null) {
                 // We'll create a minimal module-info.class
@@ -160,13 +555,14 @@ public class ModuleUpdater {
                 modified = true;
                 createdMinimalModuleClassGivenModuleName = true;
             } else {
-                throw new ErrorException("no module-info.class in " + jarPath);
+                throw new ErrorException("no module-info.class in " + source);
             }
         }
 
         if (!createdMinimalModuleClassGivenModuleName && options.moduleName != null &&
                 !options.moduleName.equals(moduleInfoClass.get().getModuleName())) {
             moduleInfoClass.get().setModuleName(options.moduleName);
+            modified = true;
         }
 
         Optional<ModuleDescriptor.Version> versionOrEmptyOrNull = options.version;
@@ -210,24 +606,90 @@ public class ModuleUpdater {
             modified = true;
         }
 
-        if (modified) {
-            Path directory = uncheckIO(() -> Files.createTempDirectory("module-info"));
-            try {
-                Path toPath = directory.resolve("module-info.class");
-                try {
-                    Output output = new Output();
-                    moduleInfoClass.get().appendTo(output);
+        Optional<String> mainClassOrEmptyOrNull = options.mainClass;
+        if (mainClassOrEmptyOrNull != null) {
+            if (mainClassOrEmptyOrNull.isPresent()) {
+                requireClass(contents, mainClassOrEmptyOrNull.get(), source);
+                moduleInfoClass.get().setMainClass(mainClassOrEmptyOrNull.get());
+            } else {
+                moduleInfoClass.get().removeMainClass();
+            }
+            modified = true;
+        }
 
-                    output.writeTo(toPath);
+        ModuleInfoClass finalModuleInfoClass = moduleInfoClass.get();
+        if (!options.exportsToRemove.isEmpty()) {
+            options.exportsToRemove.forEach(finalModuleInfoClass::removeExports);
+            modified = true;
+        }
 
-                    jar.updateModuleInfoClass(toPath, jar.path());
-                } finally {
-                    uncheckIO(() -> Files.delete(toPath));
-                }
-            } finally {
-                uncheckIO(() -> Files.delete(directory));
-            }
+        if (!options.exportsToAdd.isEmpty()) {
+            options.exportsToAdd.forEach(exports -> {
+                requirePackage(contents, exports.packageName(), source);
+                finalModuleInfoClass.setExports(exports.packageName(), exports.moduleTargets());
+            });
+            modified = true;
+        }
+
+        if (!options.opensToRemove.isEmpty()) {
+            options.opensToRemove.forEach(finalModuleInfoClass::removeOpens);
+            modified = true;
+        }
+
+        if (!options.opensToAdd.isEmpty()) {
+            options.opensToAdd.forEach(opens -> {
+                requirePackage(contents, opens.packageName(), source);
+                finalModuleInfoClass.setOpens(opens.packageName(), opens.moduleTargets());
+            });
+            modified = true;
+        }
+
+        if (!options.usesToRemove.isEmpty()) {
+            options.usesToRemove.forEach(finalModuleInfoClass::removeUses);
+            modified = true;
+        }
+
+        if (!options.usesToAdd.isEmpty()) {
+            // The service type is typically in another module, and cannot be validated.
+            options.usesToAdd.forEach(finalModuleInfoClass::addUses);
+            modified = true;
+        }
+
+        if (!options.providesToRemove.isEmpty()) {
+            options.providesToRemove.forEach(finalModuleInfoClass::removeProvides);
+            modified = true;
+        }
+
+        if (!options.providesToAdd.isEmpty()) {
+            options.providesToAdd.forEach(provides -> {
+                provides.implementationNames().forEach(className -> requireClass(contents, className, source));
+                finalModuleInfoClass.setProvides(provides.serviceName(), provides.implementationNames());
+            });
+            modified = true;
         }
+
+        if (options.hashModules != null) {
+            String moduleName = moduleInfoClass.get().getModuleName();
+            SortedMap<String, byte[]> hashes = moduleHashesByModule.computeIfAbsent(moduleName, moduleHasher::hashes);
+            moduleInfoClass.get().setModuleHashes(ModuleHasher.ALGORITHM, hashes);
+            modified = true;
+        }
+
+        if (!modified) {
+            return Optional.empty();
+        }
+
+        if (contents != null) {
+            moduleInfoClass.get().setPackages(contents.get().packages());
+        }
+
+        Output output = new Output();
+        moduleInfoClass.get().appendTo(output);
+        if (moduleInfoClassBytes.isPresent() && Arrays.equals(moduleInfoClassBytes.get(), output.toByteArray())) {
+            return Optional.empty();
+        }
+
+        return Optional.of(output);
     }
 
 }
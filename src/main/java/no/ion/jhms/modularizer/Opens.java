@@ -1,28 +1,32 @@
 package no.ion.jhms.modularizer;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.function.IntUnaryOperator;
 
 public class Opens {
-    private final int index;
+    private int index;
     private final int flags;
-    private final List<Integer> toIndices = new ArrayList<>();
+    private final IntList toIndices = new IntList();
 
     public Opens(int index, int flags) {
         this.index = index;
         this.flags = flags;
     }
 
-    public void addToIndex(int opensToIndex) { toIndices.add(opensToIndex); }
+    public void addToIndex(int opensToIndex) { toIndices.addInt(opensToIndex); }
 
     public int index() { return index; }
     public int flags() { return flags; }
-    public List<Integer> toIndices() { return toIndices; }
+    public IntList toIndices() { return toIndices; }
 
     public void appendTo(Output output) {
         output.appendU2(index);
         output.appendU2(flags);
         output.appendU2(toIndices.size());
-        toIndices.forEach(output::appendU2);
+        toIndices.forEachInt(output::appendU2);
+    }
+
+    public void remapConstantIndices(IntUnaryOperator remap) {
+        index = remap.applyAsInt(index);
+        toIndices.replaceAllInts(remap);
     }
 }
@@ -1,9 +1,16 @@
 package no.ion.jhms.modularizer;
 
+import java.io.File;
 import java.lang.module.ModuleDescriptor;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.EnumSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+import java.util.stream.Collectors;
 
 import static java.util.Objects.requireNonNull;
 
@@ -34,11 +41,34 @@ class OptionsParser {
                 case "--add-exports":
                     updateOptions.addExports(parseAddExportsSpec(consumeOptionArgument()));
                     continue;
+                case "--add-opens":
+                    updateOptions.addOpens(parseAddOpensSpec(consumeOptionArgument()));
+                    continue;
+                case "--add-provides":
+                    updateOptions.addProvides(parseAddProvidesSpec(consumeOptionArgument()));
+                    continue;
                 case "-A":
                 case "--add-reads":
                 case "--add-requires":
                     updateOptions.addRequires(parseRequiresSpec(consumeOptionArgument()));
                     continue;
+                case "--add-uses":
+                    updateOptions.addUses(parseClassName(consumeOptionArgument()));
+                    continue;
+                case "--append":
+                    updateOptions.setAppend(true);
+                    consumeArgument();
+                    continue;
+                case "--automatic-module-name":
+                    updateOptions.setAutomaticModuleName(consumeOptionArgument());
+                    continue;
+                case "--check":
+                    updateOptions.setCheck(true);
+                    consumeArgument();
+                    continue;
+                case "--compression":
+                    updateOptions.setCompression(JarRewriter.Compression.fromString(consumeOptionArgument()));
+                    continue;
                 case "-d":
                 case "--describe-module":
                     setAction(Main.Options.Action.DESCRIBE);
@@ -50,6 +80,12 @@ class OptionsParser {
                     updateOptions.setJarPath(jarPath);
                     describeOptions.setJarPath(jarPath);
                     continue;
+                case "--fsync":
+                    updateOptions.setDurability(AtomicFile.Durability.fromString(consumeOptionArgument()));
+                    continue;
+                case "--hash-modules":
+                    updateOptions.setHashModules(parseHashModules(consumeOptionArgument()));
+                    continue;
                 case "-h":
                 case "--help":
                     setAction(Main.Options.Action.HELP);
@@ -61,24 +97,49 @@ class OptionsParser {
                     if (mainClass.isBlank()) {
                         updateOptions.removeMainClass();
                     } else {
-                        updateOptions.setMainClass(mainClass);
+                        updateOptions.setMainClass(parseClassName(mainClass));
                     }
                     continue;
                 case "-m":
                 case "--module":
                     parseModuleNameAndVersion(consumeOptionArgument());
                     continue;
+                case "-p":
+                case "--module-path":
+                    updateOptions.setModulePath(parseModulePath(consumeOptionArgument()));
+                    continue;
                 case "-V":
                 case "--module-version":
                     String rawModuleVersion = consumeOptionArgument();
                     parseRawVersion(rawModuleVersion);
                     continue;
+                case "-o":
+                case "--output":
+                    updateOptions.setOutputPath(Path.of(consumeOptionArgument()));
+                    continue;
+                case "--release":
+                    int release = parseRelease(consumeOptionArgument());
+                    updateOptions.setRelease(release);
+                    describeOptions.setRelease(release);
+                    continue;
                 case "--remove-exports":
                     updateOptions.removeExports(consumeOptionArgument());
                     continue;
+                case "--remove-opens":
+                    updateOptions.removeOpens(consumeOptionArgument());
+                    continue;
+                case "--remove-provides":
+                    updateOptions.removeProvides(parseClassName(consumeOptionArgument()));
+                    continue;
+                case "--remove-uses":
+                    updateOptions.removeUses(parseClassName(consumeOptionArgument()));
+                    continue;
                 case "--remove-requires":
                     updateOptions.removeRequires(consumeOptionArgument());
                     continue;
+                case "--runtime-image":
+                    describeOptions.setRuntimeImage(Path.of(consumeOptionArgument()));
+                    continue;
                 case "-u":
                 case "--update":
                     setAction(Main.Options.Action.UPDATE);
@@ -116,14 +177,62 @@ class OptionsParser {
         }
     }
 
+    private static Pattern parseHashModules(String regex) {
+        try {
+            return Pattern.compile(regex);
+        } catch (PatternSyntaxException e) {
+            throw new ErrorException("bad --hash-modules regex: " + e.getMessage());
+        }
+    }
+
+    private static List<Path> parseModulePath(String modulePath) {
+        List<Path> paths = Arrays.stream(modulePath.split(Pattern.quote(File.pathSeparator)))
+                .filter(path -> !path.isEmpty())
+                .map(Path::of)
+                .collect(Collectors.toList());
+        if (paths.isEmpty()) {
+            throw new ErrorException("empty module path");
+        }
+        return paths;
+    }
+
+    private static int parseRelease(String rawRelease) {
+        int release;
+        try {
+            release = Integer.parseInt(rawRelease);
+        } catch (NumberFormatException e) {
+            throw new ErrorException("not a release: " + rawRelease);
+        }
+
+        if (release != Jar.BASE_RELEASE && release < 9) {
+            throw new ErrorException("release must be 0 for the root module-info.class, or at least 9: " + rawRelease);
+        }
+
+        return release;
+    }
+
     private static ModuleUpdater.Options.Exports parseAddExportsSpec(String spec) {
+        List<String> moduleTargets = new ArrayList<>();
+        var exports = new ModuleUpdater.Options.Exports(parsePackageAndTargets(spec, moduleTargets));
+        moduleTargets.forEach(exports::addTarget);
+        return exports;
+    }
+
+    private static ModuleUpdater.Options.Opens parseAddOpensSpec(String spec) {
+        List<String> moduleTargets = new ArrayList<>();
+        var opens = new ModuleUpdater.Options.Opens(parsePackageAndTargets(spec, moduleTargets));
+        moduleTargets.forEach(opens::addTarget);
+        return opens;
+    }
+
+    /** Parse 'PACKAGE [to MODULE [, MODULE]...]', returning the package and adding the modules to moduleTargets. */
+    private static String parsePackageAndTargets(String spec, List<String> moduleTargets) {
         UnicodePointer pointer = new UnicodePointer(requireNonNull(spec));
         pointer.skipWhitespace();
         Optional<String> packageName = pointer.skipPackageName();
         if (packageName.isEmpty()) {
             throw new ErrorException("expected package name: " + pointer.toString());
         }
-        var exports = new ModuleUpdater.Options.Exports(packageName.get());
 
         if (pointer.skipWhitespace() && !pointer.eof()) {
             if (!pointer.skip("to")) {
@@ -137,7 +246,7 @@ class OptionsParser {
                 if (moduleName.isEmpty()) {
                     throw new ErrorException("expected module name in to clause: " + spec);
                 }
-                exports.addTarget(moduleName.get());
+                moduleTargets.add(moduleName.get());
 
                 pointer.skipWhitespace();
                 if (pointer.eof()) {
@@ -151,7 +260,54 @@ class OptionsParser {
             } while (true);
         }
 
-        return exports;
+        return packageName.get();
+    }
+
+    /** Parse 'SERVICE with CLASS [, CLASS]...'. */
+    private static ModuleUpdater.Options.Provides parseAddProvidesSpec(String spec) {
+        UnicodePointer pointer = new UnicodePointer(requireNonNull(spec));
+        pointer.skipWhitespace();
+        Optional<String> serviceName = pointer.skipClassName();
+        if (serviceName.isEmpty()) {
+            throw new ErrorException("expected service name: " + spec);
+        }
+        var provides = new ModuleUpdater.Options.Provides(serviceName.get());
+
+        if (!pointer.skipWhitespace() || !pointer.skip("with") || !pointer.skipWhitespace()) {
+            throw new ErrorException("expected 'with' following service name: " + spec);
+        }
+
+        do {
+            Optional<String> className = pointer.skipClassName();
+            if (className.isEmpty()) {
+                throw new ErrorException("expected class name in with clause: " + spec);
+            }
+            provides.addImplementation(className.get());
+
+            pointer.skipWhitespace();
+            if (pointer.eof()) {
+                break;
+            }
+
+            if (!pointer.skip(",")) {
+                throw new ErrorException("expected ',' following " + className.get() + ": " + spec);
+            }
+            pointer.skipWhitespace();
+        } while (true);
+
+        return provides;
+    }
+
+    /** Parse a class name in a named package, as required of the classes named by a module descriptor. */
+    private static String parseClassName(String rawClassName) {
+        var pointer = new UnicodePointer(rawClassName);
+        Optional<String> className = pointer.skipClassName();
+        if (className.isEmpty() || !pointer.eof()) {
+            throw new ErrorException("not a class name: " + rawClassName);
+        } else if (className.get().indexOf('.') == -1) {
+            throw new ErrorException("class must be in a named package: " + rawClassName);
+        }
+        return className.get();
     }
 
     private void setAction(Main.Options.Action action) {
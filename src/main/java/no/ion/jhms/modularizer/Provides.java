@@ -1,24 +1,28 @@
 package no.ion.jhms.modularizer;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.function.IntUnaryOperator;
 
 public class Provides {
-    private final int index;
-    private final List<Integer> withIndices = new ArrayList<>();
+    private int index;
+    private final IntList withIndices = new IntList();
 
     public Provides(int index) {
         this.index = index;
     }
 
-    public void addWithIndex(int providesWithIndex) { withIndices.add(providesWithIndex); }
+    public void addWithIndex(int providesWithIndex) { withIndices.addInt(providesWithIndex); }
 
     public int providesIndex() { return index; }
-    public List<Integer> providesWithIndices() { return withIndices; }
+    public IntList providesWithIndices() { return withIndices; }
 
     public void appendTo(Output output) {
         output.appendU2(index);
         output.appendU2(withIndices.size());
-        withIndices.forEach(output::appendU2);
+        withIndices.forEachInt(output::appendU2);
+    }
+
+    public void remapConstantIndices(IntUnaryOperator remap) {
+        index = remap.applyAsInt(index);
+        withIndices.replaceAllInts(remap);
     }
 }
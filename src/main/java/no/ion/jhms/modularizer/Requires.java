@@ -1,7 +1,9 @@
 package no.ion.jhms.modularizer;
 
+import java.util.function.IntUnaryOperator;
+
 public class Requires {
-    private final int requiresIndex;
+    private int requiresIndex;
     private int requiresFlags;
     private int requiresVersionIndex;
 
@@ -28,4 +30,9 @@ public class Requires {
         output.appendU2(requiresFlags);
         output.appendU2(requiresVersionIndex);
     }
+
+    public void remapConstantIndices(IntUnaryOperator remap) {
+        requiresIndex = remap.applyAsInt(requiresIndex);
+        requiresVersionIndex = remap.applyAsInt(requiresVersionIndex);
+    }
 }
@@ -1,7 +1,9 @@
 package no.ion.jhms.modularizer;
 
+import java.util.function.IntUnaryOperator;
+
 public class SourceFileAttribute extends AttributeInfo {
-    private final int sourceFileIndex;
+    private int sourceFileIndex;
 
     public SourceFileAttribute(int attributeNameIndex, int attributeLength, int sourceFileIndex) {
         super(attributeNameIndex, attributeLength);
@@ -12,4 +14,9 @@ public class SourceFileAttribute extends AttributeInfo {
     protected void attributeSpecificAppendTo(Output output) {
         output.appendU2(sourceFileIndex);
     }
+
+    @Override
+    protected void attributeSpecificRemapConstantIndices(IntUnaryOperator remap) {
+        sourceFileIndex = remap.applyAsInt(sourceFileIndex);
+    }
 }
@@ -0,0 +1,279 @@
+package no.ion.jhms.modularizer;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.BiFunction;
+import java.util.function.Predicate;
+
+/**
+ * Rewrites a JAR read from a stream to another stream in a single pass, without temporary files.
+ *
+ * <p>Unlike {@link JarRewriter}, the central directory is not available up front, so the local file headers are
+ * followed from the start of the stream.  Entries are copied raw as in {@link JarRewriter}, except that deflated
+ * entries with a data descriptor are inflated (and discarded) to find their end, and stored entries with one are
+ * scanned for the data descriptor signature followed by their CRC-32 and size.  Only the edited entries, e.g.
+ * the module-info.class of each release, are held in memory, and each may be replaced once it has been read.</p>
+ */
+public class StreamingJarRewriter {
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+
+    private final ZipInput input;
+    private final ZipOutput output;
+    private final Predicate<String> isEdited;
+    private final String nameIfNone;
+    private final BiFunction<String, Optional<byte[]>, Optional<byte[]>> editor;
+
+    /** The new central directory file header of entries replaced so far, by their original offset. */
+    private final Map<Long, CentralDirectoryHeader> replacedEntries = new HashMap<>();
+    /** The new offset of entries copied so far, by their original offset. */
+    private final Map<Long, Long> copiedEntries = new HashMap<>();
+    private final Set<String> editedEntries = new HashSet<>();
+
+    /**
+     * Copy the JAR read from in to out, replacing each entry with a name accepted by isEdited with the result of
+     * editor.  The editor is called with the name and content of each such entry, and returns the new content, or
+     * empty to leave the entry unchanged.  If there are no such entries and nameIfNone is non-null, the editor is
+     * called once with nameIfNone and empty content, and may return the content of an entry to add.
+     */
+    public static void rewrite(InputStream in, OutputStream out, Predicate<String> isEdited, String nameIfNone,
+                               BiFunction<String, Optional<byte[]>, Optional<byte[]>> editor) {
+        ZipOutput output = new ZipOutput(Channels.newChannel(out));
+        new StreamingJarRewriter(new ZipInput(in), output, isEdited, nameIfNone, editor).rewrite();
+        output.flush();
+    }
+
+    /** Read the content of the entries with a name accepted by isRead, reading the JAR in the stream to the end. */
+    public static Map<String, byte[]> read(InputStream in, Predicate<String> isRead) {
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        rewrite(in, OutputStream.nullOutputStream(), isRead, null, (name, content) -> {
+            entries.put(name, content.orElseThrow());
+            return Optional.empty();
+        });
+        return entries;
+    }
+
+    StreamingJarRewriter(ZipInput input, ZipOutput output, Predicate<String> isEdited, String nameIfNone,
+                         BiFunction<String, Optional<byte[]>, Optional<byte[]>> editor) {
+        this.input = input;
+        this.output = output;
+        this.isEdited = isEdited;
+        this.nameIfNone = nameIfNone;
+        this.editor = editor;
+    }
+
+    private void rewrite() {
+        long signature;
+        while ((signature = input.readU4()) == JarRewriter.LOCAL_HEADER_SIGNATURE) {
+            readEntry();
+        }
+
+        List<CentralDirectoryHeader> headers = new ArrayList<>();
+        for (; signature == CentralDirectoryHeader.SIGNATURE; signature = input.readU4()) {
+            headers.add(readCentralDirectoryHeader());
+        }
+
+        // The Zip64 end of central directory record and locator are rewritten as needed by writeEndRecord().
+        if (signature == CentralDirectory.ZIP64_END_SIGNATURE) {
+            long recordSize = input.readU8();
+            input.copy(recordSize, (bytes, offset, length) -> {});
+            signature = input.readU4();
+        }
+        if (signature == CentralDirectory.ZIP64_LOCATOR_SIGNATURE) {
+            input.readBytes(CentralDirectory.ZIP64_LOCATOR_SIZE - 4);
+            signature = input.readU4();
+        }
+
+        if (signature != CentralDirectory.END_SIGNATURE) {
+            throw new BadArchiveException("unexpected signature at offset " + (input.position() - 4) + ": 0x" +
+                    Long.toHexString(signature));
+        }
+
+        List<CentralDirectoryHeader> newHeaders = new ArrayList<>(headers.size() + 1);
+        for (var header : headers) {
+            CentralDirectoryHeader replaced = replacedEntries.get(header.localHeaderOffset());
+            Long newOffset = copiedEntries.get(header.localHeaderOffset());
+            if (replaced != null) {
+                newHeaders.add(withAttributesOf(replaced, header));
+            } else if (newOffset != null) {
+                newHeaders.add(header.withLocalHeaderOffset(newOffset));
+            } else {
+                throw new BadArchiveException("no local file header for " + header.name());
+            }
+        }
+
+        if (editedEntries.isEmpty() && nameIfNone != null) {
+            editor.apply(nameIfNone, Optional.empty()).ifPresent(content -> newHeaders.add(
+                    JarRewriter.writeEntry(output, nameIfNone.getBytes(StandardCharsets.UTF_8), content, null)));
+        }
+
+        byte[] comment = readEndRecordComment();
+        long centralDirectoryOffset = output.position();
+        newHeaders.forEach(header -> header.writeTo(output));
+        CentralDirectory.writeEndRecord(output, newHeaders.size(), centralDirectoryOffset,
+                output.position() - centralDirectoryOffset, comment);
+    }
+
+    /** Read the local file header following its signature, and its data and data descriptor. */
+    private void readEntry() {
+        long offset = input.position() - 4;
+        byte[] fixed = input.readBytes(JarRewriter.LOCAL_HEADER_FIXED_SIZE - 4);
+        ByteBuffer fields = ByteBuffer.wrap(fixed).order(ByteOrder.LITTLE_ENDIAN);
+        int flags = Short.toUnsignedInt(fields.getShort(2));
+        int method = Short.toUnsignedInt(fields.getShort(4));
+        long compressedSize = Integer.toUnsignedLong(fields.getInt(14));
+        long size = Integer.toUnsignedLong(fields.getInt(18));
+        byte[] name = input.readBytes(Short.toUnsignedInt(fields.getShort(22)));
+        byte[] extra = input.readBytes(Short.toUnsignedInt(fields.getShort(24)));
+        String entryName = new String(name, StandardCharsets.UTF_8);
+
+        // A local file header with a Zip64 extra field has both sizes there, and a Zip64 data descriptor if any.
+        Optional<ByteBuffer> zip64 = CentralDirectoryHeader.findExtraField(extra, CentralDirectoryHeader.ZIP64_EXTRA_ID);
+        if (zip64.isPresent() && (size == CentralDirectoryHeader.ZIP64_MAGIC ||
+                compressedSize == CentralDirectoryHeader.ZIP64_MAGIC)) {
+            if (zip64.get().remaining() < 16) {
+                throw new BadArchiveException("truncated Zip64 extended information: " + entryName);
+            }
+            size = zip64.get().getLong(0);
+            compressedSize = zip64.get().getLong(8);
+        }
+
+        boolean hasDataDescriptor = (flags & CentralDirectoryHeader.FLAG_DATA_DESCRIPTOR) != 0;
+        if (hasDataDescriptor && method != CentralDirectoryHeader.METHOD_DEFLATED &&
+                method != CentralDirectoryHeader.METHOD_STORED) {
+            throw new BadArchiveException("unsupported compression method " + method + " with a data descriptor: " +
+                    entryName);
+        }
+
+        boolean isEdited = this.isEdited.test(entryName);
+        // The raw edited entry is held back until it is known whether it is replaced.
+        Output raw = new Output();
+        ZipInput.ByteSink rawSink = isEdited ? raw::writeByteArray : output::writeBytes;
+        Output content = isEdited ? new Output() : null;
+
+        if (!isEdited) {
+            copiedEntries.put(offset, output.position());
+        }
+        writeU4(rawSink, JarRewriter.LOCAL_HEADER_SIGNATURE);
+        rawSink.write(fixed, 0, fixed.length);
+        rawSink.write(name, 0, name.length);
+        rawSink.write(extra, 0, extra.length);
+
+        if (hasDataDescriptor) {
+            long dataStart = input.position();
+            final long uncompressedSize;
+            if (method == CentralDirectoryHeader.METHOD_STORED) {
+                uncompressedSize = input.readStored(entryName, zip64.isPresent(), content == null ? rawSink :
+                        (bytes, start, length) -> {
+                            rawSink.write(bytes, start, length);
+                            content.writeByteArray(bytes, start, length);
+                        });
+            } else {
+                uncompressedSize = input.readDeflated(entryName, rawSink,
+                        content == null ? null : content::writeByteArray);
+            }
+            // Like java.util.zip, assume a Zip64 data descriptor if the sizes do not fit in 4 bytes.
+            boolean zip64DataDescriptor = zip64.isPresent() ||
+                    uncompressedSize >= CentralDirectoryHeader.ZIP64_MAGIC ||
+                    input.position() - dataStart >= CentralDirectoryHeader.ZIP64_MAGIC;
+
+            long signature = input.readU4();
+            writeU4(rawSink, signature);
+            if (signature == DATA_DESCRIPTOR_SIGNATURE) {
+                writeU4(rawSink, input.readU4()); // crc-32
+            }
+            input.copy(zip64DataDescriptor ? 16 : 8, rawSink); // compressed and uncompressed sizes
+        } else if (isEdited) {
+            Output data = new Output();
+            input.copy(compressedSize, data::writeByteArray);
+            byte[] dataBytes = data.toByteArray();
+            raw.writeByteArray(dataBytes, 0, dataBytes.length);
+            uncompress(entryName, method, dataBytes, content);
+        } else {
+            input.copy(compressedSize, rawSink);
+        }
+
+        if (isEdited) {
+            if (!editedEntries.add(entryName)) {
+                throw new BadArchiveException("duplicate entry: " + entryName);
+            }
+
+            byte[] contentBytes = content.toByteArray();
+            if (!hasDataDescriptor && contentBytes.length != size) {
+                throw new BadArchiveException("size mismatch: " + entryName);
+            }
+
+            Optional<byte[]> newContent = editor.apply(entryName, Optional.of(contentBytes));
+            if (newContent.isPresent()) {
+                int time = Short.toUnsignedInt(fields.getShort(6));
+                int date = Short.toUnsignedInt(fields.getShort(8));
+                var original = new CentralDirectoryHeader(0, 0, flags, method, time, date, 0, 0, 0, 0, 0, 0, name,
+                        new byte[0], new byte[0]);
+                replacedEntries.put(offset, JarRewriter.writeEntry(output, name, newContent.get(), original));
+            } else {
+                copiedEntries.put(offset, output.position());
+                output.writeBytes(raw.toByteArray());
+            }
+        }
+    }
+
+    private static void uncompress(String name, int method, byte[] data, Output content) {
+        switch (method) {
+            case CentralDirectoryHeader.METHOD_STORED:
+                content.writeByteArray(data, 0, data.length);
+                break;
+            case CentralDirectoryHeader.METHOD_DEFLATED:
+                new ZipInput(new ByteArrayInputStream(data))
+                        .readDeflated(name, (bytes, offset, length) -> {}, content::writeByteArray);
+                break;
+            default:
+                throw new BadArchiveException("unsupported compression method " + method + ": " + name);
+        }
+    }
+
+    private CentralDirectoryHeader readCentralDirectoryHeader() {
+        ByteBuffer fixed = ByteBuffer.allocate(CentralDirectoryHeader.FIXED_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        fixed.putInt(CentralDirectoryHeader.SIGNATURE);
+        fixed.put(input.readBytes(CentralDirectoryHeader.FIXED_SIZE - 4));
+        int variableLength = Short.toUnsignedInt(fixed.getShort(28)) + Short.toUnsignedInt(fixed.getShort(30)) +
+                Short.toUnsignedInt(fixed.getShort(32));
+
+        ByteBuffer buffer = ByteBuffer.allocate(CentralDirectoryHeader.FIXED_SIZE + variableLength)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        buffer.put(fixed.flip());
+        buffer.put(input.readBytes(variableLength));
+        return CentralDirectoryHeader.read(buffer.flip());
+    }
+
+    private byte[] readEndRecordComment() {
+        input.readBytes(CentralDirectory.END_FIXED_SIZE - 4 - 2);
+        return input.readBytes(input.readU2());
+    }
+
+    /** The header of a replaced entry, with the attributes and comment from its original header. */
+    private static CentralDirectoryHeader withAttributesOf(CentralDirectoryHeader replaced,
+                                                          CentralDirectoryHeader original) {
+        return new CentralDirectoryHeader(original.versionMadeBy(), replaced.versionNeeded(), replaced.flags(),
+                replaced.method(), replaced.lastModifiedTime(), replaced.lastModifiedDate(), replaced.crc(),
+                replaced.compressedSize(), replaced.size(), original.internalAttributes(),
+                original.externalAttributes(), replaced.localHeaderOffset(), replaced.nameBytes(), new byte[0],
+                original.comment());
+    }
+
+    private static void writeU4(ZipInput.ByteSink sink, long value) {
+        byte[] bytes = { (byte) value, (byte) (value >>> 8), (byte) (value >>> 16), (byte) (value >>> 24) };
+        sink.write(bytes, 0, bytes.length);
+    }
+}
@@ -116,6 +116,15 @@ public class UnicodePointer implements Iterable<Integer> {
         }
     }
 
+    /** Skip a fully qualified binary class name like a.b.C or a.b.C$D. */
+    public Optional<String> skipClassName() {
+        try {
+            return skipPackageOrModuleName();
+        } catch (IllegalArgumentException e) {
+            throw new ErrorException("not a class name: " + toString());
+        }
+    }
+
     private Optional<String> skipPackageOrModuleName() {
         int startIndex = index;
 
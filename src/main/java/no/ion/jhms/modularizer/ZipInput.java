@@ -0,0 +1,203 @@
+package no.ion.jhms.modularizer;
+
+import java.io.InputStream;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import static no.ion.jhms.modularizer.Exceptions.uncheckIO;
+
+/**
+ * Reads the little-endian structures of a ZIP archive sequentially from a stream, keeping track of the number of
+ * bytes read so far.  The counterpart of {@link ZipOutput} for archives that cannot be accessed randomly.
+ */
+public class ZipInput {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+    /** The size of a Zip64 data descriptor with signature, the largest. */
+    private static final int MAX_DATA_DESCRIPTOR_SIZE = 24;
+    private static final int MIN_DATA_DESCRIPTOR_SIZE = 16;
+
+    /** Receives a range of bytes, e.g. {@link Output#writeByteArray(byte[], int, int)}. */
+    public interface ByteSink {
+        void write(byte[] bytes, int offset, int length);
+    }
+
+    private final InputStream inputStream;
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int index = 0;
+    private int limit = 0;
+    private long bufferPosition = 0;
+
+    public ZipInput(InputStream inputStream) {
+        this.inputStream = inputStream;
+    }
+
+    /** The offset of the next byte relative the start of the stream. */
+    public long position() { return bufferPosition + index; }
+
+    /** Returns true if there are no more bytes. */
+    public boolean eof() { return !fill(1); }
+
+    public int readU2() {
+        require(2);
+        int value = (buffer[index] & 0xFF) | ((buffer[index + 1] & 0xFF) << 8);
+        index += 2;
+        return value;
+    }
+
+    public long readU4() {
+        return readU2() | ((long) readU2() << 16);
+    }
+
+    public long readU8() {
+        return readU4() | (readU4() << 32);
+    }
+
+    public byte[] readBytes(int length) {
+        var output = new Output(Math.max(1, length));
+        copy(length, output::writeByteArray);
+        return output.toByteArray();
+    }
+
+    /** Pass the next length bytes to sink. */
+    public void copy(long length, ByteSink sink) {
+        while (length > 0) {
+            require(1);
+            int chunk = (int) Math.min(length, limit - index);
+            sink.write(buffer, index, chunk);
+            index += chunk;
+            length -= chunk;
+        }
+    }
+
+    /**
+     * Read a raw deflate stream of unknown length, as found in entries with a data descriptor.  The compressed
+     * bytes are passed to rawSink and, if contentSink is non-null, the inflated bytes to contentSink.
+     *
+     * @return the length of the inflated data
+     */
+    public long readDeflated(String name, ByteSink rawSink, ByteSink contentSink) {
+        var inflater = new Inflater(true);
+        try {
+            byte[] inflated = new byte[BUFFER_SIZE];
+            while (!inflater.finished()) {
+                if (inflater.needsInput()) {
+                    require(1);
+                    inflater.setInput(buffer, index, limit - index);
+                }
+
+                int length = inflater.inflate(inflated);
+                if (length == 0 && inflater.needsDictionary()) {
+                    throw new BadArchiveException("corrupt entry " + name + ": needs dictionary");
+                }
+                if (contentSink != null) {
+                    contentSink.write(inflated, 0, length);
+                }
+
+                if (inflater.finished() || inflater.needsInput()) {
+                    int consumed = (limit - index) - inflater.getRemaining();
+                    rawSink.write(buffer, index, consumed);
+                    index += consumed;
+                }
+            }
+            return inflater.getBytesWritten();
+        } catch (DataFormatException e) {
+            throw new BadArchiveException("corrupt entry " + name + ": " + e.getMessage());
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Read the data of a stored entry with a data descriptor, whose length is only known from the data descriptor
+     * following it:  The data ends at the first data descriptor signature followed by the CRC-32 and sizes of the
+     * data before it.  The data is passed to sink, and the data descriptor is left unread.  A data descriptor
+     * without the optional signature cannot be found this way.
+     *
+     * @param zip64 whether the local file header has a Zip64 extra field, i.e. the data descriptor has 8-byte sizes
+     * @return the length of the data
+     */
+    public long readStored(String name, boolean zip64, ByteSink sink) {
+        var crc = new CRC32();
+        long length = 0;
+        while (true) {
+            boolean full = fill(MAX_DATA_DESCRIPTOR_SIZE);
+            // The last index at which a data descriptor may start, given the bytes available.
+            int scanEnd = limit - (full ? MAX_DATA_DESCRIPTOR_SIZE : MIN_DATA_DESCRIPTOR_SIZE);
+            int next = index;
+            while (next <= scanEnd && peekU4(next) != DATA_DESCRIPTOR_SIGNATURE) {
+                ++next;
+            }
+
+            int chunk = Math.max(0, next - index);
+            crc.update(buffer, index, chunk);
+            sink.write(buffer, index, chunk);
+            length += chunk;
+            index += chunk;
+
+            if (next <= scanEnd) {
+                if (isDataDescriptorOf(length, crc.getValue(), zip64 || length >= CentralDirectoryHeader.ZIP64_MAGIC)) {
+                    return length;
+                }
+
+                // The signature is part of the data.
+                crc.update(buffer, index, 1);
+                sink.write(buffer, index, 1);
+                ++length;
+                ++index;
+            } else if (!full) {
+                throw new BadArchiveException("no data descriptor after stored entry " + name);
+            }
+        }
+    }
+
+    /** Whether the bytes at index are a data descriptor with signature, of data of the length and CRC-32. */
+    private boolean isDataDescriptorOf(long length, long crc, boolean zip64) {
+        if (peekU4(index + 4) != crc) {
+            return false;
+        } else if (zip64) {
+            return index + MAX_DATA_DESCRIPTOR_SIZE <= limit && peekU8(index + 8) == length &&
+                    peekU8(index + 16) == length;
+        } else {
+            return peekU4(index + 8) == length && peekU4(index + 12) == length;
+        }
+    }
+
+    private long peekU4(int offset) {
+        return (buffer[offset] & 0xFF) | ((buffer[offset + 1] & 0xFF) << 8) | ((buffer[offset + 2] & 0xFF) << 16) |
+                ((long) (buffer[offset + 3] & 0xFF) << 24);
+    }
+
+    private long peekU8(int offset) {
+        return peekU4(offset) | (peekU4(offset + 4) << 32);
+    }
+
+    private void require(int bytes) {
+        if (!fill(bytes)) {
+            throw new BadArchiveException("unexpected end of archive at offset " + (bufferPosition + limit));
+        }
+    }
+
+    /** Ensure at least bytes are available in buffer, returning false if the stream ends first. */
+    private boolean fill(int bytes) {
+        if (limit - index >= bytes) {
+            return true;
+        }
+
+        System.arraycopy(buffer, index, buffer, 0, limit - index);
+        bufferPosition += index;
+        limit -= index;
+        index = 0;
+
+        while (limit < bytes) {
+            int read = uncheckIO(() -> inputStream.read(buffer, limit, buffer.length - limit));
+            if (read < 0) {
+                return false;
+            }
+            limit += read;
+        }
+
+        return true;
+    }
+}
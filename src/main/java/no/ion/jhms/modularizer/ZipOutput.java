@@ -0,0 +1,95 @@
+package no.ion.jhms.modularizer;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+import static no.ion.jhms.modularizer.Exceptions.uncheckIO;
+
+/**
+ * Writes the little-endian structures of a ZIP archive to a channel, keeping track of the number of bytes
+ * written so far.  Raw ranges of another archive can be copied without passing through the heap.
+ */
+public class ZipOutput {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final WritableByteChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    /** The archive offset of the first byte in buffer. */
+    private long flushedBytes;
+
+    public ZipOutput(WritableByteChannel channel) {
+        this(channel, 0);
+    }
+
+    /** Output to a channel already positioned at offset start within the archive. */
+    public ZipOutput(WritableByteChannel channel, long start) {
+        this.channel = channel;
+        this.flushedBytes = start;
+    }
+
+    /** The offset of the next byte relative the start of the archive. */
+    public long position() {
+        return flushedBytes + buffer.position();
+    }
+
+    public void writeU2(int unsignedShort) {
+        ensureRemaining(2);
+        buffer.putShort((short) unsignedShort);
+    }
+
+    public void writeU4(long unsignedInt) {
+        ensureRemaining(4);
+        buffer.putInt((int) unsignedInt);
+    }
+
+    public void writeU8(long unsignedLong) {
+        ensureRemaining(8);
+        buffer.putLong(unsignedLong);
+    }
+
+    public void writeBytes(byte[] bytes) { writeBytes(bytes, 0, bytes.length); }
+
+    public void writeBytes(byte[] bytes, int offset, int length) {
+        while (length > 0) {
+            ensureRemaining(1);
+            int chunk = Math.min(length, buffer.remaining());
+            buffer.put(bytes, offset, chunk);
+            offset += chunk;
+            length -= chunk;
+        }
+    }
+
+    /** Copy length bytes starting at position of source, verbatim. */
+    public void transferFrom(FileChannel source, long position, long length) {
+        flush();
+
+        long end = position + length;
+        while (position < end) {
+            long from = position;
+            long transferred = uncheckIO(() -> source.transferTo(from, end - from, channel));
+            if (transferred <= 0) {
+                throw new BadArchiveException("unexpected end of archive at offset " + from);
+            }
+            position += transferred;
+        }
+
+        flushedBytes += length;
+    }
+
+    public void flush() {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            flushedBytes += uncheckIO(() -> channel.write(buffer));
+        }
+        buffer.clear();
+    }
+
+    private void ensureRemaining(int bytes) {
+        if (buffer.remaining() < bytes) {
+            flush();
+        }
+    }
+}
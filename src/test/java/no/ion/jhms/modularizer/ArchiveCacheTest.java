@@ -0,0 +1,122 @@
+package no.ion.jhms.modularizer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ArchiveCacheTest {
+    private final ArchiveCache cache = new ArchiveCache(2);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void verifyHitsAndMisses() throws IOException {
+        Path path = createZip("a.jar", "a");
+
+        Archive archive = cache.acquire(path);
+        cache.release(archive);
+        assertEquals(0, cache.hits());
+        assertEquals(1, cache.misses());
+
+        Archive archive2 = cache.acquire(path);
+        assertSame(archive, archive2);
+        cache.release(archive2);
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+        assertTrue(archive.channel().isOpen());
+
+        cache.clear();
+        assertFalse(archive.channel().isOpen());
+    }
+
+    @Test
+    void verifyLeastRecentlyUsedIsEvicted() throws IOException {
+        Path a = createZip("a.jar", "a");
+        Path b = createZip("b.jar", "b");
+        Path c = createZip("c.jar", "c");
+
+        Archive archiveA = cache.acquire(a);
+        Archive archiveB = cache.acquire(b);
+        cache.release(archiveA);
+        cache.release(archiveB);
+
+        Archive archiveC = cache.acquire(c);
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.evictions());
+        assertFalse(archiveA.channel().isOpen());
+        assertTrue(archiveB.channel().isOpen());
+        cache.release(archiveC);
+    }
+
+    @Test
+    void verifyArchivesInUseAreNotClosed() throws IOException {
+        Archive archiveA = cache.acquire(createZip("a.jar", "a"));
+        Archive archiveB = cache.acquire(createZip("b.jar", "b"));
+        Archive archiveC = cache.acquire(createZip("c.jar", "c"));
+        assertEquals(3, cache.size());
+        assertTrue(archiveA.channel().isOpen());
+
+        cache.release(archiveA);
+        assertEquals(2, cache.size());
+        assertFalse(archiveA.channel().isOpen());
+        cache.release(archiveB);
+        cache.release(archiveC);
+    }
+
+    @Test
+    void verifyModifiedFileIsReopened() throws IOException {
+        Path path = createZip("a.jar", "a");
+        Archive archive = cache.acquire(path);
+        cache.release(archive);
+
+        createZip("a.jar", "a", "b");
+        Files.setLastModifiedTime(path, FileTime.fromMillis(Files.getLastModifiedTime(path).toMillis() + 2000));
+
+        Archive reopened = cache.acquire(path);
+        assertNotSame(archive, reopened);
+        assertFalse(archive.channel().isOpen());
+        assertEquals(2, reopened.centralDirectory().entries());
+        assertEquals(2, cache.misses());
+        cache.release(reopened);
+    }
+
+    @Test
+    void verifyJarReleasesArchiveOnClose() throws IOException {
+        Path path = createZip("a.jar", "a");
+        try (Jar jar = new Jar(path, cache)) {
+            assertTrue(jar.readModuleInfoClass().isEmpty());
+            assertTrue(jar.readModuleInfoClass().isEmpty());
+        }
+        try (Jar jar = new Jar(path, cache)) {
+            assertTrue(jar.readModuleInfoClass().isEmpty());
+        }
+
+        assertEquals(1, cache.misses());
+        assertEquals(1, cache.hits());
+    }
+
+    private Path createZip(String filename, String... entries) throws IOException {
+        Path path = directory.resolve(filename);
+        try (var out = new ZipOutputStream(Files.newOutputStream(path))) {
+            for (String entry : entries) {
+                out.putNextEntry(new ZipEntry(entry));
+                out.write(entry.getBytes());
+                out.closeEntry();
+            }
+        }
+        return path;
+    }
+}
@@ -0,0 +1,56 @@
+package no.ion.jhms.modularizer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static no.ion.jhms.modularizer.Exceptions.uncheckIO;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class AtomicFileTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void verifyWrite() throws IOException {
+        Path path = directory.resolve("file");
+        Files.write(path, "old content".getBytes());
+
+        for (var durability : AtomicFile.Durability.values()) {
+            AtomicFile.write(path, path, durability,
+                    channel -> uncheckIO(() -> channel.write(ByteBuffer.wrap("new".getBytes()))));
+            assertArrayEquals("new".getBytes(), Files.readAllBytes(path));
+        }
+
+        assertEquals(List.of(path), list());
+    }
+
+    @Test
+    void verifyFailedWriteLeavesTargetUntouched() throws IOException {
+        Path path = directory.resolve("file");
+        Files.write(path, "old content".getBytes());
+
+        assertThrows(BadArchiveException.class, () ->
+                AtomicFile.write(path, null, AtomicFile.Durability.FILE, channel -> {
+                    uncheckIO(() -> channel.write(ByteBuffer.wrap("partial".getBytes())));
+                    throw new BadArchiveException("failed");
+                }));
+
+        assertArrayEquals("old content".getBytes(), Files.readAllBytes(path));
+        assertEquals(List.of(path), list());
+    }
+
+    private List<Path> list() throws IOException {
+        try (var files = Files.list(directory)) {
+            return files.collect(Collectors.toList());
+        }
+    }
+}
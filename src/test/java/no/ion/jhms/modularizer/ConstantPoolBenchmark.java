@@ -0,0 +1,72 @@
+package no.ion.jhms.modularizer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the time per deduplicating {@link ConstantPool#add} and per indexed lookup, and of serializing the pool,
+ * for constant pools of increasing size up to the maximum of 65534 entries.  With O(1) add and lookup, the time per
+ * operation should stay flat as the pool grows.
+ *
+ * <p>Not run as part of the tests.  Run with e.g.
+ * {@code java -cp target/classes:target/test-classes no.ion.jhms.modularizer.ConstantPoolBenchmark}.</p>
+ */
+public class ConstantPoolBenchmark {
+    private static final int ITERATIONS = 10;
+
+    public static void main(String[] args) {
+        for (int round = 0; round < 2; ++round) {
+            for (int size : List.of(1_000, 4_000, 16_000, 65_000)) {
+                benchmark(size);
+            }
+        }
+    }
+
+    /** Builds a pool of size entries as Utf8 and Package pairs, like the ModulePackages of a large module. */
+    private static void benchmark(int size) {
+        List<String> names = new ArrayList<>(size / 2);
+        for (int i = 0; i < size / 2; ++i) {
+            names.add("com/example/p" + i);
+        }
+
+        long addNanos = 0;
+        long dedupNanos = 0;
+        long resolveNanos = 0;
+        long serializeNanos = 0;
+        long checksum = 0;
+        for (int iteration = 0; iteration < ITERATIONS; ++iteration) {
+            var constantPool = new ConstantPool();
+            int[] packageIndices = new int[names.size()];
+
+            long start = System.nanoTime();
+            for (int i = 0; i < names.size(); ++i) {
+                int utf8Index = constantPool.add(ConstantUtf8.fromString(names.get(i)));
+                packageIndices[i] = constantPool.add(new ConstantPackageInfo(utf8Index));
+            }
+            addNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (String name : names) {
+                checksum += constantPool.add(new ConstantPackageInfo(constantPool.add(ConstantUtf8.fromString(name))));
+            }
+            dedupNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int packageIndex : packageIndices) {
+                checksum += constantPool.resolvePackageName(packageIndex).length();
+            }
+            resolveNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            var output = new Output();
+            constantPool.appendTo(output);
+            serializeNanos += System.nanoTime() - start;
+            checksum += output.size();
+        }
+
+        double operations = (double) ITERATIONS * size;
+        System.out.printf("%6d entries: add %6.1f ns/op, dedup add %6.1f ns/op, resolve %6.1f ns/op, " +
+                        "serialize %6.2f ms (checksum %d)%n", size, addNanos / operations, dedupNanos / operations,
+                2 * resolveNanos / operations, serializeNanos / 1e6 / ITERATIONS, checksum);
+    }
+}
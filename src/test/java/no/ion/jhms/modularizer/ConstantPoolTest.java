@@ -0,0 +1,95 @@
+package no.ion.jhms.modularizer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ConstantPoolTest {
+    @Test
+    void verifyAddDeduplicates() {
+        var constantPool = new ConstantPool();
+        int a = constantPool.add(ConstantUtf8.fromString("a"));
+        int b = constantPool.add(ConstantUtf8.fromString("b"));
+        assertEquals(1, a);
+        assertEquals(2, b);
+        assertEquals(a, constantPool.add(ConstantUtf8.fromString("a")));
+
+        // The same name index, but another kind of entry.
+        int module = constantPool.add(new ConstantModuleInfo(a));
+        int packageIndex = constantPool.add(new ConstantPackageInfo(a));
+        assertEquals(3, module);
+        assertEquals(4, packageIndex);
+        assertEquals(module, constantPool.add(new ConstantModuleInfo(a)));
+        assertEquals("a", constantPool.resolveModuleName(module));
+        assertEquals("a", constantPool.resolvePackageName(packageIndex));
+        assertEquals(5, constantPool.count());
+    }
+
+    @Test
+    void verifyDuplicatesResolveToLowestIndex() {
+        var constantPool = new ConstantPool();
+        constantPool.append(1, ConstantUtf8.fromString("a"));
+        constantPool.append(2, ConstantUtf8.fromString("a"));
+        assertEquals(1, constantPool.add(ConstantUtf8.fromString("a")));
+
+        constantPool.replaceUtf8Entry(1, ConstantUtf8.fromString("b"));
+        assertEquals(2, constantPool.add(ConstantUtf8.fromString("a")));
+        assertEquals(1, constantPool.add(ConstantUtf8.fromString("b")));
+        assertEquals(3, constantPool.count());
+    }
+
+    @Test
+    void verifyIndexBounds() {
+        var constantPool = new ConstantPool();
+        constantPool.add(ConstantUtf8.fromString("a"));
+        assertThrows(BadModuleInfoException.class, () -> constantPool.resolveUtf8(0));
+        assertThrows(BadModuleInfoException.class, () -> constantPool.resolveUtf8(2));
+        assertThrows(IllegalArgumentException.class, () -> constantPool.resolveModuleName(1));
+    }
+
+    @Test
+    void verifyMaxCount() {
+        var constantPool = new ConstantPool();
+        for (int i = 1; i < 0xFFFF; ++i) {
+            assertEquals(i, constantPool.add(ConstantUtf8.fromString(Integer.toString(i))));
+        }
+        assertEquals(0xFFFF, constantPool.count());
+        assertEquals(1, constantPool.add(ConstantUtf8.fromString("1")));
+        assertThrows(BadModuleInfoException.class, () -> constantPool.add(ConstantUtf8.fromString("a")));
+    }
+
+    @Test
+    void verifyCompact() {
+        var constantPool = new ConstantPool();
+        constantPool.append(1, new ConstantModuleInfo(4));
+        constantPool.append(2, ConstantUtf8.fromString("orphan"));
+        constantPool.append(3, new ConstantPackageInfo(2));
+        constantPool.append(4, ConstantUtf8.fromString("a"));
+        constantPool.append(5, ConstantUtf8.fromString("b"));
+
+        var live = new BitSet();
+        live.set(0);
+        live.set(1);
+        live.set(5);
+        int[] newIndices = constantPool.compact(live).orElseThrow();
+        assertArrayEquals(new int[] { 0, 1, 0, 0, 2, 3 }, newIndices);
+        assertEquals(4, constantPool.count());
+        assertEquals("a", constantPool.resolveModuleName(1));
+        assertEquals("b", constantPool.resolveUtf8(3));
+        assertEquals(2, constantPool.add(ConstantUtf8.fromString("a")));
+
+        // The referred entries are live too, so nothing more is removed.
+        live.clear();
+        live.set(1);
+        live.set(3);
+        assertEquals(Optional.empty(), constantPool.compact(live));
+
+        live.set(4);
+        assertThrows(BadModuleInfoException.class, () -> constantPool.compact(live));
+    }
+}
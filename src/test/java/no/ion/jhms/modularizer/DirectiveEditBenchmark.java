@@ -0,0 +1,52 @@
+package no.ion.jhms.modularizer;
+
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Measures the time of a set and remove of a requires, exports, uses and provides directive on a module-info.class
+ * with many of each, which should not grow with the number of directives.
+ *
+ * <p>Not run as part of the tests.  Run with e.g.
+ * {@code java -cp target/classes:target/test-classes no.ion.jhms.modularizer.DirectiveEditBenchmark}.</p>
+ */
+public class DirectiveEditBenchmark {
+    private static final int ITERATIONS = 20_000;
+
+    public static void main(String[] args) {
+        for (int round = 0; round < 3; ++round) {
+            for (int directives : new int[] { 10, 100, 1000 }) {
+                benchmark(directives);
+            }
+        }
+    }
+
+    private static void benchmark(int directives) {
+        ModuleInfoClass moduleInfoClass = MinimalModuleInfoClass.create("bench.m");
+        for (int i = 0; i < directives; ++i) {
+            moduleInfoClass.setRequires("bench.r" + i, EnumSet.noneOf(RequiresFlag.class), Optional.empty());
+            moduleInfoClass.setExports("bench.m.p" + i, List.of());
+            moduleInfoClass.addUses("bench.m.p" + i + ".Service");
+            moduleInfoClass.setProvides("bench.m.p" + i + ".Service", List.of("bench.m.p" + i + ".Provider"));
+        }
+
+        long start = System.nanoTime();
+        for (int iteration = 0; iteration < ITERATIONS; ++iteration) {
+            int i = iteration % directives;
+            moduleInfoClass.removeRequires("bench.r" + i);
+            moduleInfoClass.setRequires("bench.r" + i, EnumSet.noneOf(RequiresFlag.class), Optional.empty());
+            moduleInfoClass.removeExports("bench.m.p" + i);
+            moduleInfoClass.setExports("bench.m.p" + i, List.of());
+            moduleInfoClass.removeUses("bench.m.p" + i + ".Service");
+            moduleInfoClass.addUses("bench.m.p" + i + ".Service");
+            moduleInfoClass.setProvides("bench.m.p" + i + ".Service", List.of("bench.m.p" + i + ".Provider"));
+        }
+        long nanos = System.nanoTime() - start;
+
+        var output = new Output();
+        moduleInfoClass.appendTo(output);
+        System.out.printf("%4d of each directive: %7.1f ns per edit (%d bytes)%n", directives,
+                nanos / (7.0 * ITERATIONS), output.toByteArray().length);
+    }
+}
@@ -0,0 +1,61 @@
+package no.ion.jhms.modularizer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IntListTest {
+    @Test
+    void verifyIntMethods() {
+        var list = new IntList();
+        for (int i = 0; i < 100; ++i) {
+            list.addInt(i * 1000);
+        }
+        assertEquals(100, list.size());
+        assertEquals(99_000, list.getInt(99));
+        assertThrows(IndexOutOfBoundsException.class, () -> list.getInt(100));
+
+        list.replaceAllInts(value -> value + 1);
+        List<Integer> values = new ArrayList<>();
+        list.forEachInt(values::add);
+        assertEquals(1, values.get(0));
+        assertEquals(99_001, values.get(99));
+    }
+
+    @Test
+    void verifyListMethods() {
+        var list = new IntList(List.of(1, 2, 3));
+        assertEquals(List.of(1, 2, 3), list);
+        assertEquals(List.of(1, 2, 3).hashCode(), list.hashCode());
+
+        list.add(0, 0);
+        list.add(4, 4);
+        assertEquals(List.of(0, 1, 2, 3, 4), list);
+        assertEquals(2, list.remove(2));
+        assertEquals(List.of(0, 1, 3, 4), list);
+        assertEquals(1, list.set(1, 5));
+        assertEquals(List.of(0, 5, 3, 4), list);
+
+        assertTrue(list.removeIf(value -> value % 2 == 0));
+        assertFalse(list.removeIf(value -> value > 10));
+        assertEquals(List.of(5, 3), list);
+        list.replaceAll(value -> value * 2);
+        assertEquals(List.of(10, 6), list);
+
+        var iterator = list.iterator();
+        iterator.next();
+        iterator.remove();
+        assertEquals(List.of(6), list);
+
+        list.clear();
+        assertTrue(list.isEmpty());
+        list.add(7);
+        assertEquals(List.of(7), list);
+    }
+}
@@ -0,0 +1,78 @@
+package no.ion.jhms.modularizer;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Optional;
+import java.util.jar.Manifest;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JarManifestTest {
+    private static final String LONG_VALUE = "a".repeat(60) + ".b".repeat(20);
+
+    @Test
+    void verifyGetMainAttribute() {
+        var manifest = manifest("Manifest-Version: 1.0\r\n" +
+                "Class-Path: " + LONG_VALUE.substring(0, 60) + "\r\n" +
+                " " + LONG_VALUE.substring(60) + "\r\n" +
+                "automatic-module-name: a.b\r\n" +
+                "\r\n" +
+                "Name: c/\r\n" +
+                "Automatic-Module-Name: not.main\r\n");
+        assertEquals(Optional.of("1.0"), manifest.getMainAttribute("Manifest-Version"));
+        assertEquals(Optional.of(LONG_VALUE), manifest.getMainAttribute("Class-Path"));
+        assertEquals(Optional.of("a.b"), manifest.getMainAttribute(JarManifest.AUTOMATIC_MODULE_NAME));
+        assertEquals(Optional.empty(), manifest.getMainAttribute("Name"));
+    }
+
+    @Test
+    void verifyReplaceKeepsOtherBytes() {
+        String head = "Manifest-Version: 1.0\n" +
+                "Class-Path: " + LONG_VALUE.substring(0, 60) + "\n" +
+                " " + LONG_VALUE.substring(60) + "\n";
+        String tail = "Created-By: hand\n\nName: c/\nSealed: true\n";
+        var manifest = manifest(head + "Automatic-Module-Name: old.name\n" + tail);
+
+        assertEquals(head + "Automatic-Module-Name: new.name\n" + tail, string(manifest
+                .withMainAttribute(JarManifest.AUTOMATIC_MODULE_NAME, "new.name")));
+        assertSame(manifest, manifest.withMainAttribute(JarManifest.AUTOMATIC_MODULE_NAME, "old.name"));
+    }
+
+    @Test
+    void verifyAddLastInMainSection() throws IOException {
+        assertEquals("Manifest-Version: 1.0\r\nAutomatic-Module-Name: a.b\r\n\r\nName: c/\r\nSealed: true\r\n",
+                string(manifest("Manifest-Version: 1.0\r\n\r\nName: c/\r\nSealed: true\r\n")
+                        .withMainAttribute(JarManifest.AUTOMATIC_MODULE_NAME, "a.b")));
+        assertEquals("Manifest-Version: 1.0\r\nAutomatic-Module-Name: a.b\r\n",
+                string(manifest("Manifest-Version: 1.0").withMainAttribute(JarManifest.AUTOMATIC_MODULE_NAME, "a.b")));
+
+        byte[] created = JarManifest.create().withMainAttribute(JarManifest.AUTOMATIC_MODULE_NAME, "a.b").toByteArray();
+        assertEquals("a.b", new Manifest(new ByteArrayInputStream(created)).getMainAttributes()
+                .getValue(JarManifest.AUTOMATIC_MODULE_NAME));
+    }
+
+    @Test
+    void verifyWrapping() throws IOException {
+        String value = LONG_VALUE + ".æøå".repeat(20);
+        byte[] bytes = JarManifest.create().withMainAttribute(JarManifest.AUTOMATIC_MODULE_NAME, value).toByteArray();
+        for (String line : new String(bytes, StandardCharsets.UTF_8).split("\r\n")) {
+            assertTrue(line.getBytes(StandardCharsets.UTF_8).length <= 72, line);
+        }
+        assertEquals(value, new Manifest(new ByteArrayInputStream(bytes)).getMainAttributes()
+                .getValue(JarManifest.AUTOMATIC_MODULE_NAME));
+        assertEquals(Optional.of(value), new JarManifest(bytes).getMainAttribute(JarManifest.AUTOMATIC_MODULE_NAME));
+    }
+
+    private static JarManifest manifest(String content) {
+        return new JarManifest(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String string(JarManifest manifest) {
+        return new String(manifest.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,351 @@
+package no.ion.jhms.modularizer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.module.ModuleDescriptor;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Random;
+import java.util.Set;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JarRewriterTest {
+    private final Path moduleInfoClassPath = Path.of("src/test/resources/module-info/module-info.class");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void verifyUntouchedEntriesAreCopiedVerbatim() throws IOException {
+        Path jarPath = directory.resolve("sample.jar");
+        createJar(jarPath, true);
+        CentralDirectory before = readCentralDirectory(jarPath);
+
+        byte[] newModuleInfoClass = new byte[] { 1, 2, 3, 4 };
+        JarRewriter.rewriteInPlace(jarPath, Map.of(Jar.MODULE_INFO_CLASS, newModuleInfoClass));
+
+        CentralDirectory after = readCentralDirectory(jarPath);
+        assertEquals(before.headers().size(), after.headers().size());
+        for (int i = 0; i < before.headers().size(); ++i) {
+            CentralDirectoryHeader expected = before.headers().get(i);
+            CentralDirectoryHeader actual = after.headers().get(i);
+            assertEquals(expected.name(), actual.name());
+            assertEquals(expected.lastModifiedTime(), actual.lastModifiedTime());
+            assertEquals(expected.lastModifiedDate(), actual.lastModifiedDate());
+            if (!expected.name().equals(Jar.MODULE_INFO_CLASS)) {
+                assertEquals(expected.crc(), actual.crc());
+                assertEquals(expected.method(), actual.method());
+                assertEquals(expected.compressedSize(), actual.compressedSize());
+                assertEquals(expected.size(), actual.size());
+            }
+        }
+
+        try (var jarFile = new JarFile(jarPath.toFile())) {
+            assertArrayEquals(newModuleInfoClass, jarFile.getInputStream(jarFile.getEntry(Jar.MODULE_INFO_CLASS)).readAllBytes());
+            assertArrayEquals(bytes("stored"), jarFile.getInputStream(jarFile.getEntry("sample/stored.txt")).readAllBytes());
+            assertArrayEquals(bytes("deflated"), jarFile.getInputStream(jarFile.getEntry("sample/Deflated.class")).readAllBytes());
+            assertEquals("1.0", jarFile.getManifest().getMainAttributes().getValue("Manifest-Version"));
+        }
+    }
+
+    @Test
+    void verifyModuleInfoClassIsAdded() throws IOException {
+        Path jarPath = directory.resolve("plain.jar");
+        createJar(jarPath, false);
+
+        byte[] moduleInfoClass = Files.readAllBytes(moduleInfoClassPath);
+        JarRewriter.rewriteInPlace(jarPath, Map.of(Jar.MODULE_INFO_CLASS, moduleInfoClass));
+
+        try (var jarFile = new JarFile(jarPath.toFile())) {
+            assertEquals(4, jarFile.size());
+            assertArrayEquals(moduleInfoClass, jarFile.getInputStream(jarFile.getEntry(Jar.MODULE_INFO_CLASS)).readAllBytes());
+        }
+    }
+
+    @Test
+    void verifyUpdatedModuleVersionLandsInJarUnchanged() throws IOException {
+        Path jarPath = directory.resolve("sample.jar");
+        createJar(jarPath, true);
+
+        ModuleUpdater.update(System.out, new ModuleUpdater.Options()
+                .setJarPath(jarPath)
+                .setVersion(ModuleDescriptor.Version.parse("2.3.4")));
+
+        ModuleInfoClass moduleInfoClass = ModuleInfoClassReader.disassemble(Files.readAllBytes(moduleInfoClassPath));
+        moduleInfoClass.setModuleVersion(ModuleDescriptor.Version.parse("2.3.4"));
+        moduleInfoClass.setPackages(Set.of("sample"));
+        Output expected = new Output();
+        moduleInfoClass.appendTo(expected);
+
+        try (var jarFile = new JarFile(jarPath.toFile())) {
+            assertArrayEquals(expected.toByteArray(), jarFile.getInputStream(jarFile.getEntry(Jar.MODULE_INFO_CLASS)).readAllBytes());
+        }
+
+        Optional<ModuleInfoClass> updated = readModuleInfoClass(jarPath);
+        assertTrue(updated.isPresent());
+        assertEquals(Optional.of(ModuleDescriptor.Version.parse("2.3.4")), updated.get().getModuleVersion());
+    }
+
+    @Test
+    void verifyAppendLeavesEntriesInPlace() throws IOException {
+        Path jarPath = directory.resolve("sample.jar");
+        createJar(jarPath, true);
+        CentralDirectory before = readCentralDirectory(jarPath);
+
+        byte[] newModuleInfoClass = new byte[] { 1, 2, 3, 4 };
+        JarRewriter.appendInPlace(jarPath, Map.of(Jar.MODULE_INFO_CLASS, newModuleInfoClass));
+
+        CentralDirectory after = readCentralDirectory(jarPath);
+        assertEquals(before.headers().size(), after.headers().size());
+        for (int i = 0; i < before.headers().size(); ++i) {
+            CentralDirectoryHeader expected = before.headers().get(i);
+            CentralDirectoryHeader actual = after.headers().get(i);
+            assertEquals(expected.name(), actual.name());
+            if (expected.name().equals(Jar.MODULE_INFO_CLASS)) {
+                assertEquals(before.offset(), actual.localHeaderOffset());
+            } else {
+                assertEquals(expected.localHeaderOffset(), actual.localHeaderOffset());
+            }
+        }
+
+        try (var jarFile = new JarFile(jarPath.toFile())) {
+            assertArrayEquals(newModuleInfoClass, jarFile.getInputStream(jarFile.getEntry(Jar.MODULE_INFO_CLASS)).readAllBytes());
+            assertArrayEquals(bytes("deflated"), jarFile.getInputStream(jarFile.getEntry("sample/Deflated.class")).readAllBytes());
+        }
+
+        // Appending again overwrites the previous central directory, leaving both earlier entries as dead bytes.
+        JarRewriter.appendInPlace(jarPath, Map.of(Jar.MODULE_INFO_CLASS, newModuleInfoClass));
+        assertEquals(after.offset() + (after.offset() - before.offset()), readCentralDirectory(jarPath).offset());
+    }
+
+    @Test
+    void verifyZip64EntryCount() throws IOException {
+        Path jarPath = directory.resolve("many.jar");
+        int entries = 0x10000 + 10;
+        try (var out = new ZipOutputStream(new BufferedOutputStream(Files.newOutputStream(jarPath)))) {
+            for (int i = 0; i < entries; ++i) {
+                out.putNextEntry(new ZipEntry("sample/Entry" + i + ".class"));
+                out.closeEntry();
+            }
+        }
+
+        byte[] moduleInfoClass = Files.readAllBytes(moduleInfoClassPath);
+        JarRewriter.rewriteInPlace(jarPath, Map.of(Jar.MODULE_INFO_CLASS, moduleInfoClass));
+        assertEquals(entries + 1, readCentralDirectory(jarPath).entries());
+        assertEquals(Optional.of("sample"), readModuleInfoClass(jarPath).map(ModuleInfoClass::getModuleName));
+
+        JarRewriter.appendInPlace(jarPath, Map.of(Jar.MODULE_INFO_CLASS, moduleInfoClass));
+        try (var jarFile = new JarFile(jarPath.toFile())) {
+            assertEquals(entries + 1, jarFile.size());
+            assertArrayEquals(moduleInfoClass, jarFile.getInputStream(jarFile.getEntry(Jar.MODULE_INFO_CLASS)).readAllBytes());
+        }
+    }
+
+    @Test
+    void verifyZip64ExtraField() {
+        long large = 5L * 1024 * 1024 * 1024;
+        var header = new CentralDirectoryHeader(20, 20, 0, CentralDirectoryHeader.METHOD_DEFLATED, 0, 0, 0, 1000,
+                large, 0, 0, large + 1, "name".getBytes(), new byte[] { 0x34, 0x12, 1, 0, 42 }, new byte[0]);
+        var bytes = new ByteArrayOutputStream();
+        ZipOutput output = new ZipOutput(Channels.newChannel(bytes));
+        header.writeTo(output);
+        output.flush();
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray()).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(CentralDirectoryHeader.ZIP64_MAGIC, Integer.toUnsignedLong(buffer.getInt(24)));
+        assertEquals(1000, buffer.getInt(20));
+        CentralDirectoryHeader read = CentralDirectoryHeader.read(buffer);
+        assertEquals(large, read.size());
+        assertEquals(1000, read.compressedSize());
+        assertEquals(large + 1, read.localHeaderOffset());
+        assertEquals(CentralDirectoryHeader.VERSION_ZIP64, read.versionNeeded());
+        // The Zip64 extra field is placed first, and other extra fields retained.
+        assertEquals(4 + 16 + 5, read.extra().length);
+    }
+
+    @Test
+    void verifyRecompression() throws IOException {
+        Path jarPath = directory.resolve("sample.jar");
+        try (var out = new ZipOutputStream(Files.newOutputStream(jarPath))) {
+            out.setLevel(1);
+            for (int i = 0; i < 100; ++i) {
+                out.putNextEntry(new ZipEntry("sample/Entry" + i + ".class"));
+                out.write(bytes("entry" + i));
+                out.closeEntry();
+            }
+        }
+        createJar(directory.resolve("stored.jar"), false);
+
+        for (var compression : JarRewriter.Compression.values()) {
+            Path targetPath = directory.resolve(compression + ".jar");
+            JarRewriter.rewrite(jarPath, targetPath, Map.of(), AtomicFile.Durability.NONE, compression);
+
+            try (var jarFile = new JarFile(targetPath.toFile())) {
+                assertEquals(100, jarFile.size());
+                for (int i = 0; i < 100; ++i) {
+                    ZipEntry entry = jarFile.getEntry("sample/Entry" + i + ".class");
+                    int expectedMethod = compression == JarRewriter.Compression.STORE ? ZipEntry.STORED : ZipEntry.DEFLATED;
+                    assertEquals(expectedMethod, entry.getMethod());
+                    assertArrayEquals(bytes("entry" + i), jarFile.getInputStream(entry).readAllBytes());
+                }
+            }
+
+            List<CentralDirectoryHeader> headers = readCentralDirectory(targetPath).headers();
+            for (int i = 0; i < 100; ++i) {
+                assertEquals("sample/Entry" + i + ".class", headers.get(i).name());
+            }
+        }
+
+        Path storedPath = directory.resolve("stored.jar");
+        Path maxPath = directory.resolve("stored-max.jar");
+        JarRewriter.rewrite(storedPath, maxPath, Map.of(), AtomicFile.Durability.NONE, JarRewriter.Compression.MAX);
+        try (var jarFile = new JarFile(maxPath.toFile())) {
+            assertEquals(ZipEntry.STORED, jarFile.getEntry("sample/stored.txt").getMethod());
+            assertEquals(ZipEntry.DEFLATED, jarFile.getEntry("sample/Deflated.class").getMethod());
+            assertArrayEquals(bytes("deflated"),
+                    jarFile.getInputStream(jarFile.getEntry("sample/Deflated.class")).readAllBytes());
+        }
+    }
+
+    @Test
+    void verifyRecompressionOfLargeEntries() throws IOException {
+        // Larger than the buffers the entries are streamed through, compressible and not, and too large to be
+        // recompressed in memory.
+        var random = new Random(42);
+        byte[] compressible = new byte[1024 * 1024];
+        for (int i = 0; i < compressible.length; ++i) {
+            compressible[i] = (byte) ('a' + random.nextInt(4));
+        }
+        byte[] incompressible = new byte[256 * 1024];
+        random.nextBytes(incompressible);
+        byte[] large = new byte[(int) JarRewriter.MAX_PARALLEL_ENTRY_SIZE + 1];
+        for (int i = 0; i < large.length; ++i) {
+            large[i] = (byte) ('a' + random.nextInt(4));
+        }
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("compressible.txt", compressible);
+        entries.put("incompressible.bin", incompressible);
+        entries.put("large.txt", large);
+        entries.put("small.txt", bytes("small"));
+
+        Path jarPath = directory.resolve("large.jar");
+        try (var out = new ZipOutputStream(Files.newOutputStream(jarPath))) {
+            for (var entry : entries.entrySet()) {
+                out.putNextEntry(new ZipEntry(entry.getKey()));
+                out.write(entry.getValue());
+                out.closeEntry();
+            }
+        }
+
+        for (var compression : JarRewriter.Compression.values()) {
+            Path targetPath = directory.resolve(compression + ".jar");
+            JarRewriter.rewrite(jarPath, targetPath, Map.of(), AtomicFile.Durability.NONE, compression);
+
+            try (var jarFile = new JarFile(targetPath.toFile())) {
+                for (var entry : entries.entrySet()) {
+                    ZipEntry zipEntry = jarFile.getEntry(entry.getKey());
+                    assertArrayEquals(entry.getValue(), jarFile.getInputStream(zipEntry).readAllBytes());
+                }
+                boolean store = compression == JarRewriter.Compression.STORE;
+                assertEquals(store ? ZipEntry.STORED : ZipEntry.DEFLATED,
+                        jarFile.getEntry("compressible.txt").getMethod());
+                assertEquals(ZipEntry.STORED, jarFile.getEntry("incompressible.bin").getMethod());
+                assertEquals(store ? ZipEntry.STORED : ZipEntry.DEFLATED, jarFile.getEntry("large.txt").getMethod());
+            }
+
+            // A large deflated entry has a data descriptor, which streaming readers and rewriters must find.
+            try (var in = new ZipInputStream(Files.newInputStream(targetPath))) {
+                for (var entry : entries.entrySet()) {
+                    assertEquals(entry.getKey(), in.getNextEntry().getName());
+                    assertArrayEquals(entry.getValue(), in.readAllBytes());
+                }
+            }
+            try (var in = Files.newInputStream(targetPath)) {
+                assertArrayEquals(large, StreamingJarRewriter.read(in, "large.txt"::equals).get("large.txt"));
+            }
+
+            Path rewrittenPath = directory.resolve(compression + "-rewritten.jar");
+            JarRewriter.rewrite(targetPath, rewrittenPath, Map.of("small.txt", bytes("rewritten")),
+                    AtomicFile.Durability.NONE);
+            try (var jarFile = new JarFile(rewrittenPath.toFile())) {
+                assertArrayEquals(large, jarFile.getInputStream(jarFile.getEntry("large.txt")).readAllBytes());
+                assertArrayEquals(bytes("rewritten"),
+                        jarFile.getInputStream(jarFile.getEntry("small.txt")).readAllBytes());
+            }
+        }
+    }
+
+    private void createJar(Path jarPath, boolean withModuleInfoClass) throws IOException {
+        var manifest = new Manifest();
+        manifest.getMainAttributes().putValue("Manifest-Version", "1.0");
+        try (var out = new JarOutputStream(Files.newOutputStream(jarPath), manifest)) {
+            if (withModuleInfoClass) {
+                out.putNextEntry(new ZipEntry(Jar.MODULE_INFO_CLASS));
+                out.write(Files.readAllBytes(moduleInfoClassPath));
+                out.closeEntry();
+            }
+
+            var stored = new ZipEntry("sample/stored.txt");
+            byte[] storedBytes = bytes("stored");
+            var crc = new CRC32();
+            crc.update(storedBytes);
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(storedBytes.length);
+            stored.setCrc(crc.getValue());
+            out.putNextEntry(stored);
+            out.write(storedBytes);
+            out.closeEntry();
+
+            out.putNextEntry(new ZipEntry("sample/Deflated.class"));
+            out.write(bytes("deflated"));
+            out.closeEntry();
+        }
+    }
+
+    private static CentralDirectory readCentralDirectory(Path path) throws IOException {
+        try (var channel = FileChannel.open(path)) {
+            CentralDirectory centralDirectory = CentralDirectory.read(channel);
+            // Parse the headers while the mapped central directory is still intact.
+            centralDirectory.headers();
+            return centralDirectory;
+        }
+    }
+
+    private static byte[] bytes(String prefix) {
+        var output = new Output();
+        for (String line : List.of(prefix, "lorem ipsum dolor sit amet", prefix)) {
+            for (int i = 0; i < 20; ++i) {
+                output.writeByteArray(line.getBytes(), 0, line.length());
+            }
+        }
+        return output.toByteArray();
+    }
+
+    private static Optional<ModuleInfoClass> readModuleInfoClass(Path jarPath) {
+        try (Jar jar = new Jar(jarPath)) {
+            return jar.readModuleInfoClass();
+        }
+    }
+}
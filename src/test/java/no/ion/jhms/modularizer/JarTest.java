@@ -0,0 +1,134 @@
+package no.ion.jhms.modularizer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.module.ModuleDescriptor;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class JarTest {
+    private final Path moduleInfoClassPath = Path.of("src/test/resources/module-info/module-info.class");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void verifyReadModuleInfoClass() throws IOException {
+        Path jarPath = directory.resolve("sample.jar");
+        Files.write(jarPath, zip(true));
+
+        Optional<ModuleInfoClass> moduleInfoClass = readModuleInfoClass(jarPath);
+        assertTrue(moduleInfoClass.isPresent());
+        assertEquals("sample", moduleInfoClass.get().getModuleName());
+        assertEquals(Optional.of(ModuleDescriptor.Version.parse("1.2.3")), moduleInfoClass.get().getModuleVersion());
+    }
+
+    @Test
+    void verifyReadWithoutModuleInfoClass() throws IOException {
+        Path jarPath = directory.resolve("plain.jar");
+        Files.write(jarPath, zip(false));
+
+        assertEquals(Optional.empty(), readModuleInfoClass(jarPath));
+    }
+
+    @Test
+    void verifyReadArchiveWithPrefix() throws IOException {
+        Path jarPath = directory.resolve("launcher.jar");
+        var bytes = new ByteArrayOutputStream();
+        bytes.write("#!/bin/sh\nexec java -jar \"$0\" \"$@\"\n".getBytes());
+        bytes.write(zip(true));
+        Files.write(jarPath, bytes.toByteArray());
+
+        Optional<ModuleInfoClass> moduleInfoClass = readModuleInfoClass(jarPath);
+        assertTrue(moduleInfoClass.isPresent());
+        assertEquals("sample", moduleInfoClass.get().getModuleName());
+    }
+
+    @Test
+    void verifyNotAnArchive() throws IOException {
+        Path jarPath = directory.resolve("bad.jar");
+        Files.write(jarPath, "not a jar".getBytes());
+
+        assertThrows(BadArchiveException.class, () -> readModuleInfoClass(jarPath));
+    }
+
+    @Test
+    void verifyReadMultiReleaseModuleInfoClasses() throws IOException {
+        Path jarPath = directory.resolve("multi-release.jar");
+        byte[] moduleInfoClass = Files.readAllBytes(moduleInfoClassPath);
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new ZipOutputStream(bytes)) {
+            for (String name : List.of("META-INF/versions/11/module-info.class", Jar.MODULE_INFO_CLASS,
+                    "META-INF/versions/09/module-info.class", "META-INF/versions/8/module-info.class",
+                    "META-INF/versions/17/sample/module-info.class", "META-INF/versions/9/module-info.class")) {
+                out.putNextEntry(new ZipEntry(name));
+                out.write(moduleInfoClass);
+                out.closeEntry();
+            }
+        }
+        Files.write(jarPath, bytes.toByteArray());
+
+        try (Jar jar = new Jar(jarPath)) {
+            SortedMap<Integer, byte[]> moduleInfoClasses = jar.readModuleInfoClassBytesByRelease();
+            assertEquals(List.of(Jar.BASE_RELEASE, 9, 11), List.copyOf(moduleInfoClasses.keySet()));
+            moduleInfoClasses.values().forEach(actual -> assertArrayEquals(moduleInfoClass, actual));
+        }
+    }
+
+    @Test
+    void verifyPackages() {
+        List<String> names = List.of(Jar.MODULE_INFO_CLASS, "META-INF/MANIFEST.MF", "META-INF/services/a.Service",
+                "a/", "a/A.class", "a/b/c/C.class", "a/b/resource.txt", "not-a-package/resource.txt",
+                "META-INF/versions/11/d/D.class", "Toplevel.class", "static/index.html", "native/linux/lib.so",
+                "a/true/resource.txt");
+        assertEquals(Set.of("a", "a.b", "a.b.c", "d"), Jar.packages(names, ""));
+        assertEquals(Set.of("e"), Jar.packages(List.of("classes/e/E.class", "lib/f/libf.so"), Jar.JMOD_CLASSES_DIRECTORY));
+    }
+
+    @Test
+    void verifyModuleInfoClassRelease() {
+        assertEquals(OptionalInt.of(Jar.BASE_RELEASE), Jar.moduleInfoClassRelease("module-info.class"));
+        assertEquals(OptionalInt.of(11), Jar.moduleInfoClassRelease("META-INF/versions/11/module-info.class"));
+        assertEquals(OptionalInt.empty(), Jar.moduleInfoClassRelease("META-INF/versions/011/module-info.class"));
+        assertEquals(OptionalInt.empty(), Jar.moduleInfoClassRelease("META-INF/versions/x/module-info.class"));
+        assertEquals(OptionalInt.empty(), Jar.moduleInfoClassRelease("sample/module-info.class"));
+        assertEquals("META-INF/versions/11/module-info.class", Jar.moduleInfoClassName(11));
+    }
+
+    private byte[] zip(boolean withModuleInfoClass) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new ZipOutputStream(bytes)) {
+            out.putNextEntry(new ZipEntry("sample/exported/Exported.class"));
+            out.write(new byte[100]);
+            out.closeEntry();
+
+            if (withModuleInfoClass) {
+                out.putNextEntry(new ZipEntry(Jar.MODULE_INFO_CLASS));
+                out.write(Files.readAllBytes(moduleInfoClassPath));
+                out.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Optional<ModuleInfoClass> readModuleInfoClass(Path jarPath) {
+        try (Jar jar = new Jar(jarPath)) {
+            return jar.readModuleInfoClass();
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package no.ion.jhms.modularizer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the time to encode a name to a {@link ConstantUtf8}, and to decode a {@link ConstantUtf8} read from a
+ * class file to a String, for ASCII names like nearly all module, package and class names, and for non-ASCII names.
+ *
+ * <p>Not run as part of the tests.  Run with e.g.
+ * {@code java -cp target/classes:target/test-classes no.ion.jhms.modularizer.ModifiedUtf8Benchmark}.</p>
+ */
+public class ModifiedUtf8Benchmark {
+    private static final int NAMES = 10_000;
+    private static final int ITERATIONS = 100;
+
+    public static void main(String[] args) {
+        for (int round = 0; round < 3; ++round) {
+            benchmark("ASCII", "com/example/internal/p", "/Main");
+            benchmark("non-ASCII", "com/eksempel/bl\u00e5b\u00e6r/p", "/Gr\u00f8t\u20ac");
+        }
+    }
+
+    private static void benchmark(String description, String prefix, String suffix) {
+        List<String> names = new ArrayList<>(NAMES);
+        List<byte[]> encoded = new ArrayList<>(NAMES);
+        for (int i = 0; i < NAMES; ++i) {
+            String name = prefix + i + suffix;
+            names.add(name);
+            var output = new Output();
+            ConstantUtf8.fromString(name).appendTo(output);
+            encoded.add(output.toByteArray());
+        }
+
+        long encodeNanos = 0;
+        long decodeNanos = 0;
+        long checksum = 0;
+        for (int iteration = 0; iteration < ITERATIONS; ++iteration) {
+            long start = System.nanoTime();
+            for (String name : names) {
+                checksum += ConstantUtf8.fromString(name).hashCode();
+            }
+            encodeNanos += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (byte[] bytes : encoded) {
+                // Skip the tag and length.
+                checksum += new ConstantUtf8(bytes, 3, bytes.length).toString().length();
+            }
+            decodeNanos += System.nanoTime() - start;
+        }
+
+        double operations = (double) ITERATIONS * NAMES;
+        System.out.printf("%-9s names: encode %6.1f ns/op, decode %6.1f ns/op (checksum %d)%n", description,
+                encodeNanos / operations, decodeNanos / operations, checksum);
+    }
+}
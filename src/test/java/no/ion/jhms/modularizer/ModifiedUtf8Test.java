@@ -0,0 +1,75 @@
+package no.ion.jhms.modularizer;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ModifiedUtf8Test {
+    private static final List<String> TEXTS = List.of(
+            "",
+            "a",
+            "no/ion/jhms/modularizer/ModuleInfoClass",
+            "a\u0000b",
+            "\u007f\u0080\u07ff\u0800\uffff",
+            "com/example/bl\u00e5b\u00e6r",
+            "abcdefgh\u00e6",
+            "abcdefghijklmnopq\u20ac",
+            "\ud83d\ude00 and a lone \udc00");
+
+    @Test
+    void verifyEncodeLikeDataOutput() throws IOException {
+        for (String text : TEXTS) {
+            byte[] expected = writeUtf(text);
+            byte[] actual = ModifiedUtf8.encode(text);
+            assertArrayEquals(Arrays.copyOfRange(expected, 2, expected.length), actual, text);
+        }
+    }
+
+    @Test
+    void verifyDecode() throws IOException {
+        for (String text : TEXTS) {
+            byte[] bytes = writeUtf(text);
+            assertEquals(text, ModifiedUtf8.decode(bytes, 2, bytes.length));
+            assertEquals(text, new ConstantUtf8(bytes, 2, bytes.length).toString());
+        }
+    }
+
+    @Test
+    void verifyMalformed() {
+        assertMalformed(0);
+        assertMalformed('a', 'b', 'c', 'd', 'e', 'f', 'g', 'h', 0);
+        assertMalformed(0b11000011);
+        assertMalformed(0b11100010, 0b10000010);
+        assertMalformed(0b11000011, 'a');
+        assertMalformed(0b10000000);
+        assertMalformed(0b11110000, 0b10011111, 0b10011000, 0b10000000);
+    }
+
+    @Test
+    void verifyMaxLength() {
+        assertEquals(ModifiedUtf8.MAX_LENGTH, ModifiedUtf8.encode("a".repeat(ModifiedUtf8.MAX_LENGTH)).length);
+        assertThrows(BadModuleInfoException.class, () -> ModifiedUtf8.encode("\u00e6".repeat(0x8000)));
+    }
+
+    private static void assertMalformed(int... unsignedBytes) {
+        byte[] bytes = new byte[unsignedBytes.length];
+        for (int i = 0; i < bytes.length; ++i) {
+            bytes[i] = (byte) unsignedBytes[i];
+        }
+        assertThrows(BadModuleInfoException.class, () -> ModifiedUtf8.decode(bytes, 0, bytes.length));
+    }
+
+    private static byte[] writeUtf(String text) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        new DataOutputStream(bytes).writeUTF(text);
+        return bytes.toByteArray();
+    }
+}
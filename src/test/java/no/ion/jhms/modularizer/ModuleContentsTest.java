@@ -0,0 +1,31 @@
+package no.ion.jhms.modularizer;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ModuleContentsTest {
+    @Test
+    void verifyPackagesAndClasses() {
+        var contents = ModuleContents.fromEntryNames(List.of(Jar.MODULE_INFO_CLASS, "META-INF/MANIFEST.MF",
+                "META-INF/services/a.Service", "a/", "a/A.class", "a/A$Inner.class", "a/b/resource.txt",
+                "META-INF/versions/11/d/D.class", "Toplevel.class", "static/index.html", "native/linux/lib.so",
+                "a/true/resource.txt"), "");
+
+        assertEquals(Set.of("a", "a.b", "d"), contents.packages());
+        assertTrue(contents.hasPackage("a.b"));
+        assertFalse(contents.hasPackage("META-INF.services"));
+        assertFalse(contents.hasPackage("static"));
+        assertFalse(contents.hasPackage("native.linux"));
+        assertTrue(contents.hasClass("a.A"));
+        assertTrue(contents.hasClass("a.A$Inner"));
+        assertTrue(contents.hasClass("d.D"));
+        assertFalse(contents.hasClass("Toplevel"));
+        assertFalse(contents.hasClass("a.b.resource"));
+    }
+}
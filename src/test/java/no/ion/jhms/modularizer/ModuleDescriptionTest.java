@@ -0,0 +1,124 @@
+package no.ion.jhms.modularizer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ModuleDescriptionTest {
+    private final Path moduleInfoClassPath = Path.of("src/test/resources/module-info/module-info.class");
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void verifyDescribeNestedJars() throws IOException {
+        byte[] moduleInfoClass = Files.readAllBytes(moduleInfoClassPath);
+        Path outerPath = directory.resolve("app.jar");
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new ZipOutputStream(bytes)) {
+            putStored(out, "BOOT-INF/lib/modular.jar", zip(Jar.MODULE_INFO_CLASS, moduleInfoClass));
+            putStored(out, "BOOT-INF/lib/plain.jar", zip("plain/Plain.class", new byte[10]));
+            putStored(out, "BOOT-INF/lib/sub/other.jar", zip(Jar.MODULE_INFO_CLASS, moduleInfoClass));
+            out.putNextEntry(new ZipEntry("BOOT-INF/lib/automatic.jar"));
+            out.write(zip(JarManifest.NAME, "Manifest-Version: 1.0\r\nAutomatic-Module-Name: auto\r\n\r\n".getBytes()));
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("BOOT-INF/classes/App.class"));
+            out.closeEntry();
+        }
+        Files.write(outerPath, bytes.toByteArray());
+
+        String description = describe(Path.of(outerPath + "!/BOOT-INF/lib/*.jar"));
+        assertTrue(description.startsWith("// " + outerPath + "!/BOOT-INF/lib/modular.jar\nmodule sample {"));
+        assertTrue(description.contains("\n// " + outerPath + "!/BOOT-INF/lib/plain.jar: no module declaration\n"));
+        assertTrue(description.contains("\n// " + outerPath + "!/BOOT-INF/lib/automatic.jar\n" +
+                "module auto { // automatic"));
+        assertFalse(description.contains("other.jar"));
+
+        assertTrue(describe(Path.of(outerPath + "!/BOOT-INF/lib/sub/other.jar")).startsWith("module sample {"));
+    }
+
+    @Test
+    void verifyDescribeRuntimeImage() {
+        var out = new ByteArrayOutputStream();
+        var printStream = new PrintStream(out);
+        Path javaHome = Path.of(System.getProperty("java.home"));
+        ModuleDescription.describeModule(printStream, new ModuleDescription.Options().setRuntimeImage(javaHome));
+        printStream.flush();
+
+        String description = out.toString();
+        assertTrue(description.startsWith("module java.base {"));
+        assertTrue(description.contains("\nmodule java.sql {"));
+
+        assertThrows(ErrorException.class, () -> ModuleDescription.describeModule(printStream,
+                new ModuleDescription.Options().setRuntimeImage(directory)));
+    }
+
+    @Test
+    void verifyDescribeDirectory() throws IOException {
+        Files.copy(moduleInfoClassPath, directory.resolve(Jar.MODULE_INFO_CLASS));
+        assertTrue(describe(directory).startsWith("module sample {"));
+    }
+
+    @Test
+    void verifyDescribeAutomaticModule() throws IOException {
+        Path jarPath = directory.resolve("plain.jar");
+        Files.write(jarPath, zip(JarManifest.NAME, "Manifest-Version: 1.0\r\nAutomatic-Module-Name: plain.module\r\n\r\n".getBytes()));
+        assertTrue(describe(jarPath).startsWith("module plain.module { // automatic"));
+
+        Path noNamePath = directory.resolve("no-name.jar");
+        Files.write(noNamePath, zip("plain/Plain.class", new byte[10]));
+        assertThrows(ErrorException.class, () -> describe(noNamePath));
+    }
+
+    @Test
+    void verifyGlobToPattern() {
+        assertTrue(ModuleDescription.globToPattern("lib/*.jar").matcher("lib/a.jar").matches());
+        assertFalse(ModuleDescription.globToPattern("lib/*.jar").matcher("lib/sub/a.jar").matches());
+        assertTrue(ModuleDescription.globToPattern("lib/**.jar").matcher("lib/sub/a.jar").matches());
+        assertTrue(ModuleDescription.globToPattern("lib/?.jar").matcher("lib/a.jar").matches());
+        assertFalse(ModuleDescription.globToPattern("lib/?.jar").matcher("lib/ajar").matches());
+    }
+
+    private static String describe(Path path) {
+        var out = new ByteArrayOutputStream();
+        var printStream = new PrintStream(out);
+        ModuleDescription.describeModule(printStream, new ModuleDescription.Options().setJarPath(path));
+        printStream.flush();
+        return out.toString();
+    }
+
+    private static void putStored(ZipOutputStream out, String name, byte[] content) throws IOException {
+        var crc = new CRC32();
+        crc.update(content);
+        var entry = new ZipEntry(name);
+        entry.setMethod(ZipEntry.STORED);
+        entry.setSize(content.length);
+        entry.setCrc(crc.getValue());
+        out.putNextEntry(entry);
+        out.write(content);
+        out.closeEntry();
+    }
+
+    private static byte[] zip(String name, byte[] content) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new ZipOutputStream(bytes)) {
+            out.putNextEntry(new ZipEntry(name));
+            out.write(content);
+            out.closeEntry();
+        }
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,46 @@
+package no.ion.jhms.modularizer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ModuleDirectoryTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void verifyPackages() throws IOException {
+        for (String name : List.of("a/A.class", "a/b/c/C.class", "a/b/resource.txt", "d/D.class", "not-a-package/resource.txt",
+                "META-INF/versions/11/a/A.class", Jar.MODULE_INFO_CLASS)) {
+            Path path = directory.resolve(name);
+            Files.createDirectories(path.getParent());
+            Files.write(path, new byte[0]);
+        }
+
+        assertEquals(Set.of("a", "a.b", "a.b.c", "d"), new ModuleDirectory(directory).packages());
+    }
+
+    @Test
+    void verifyReadAndWriteModuleInfoClasses() {
+        var moduleDirectory = new ModuleDirectory(directory);
+        assertEquals(Map.of(), moduleDirectory.readModuleInfoClassBytesByRelease());
+
+        moduleDirectory.writeModuleInfoClasses(Map.of(
+                Jar.moduleInfoClassName(Jar.BASE_RELEASE), new byte[] {1},
+                Jar.moduleInfoClassName(11), new byte[] {2}), AtomicFile.Durability.NONE);
+
+        var moduleInfoClasses = moduleDirectory.readModuleInfoClassBytesByRelease();
+        assertEquals(Set.of(Jar.BASE_RELEASE, 11), moduleInfoClasses.keySet());
+        assertArrayEquals(new byte[] {1}, moduleInfoClasses.get(Jar.BASE_RELEASE));
+        assertArrayEquals(new byte[] {2}, moduleInfoClasses.get(11));
+    }
+}
@@ -0,0 +1,127 @@
+package no.ion.jhms.modularizer;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.module.FindException;
+import java.lang.module.ModuleFinder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ModuleHasherTest {
+    @TempDir
+    Path directory;
+
+    @Test
+    void verifyDependents() throws IOException {
+        writeModulePath(directory);
+
+        var hasher = new ModuleHasher(Pattern.compile("app\\..*"), List.of(directory));
+        // app.c depends on a only through lib.b, which does not match.
+        assertEquals(Set.of("app.a", "app.c"), hasher.dependents("base").keySet());
+        assertEquals(Set.of("app.c"), hasher.dependents("lib.b").keySet());
+        assertEquals(Optional.of(directory.resolve("app.a.jar").toUri()),
+                hasher.dependents("base").get("app.a").location());
+        assertEquals(Set.of(), hasher.dependents("app.c").keySet());
+        assertThrows(ErrorException.class, () -> hasher.hashes("app.c"));
+    }
+
+    @Test
+    void verifyHashesAreAcceptedWhenResolving() throws IOException {
+        writeModulePath(directory);
+
+        var hashes = new ModuleHasher(Pattern.compile("app\\..*"), List.of(directory)).hashes("base");
+        assertEquals(Set.of("app.a", "app.c"), hashes.keySet());
+        ModuleInfoClass moduleInfoClass = MinimalModuleInfoClass.create("base");
+        moduleInfoClass.setModuleHashes(ModuleHasher.ALGORITHM, hashes);
+        writeJar(directory.resolve("base.jar"), moduleInfoClass);
+
+        // The module system verifies the recorded hashes of the dependents when resolving them with base.
+        resolve(directory, "app.a", "app.c");
+
+        writeModule(directory, "app.c", new String[] { "lib.b" }, "app/c/C.class");
+        var exception = assertThrows(FindException.class, () -> resolve(directory, "app.a", "app.c"));
+        assertTrue(exception.getMessage().startsWith("Hash of app.c "), exception.getMessage());
+    }
+
+    @Test
+    void verifyHashIsOfModuleContent() throws IOException {
+        Path first = Files.createDirectory(directory.resolve("first"));
+        Path second = Files.createDirectory(directory.resolve("second"));
+        writeModule(first, "app.a", new String[0], "app/a/A.class", "app/a/B.class");
+        writeModule(second, "app.a", new String[0], "app/a/B.class", "app/a/A.class");
+        assertFalse(Arrays.equals(Files.readAllBytes(first.resolve("app.a.jar")),
+                Files.readAllBytes(second.resolve("app.a.jar"))));
+
+        // The order of the entries does not matter, but the names and content do.
+        assertArrayEquals(hash(first), hash(second));
+        writeModule(second, "app.a", new String[0], "app/a/A.class", "app/a/C.class");
+        assertFalse(Arrays.equals(hash(first), hash(second)));
+    }
+
+    private static byte[] hash(Path modulePath) {
+        return ModuleHasher.hash(ModuleFinder.of(modulePath).find("app.a").orElseThrow());
+    }
+
+    private static void resolve(Path modulePath, String... roots) {
+        ModuleLayer.boot().configuration().resolve(ModuleFinder.of(modulePath), ModuleFinder.of(), Set.of(roots));
+    }
+
+    /** base <- app.a, base <- lib.b <- app.c, and the unrelated app.d. */
+    static void writeModulePath(Path directory) throws IOException {
+        writeModule(directory, "base");
+        writeModule(directory, "app.a", "base");
+        writeModule(directory, "lib.b", "base");
+        writeModule(directory, "app.c", "lib.b");
+        writeModule(directory, "app.d");
+    }
+
+    private static void writeModule(Path directory, String moduleName, String... requires) throws IOException {
+        writeModule(directory, moduleName, requires, new String[0]);
+    }
+
+    /** Write the module JAR with the requires, and the resources with their names as content. */
+    private static void writeModule(Path directory, String moduleName, String[] requires, String... resources)
+            throws IOException {
+        ModuleInfoClass moduleInfoClass = MinimalModuleInfoClass.create(moduleName);
+        for (String required : requires) {
+            moduleInfoClass.setRequires(required, EnumSet.noneOf(RequiresFlag.class), Optional.empty());
+        }
+
+        writeJar(directory.resolve(moduleName + ".jar"), moduleInfoClass, resources);
+    }
+
+    private static void writeJar(Path path, ModuleInfoClass moduleInfoClass, String... resources)
+            throws IOException {
+        var moduleInfoClassBytes = new Output();
+        moduleInfoClass.appendTo(moduleInfoClassBytes);
+
+        try (OutputStream file = Files.newOutputStream(path); var out = new ZipOutputStream(file)) {
+            out.putNextEntry(new ZipEntry(Jar.MODULE_INFO_CLASS));
+            out.write(moduleInfoClassBytes.toByteArray());
+            out.closeEntry();
+            for (String resource : resources) {
+                out.putNextEntry(new ZipEntry(resource));
+                out.write(resource.getBytes(StandardCharsets.UTF_8));
+                out.closeEntry();
+            }
+        }
+    }
+}
@@ -1,18 +1,32 @@
 package no.ion.jhms.modularizer;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.IOException;
 import java.lang.module.ModuleDescriptor;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class ModuleInfoClassReaderTest {
+    private static final Path MODULE_INFO_CLASS = Path.of("src/test/resources/module-info/module-info.class");
+
+    @TempDir
+    Path directory;
+
     @Test void verifyReader() {
-        ModuleInfoClassReader reader = ModuleInfoClassReader.open(Path.of("src/test/resources/module-info/module-info.class"));
+        ModuleInfoClassReader reader = ModuleInfoClassReader.open(MODULE_INFO_CLASS);
         ModuleInfoClass moduleInfoClass = reader.parse();
         assertEquals(0xCAFEBABE, moduleInfoClass.magic());
         assertTrue(moduleInfoClass.majorVersion() >= 53, "Requires at least Java 9");
@@ -50,4 +64,62 @@ class ModuleInfoClassReaderTest {
             return moduleInfoJava;
         }
     }
-}
\ No newline at end of file
+
+    @Test void verifyByteBuffers() throws IOException {
+        byte[] bytes = Files.readAllBytes(MODULE_INFO_CLASS);
+
+        byte[] padded = new byte[bytes.length + 20];
+        System.arraycopy(bytes, 0, padded, 10, bytes.length);
+        ByteBuffer heap = ByteBuffer.wrap(padded, 10, bytes.length);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+        ByteBuffer readOnly = ByteBuffer.wrap(bytes).asReadOnlyBuffer();
+
+        Path file = Files.write(directory.resolve("module-info.class"), bytes);
+        try (FileChannel channel = FileChannel.open(file)) {
+            ByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, bytes.length);
+            for (ByteBuffer buffer : List.of(heap, direct, readOnly, mapped)) {
+                int position = buffer.position();
+                ModuleInfoClass moduleInfoClass = ModuleInfoClassReader.disassemble(buffer);
+                assertEquals(position, buffer.position());
+                assertEquals("sample", moduleInfoClass.getModuleName());
+
+                var output = new Output();
+                moduleInfoClass.appendTo(output);
+                assertArrayEquals(bytes, output.toByteArray());
+            }
+        }
+    }
+
+    @Test void verifyTruncatedClassFile() throws IOException {
+        byte[] bytes = Files.readAllBytes(MODULE_INFO_CLASS);
+        for (int length = 0; length < bytes.length; ++length) {
+            byte[] truncated = Arrays.copyOf(bytes, length);
+            assertThrows(BadModuleInfoException.class, () -> ModuleInfoClassReader.disassemble(truncated),
+                    "length " + length);
+        }
+    }
+
+    @Test void verifyBadLengths() throws IOException {
+        byte[] bytes = Files.readAllBytes(MODULE_INFO_CLASS);
+
+        byte[] trailing = Arrays.copyOf(bytes, bytes.length + 1);
+        var exception = assertThrows(BadModuleInfoException.class, () -> ModuleInfoClassReader.disassemble(trailing));
+        assertEquals("Trailing 1 bytes after the class file at offset " + bytes.length, exception.getMessage());
+
+        // Extend the last attribute, the Module attribute, by one byte.
+        ByteBuffer longModule = ByteBuffer.wrap(Arrays.copyOf(bytes, bytes.length + 1));
+        int lengthOffset = bytes.length - 4;
+        while (longModule.getInt(lengthOffset) != bytes.length - lengthOffset - 4) {
+            --lengthOffset;
+        }
+        int moduleLength = longModule.getInt(lengthOffset);
+        longModule.putInt(lengthOffset, moduleLength + 1);
+        exception = assertThrows(BadModuleInfoException.class, () -> ModuleInfoClassReader.disassemble(longModule));
+        assertEquals("bad Module attribute_length " + (moduleLength + 1) + ": the content is " + moduleLength +
+                " bytes", exception.getMessage());
+
+        byte[] badMagic = bytes.clone();
+        badMagic[0] = 0;
+        assertThrows(BadModuleInfoException.class, () -> ModuleInfoClassReader.disassemble(badMagic));
+    }
+}
@@ -0,0 +1,90 @@
+package no.ion.jhms.modularizer;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.ToLongFunction;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Measures the time and the bytes allocated per descriptor, to get the module name, version and the names of the
+ * required modules of 100k descriptors, cycling through the module-info.class files of the running JDK:  with
+ * {@link ModuleInfoPeek}, with {@link ModuleInfoClassReader}, and with a {@link java.lang.module.ModuleDescriptor}
+ * made by {@link ModuleDescriptorFactory}.
+ *
+ * <p>Not run as part of the tests.  Run with e.g.
+ * {@code java -cp target/classes:target/test-classes no.ion.jhms.modularizer.ModuleInfoPeekBenchmark}.</p>
+ */
+public class ModuleInfoPeekBenchmark {
+    private static final int DESCRIPTORS = 100_000;
+
+    public static void main(String[] args) throws IOException {
+        List<byte[]> moduleInfoClasses = readRuntimeModuleInfoClasses();
+        for (int round = 0; round < 3; ++round) {
+            benchmark("peek", moduleInfoClasses, bytes -> {
+                ModuleInfoPeek peek = ModuleInfoPeek.of(bytes);
+                long checksum = peek.moduleName().length() + peek.moduleVersion().map(String::length).orElse(0);
+                for (int index = 0; index < peek.requiresCount(); ++index) {
+                    checksum += peek.requiresName(index).length();
+                }
+                return checksum;
+            });
+            benchmark("parse", moduleInfoClasses, bytes -> {
+                ModuleInfoClass moduleInfoClass = ModuleInfoClassReader.disassemble(bytes);
+                ConstantPool constantPool = moduleInfoClass.getConstantPool();
+                long checksum = moduleInfoClass.getModuleName().length() +
+                        moduleInfoClass.getModuleVersion().map(version -> version.toString().length()).orElse(0);
+                for (Requires requires : moduleInfoClass.getAttributeInfos().getModuleAttribute().requires()) {
+                    checksum += constantPool.resolveModuleName(requires.requiresIndex()).length();
+                }
+                return checksum;
+            });
+            benchmark("descriptor", moduleInfoClasses, bytes -> {
+                var descriptor = new ModuleDescriptorFactory(ModuleInfoClassReader.disassemble(bytes)).make();
+                long checksum = descriptor.name().length() + descriptor.rawVersion().map(String::length).orElse(0);
+                for (var requires : descriptor.requires()) {
+                    checksum += requires.name().length();
+                }
+                return checksum;
+            });
+        }
+    }
+
+    private static void benchmark(String description, List<byte[]> moduleInfoClasses, ToLongFunction<byte[]> scan) {
+        var threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        long checksum = 0;
+        long allocatedBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+        long start = System.nanoTime();
+        for (int i = 0; i < DESCRIPTORS; ++i) {
+            checksum += scan.applyAsLong(moduleInfoClasses.get(i % moduleInfoClasses.size()));
+        }
+        long nanos = System.nanoTime() - start;
+        long allocated = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBefore;
+
+        System.out.printf("%-10s %7.0f ns/descriptor, %6d bytes allocated/descriptor (checksum %d)%n", description,
+                (double) nanos / DESCRIPTORS, allocated / DESCRIPTORS, checksum);
+    }
+
+    private static List<byte[]> readRuntimeModuleInfoClasses() throws IOException {
+        try (FileSystem jrt = FileSystems.newFileSystem(URI.create("jrt:/"), Map.of());
+             Stream<Path> modules = Files.list(jrt.getPath("/modules"))) {
+            List<byte[]> moduleInfoClasses = new ArrayList<>();
+            for (Path path : modules.map(module -> module.resolve(Jar.MODULE_INFO_CLASS)).collect(Collectors.toList())) {
+                if (Files.isRegularFile(path)) {
+                    moduleInfoClasses.add(Files.readAllBytes(path));
+                }
+            }
+            return moduleInfoClasses;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package no.ion.jhms.modularizer;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.module.ModuleDescriptor;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ModuleInfoPeekTest {
+    private static final Path MODULE_INFO_CLASS = Path.of("src/test/resources/module-info/module-info.class");
+
+    @Test
+    void verifyPeekMatchesModuleDescriptor() throws IOException {
+        byte[] bytes = Files.readAllBytes(MODULE_INFO_CLASS);
+        ModuleDescriptor descriptor = new ModuleDescriptorFactory(ModuleInfoClassReader.disassemble(bytes)).make();
+
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length).put(bytes).flip();
+        for (ModuleInfoPeek peek : List.of(ModuleInfoPeek.of(bytes), ModuleInfoPeek.of(direct))) {
+            assertEquals("sample", peek.moduleName());
+            assertEquals(Optional.of("1.2.3"), peek.moduleVersion());
+            assertEquals(0, peek.moduleFlags());
+
+            List<String> requires = new ArrayList<>();
+            for (int index = 0; index < peek.requiresCount(); ++index) {
+                requires.add(peek.requiresName(index));
+                var expected = descriptor.requires().stream()
+                        .filter(r -> r.name().equals(requires.get(requires.size() - 1)))
+                        .findAny().orElseThrow();
+                assertEquals(expected.rawCompiledVersion(), peek.requiresVersion(index));
+                assertEquals(expected.modifiers().contains(ModuleDescriptor.Requires.Modifier.MANDATED),
+                        RequiresFlag.MANDATED.hasFlag(peek.requiresFlags(index)));
+            }
+            assertEquals(List.of("java.base", "java.compiler"), requires);
+            assertThrows(IndexOutOfBoundsException.class, () -> peek.requiresName(2));
+        }
+    }
+
+    @Test
+    void verifyPeekWithoutVersions() {
+        ModuleInfoClass moduleInfoClass = MinimalModuleInfoClass.create(0, 55, "11", "a.b");
+        moduleInfoClass.removeModuleVersion();
+        moduleInfoClass.setRequires("c.d", EnumSet.of(RequiresFlag.TRANSITIVE), Optional.empty());
+        var output = new Output();
+        moduleInfoClass.appendTo(output);
+
+        ModuleInfoPeek peek = ModuleInfoPeek.of(output.toByteArray());
+        assertEquals("a.b", peek.moduleName());
+        assertEquals(Optional.empty(), peek.moduleVersion());
+        assertEquals(2, peek.requiresCount());
+        assertEquals(Optional.of("11"), peek.requiresVersion(0));
+        assertEquals("c.d", peek.requiresName(1));
+        assertEquals(Optional.empty(), peek.requiresVersion(1));
+        assertTrue(RequiresFlag.TRANSITIVE.hasFlag(peek.requiresFlags(1)));
+    }
+
+    @Test
+    void verifyTruncatedClassFile() throws IOException {
+        byte[] bytes = Files.readAllBytes(MODULE_INFO_CLASS);
+        for (int length = 0; length < bytes.length; ++length) {
+            byte[] truncated = Arrays.copyOf(bytes, length);
+            try {
+                // The peek reads no further than the Module attribute, so a later truncation is not noticed.
+                assertEquals("sample", ModuleInfoPeek.of(truncated).moduleName(), "length " + length);
+            } catch (BadModuleInfoException e) {
+                // expected
+            }
+        }
+    }
+}
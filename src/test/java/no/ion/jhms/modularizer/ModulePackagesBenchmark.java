@@ -0,0 +1,97 @@
+package no.ion.jhms.modularizer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.module.Configuration;
+import java.lang.module.ModuleDescriptor;
+import java.lang.module.ModuleFinder;
+import java.lang.module.ModuleReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Measures how long it takes the module system to find and resolve the modules of a module path, with and without
+ * the ModulePackages attribute in their module-info.class.  Without it, the packages are derived by listing every
+ * entry of each JAR, as done at boot for the modules on --module-path.
+ *
+ * <p>Not run as part of the tests.  Run with e.g.
+ * {@code java -cp target/classes:target/test-classes no.ion.jhms.modularizer.ModulePackagesBenchmark [MODULES [CLASSES]]}.</p>
+ */
+public class ModulePackagesBenchmark {
+    private static final int ITERATIONS = 20;
+
+    public static void main(String[] args) throws IOException {
+        int modules = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int classesPerModule = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+        Path directory = Files.createTempDirectory("module-packages-benchmark");
+        try {
+            Path without = Files.createDirectory(directory.resolve("without"));
+            Path with = Files.createDirectory(directory.resolve("with"));
+            for (int i = 0; i < modules; ++i) {
+                writeJar(without.resolve("m" + i + ".jar"), "bench.m" + i, classesPerModule, false);
+                writeJar(with.resolve("m" + i + ".jar"), "bench.m" + i, classesPerModule, true);
+            }
+
+            System.out.printf("%d modules with %d classes each%n", modules, classesPerModule);
+            for (int round = 0; round < 3; ++round) {
+                System.out.printf("without ModulePackages: %6.1f ms%n", resolveMillis(without, modules));
+                System.out.printf("with ModulePackages:    %6.1f ms%n", resolveMillis(with, modules));
+            }
+        } finally {
+            try (var paths = Files.walk(directory)) {
+                for (Path path : paths.sorted((a, b) -> b.compareTo(a)).collect(Collectors.toList())) {
+                    Files.delete(path);
+                }
+            }
+        }
+    }
+
+    /** The average time to find and resolve all modules of the module path, like the boot layer does. */
+    private static double resolveMillis(Path modulePath, int modules) {
+        long totalNanos = 0;
+        for (int i = 0; i < ITERATIONS; ++i) {
+            long start = System.nanoTime();
+            ModuleFinder finder = ModuleFinder.of(modulePath);
+            Set<String> roots = finder.findAll().stream()
+                    .map(ModuleReference::descriptor)
+                    .map(ModuleDescriptor::name)
+                    .collect(Collectors.toSet());
+            Configuration configuration = ModuleLayer.boot().configuration().resolve(finder, ModuleFinder.of(), roots);
+            totalNanos += System.nanoTime() - start;
+
+            if (configuration.modules().size() != modules) {
+                throw new IllegalStateException("resolved " + configuration.modules().size() + " modules");
+            }
+        }
+        return totalNanos / 1e6 / ITERATIONS;
+    }
+
+    private static void writeJar(Path path, String moduleName, int classes, boolean withModulePackages)
+            throws IOException {
+        Set<String> packages = new TreeSet<>();
+        try (OutputStream file = Files.newOutputStream(path); var out = new ZipOutputStream(file)) {
+            for (int i = 0; i < classes; ++i) {
+                String packageName = moduleName + ".p" + (i % 50);
+                packages.add(packageName);
+                out.putNextEntry(new ZipEntry(packageName.replace('.', '/') + "/C" + i + ".class"));
+                out.closeEntry();
+            }
+
+            ModuleInfoClass moduleInfoClass = MinimalModuleInfoClass.create(moduleName);
+            if (withModulePackages) {
+                moduleInfoClass.setPackages(packages);
+            }
+            var moduleInfoClassBytes = new Output();
+            moduleInfoClass.appendTo(moduleInfoClassBytes);
+            out.putNextEntry(new ZipEntry(Jar.MODULE_INFO_CLASS));
+            out.write(moduleInfoClassBytes.toByteArray());
+            out.closeEntry();
+        }
+    }
+}
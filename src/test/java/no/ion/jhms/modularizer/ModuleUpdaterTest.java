@@ -1,17 +1,599 @@
 package no.ion.jhms.modularizer;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
 import java.lang.module.ModuleDescriptor;
+import java.lang.module.ModuleFinder;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class ModuleUpdaterTest {
+    private final Path moduleInfoClassPath = Path.of("src/test/resources/module-info/module-info.class");
+
+    @TempDir
+    Path directory;
+
     @Test
     public void addModuleInfoClass() {
         ModuleInfoClassReader reader = ModuleInfoClassReader.open(Path.of("src/test/resources/min-descriptor/module-info.class"));
         ModuleInfoClass moduleInfoClass = reader.parse();
     }
+
+    @Test
+    void verifyStreamingUpdate() throws IOException {
+        byte[] jar = zip(true);
+        byte[] updatedJar = updateStream(jar, new ModuleUpdater.Options()
+                .setVersion(ModuleDescriptor.Version.parse("2.3.4")));
+
+        Path jarPath = directory.resolve("updated.jar");
+        Files.write(jarPath, updatedJar);
+        try (var jarFile = new JarFile(jarPath.toFile())) {
+            assertEquals(3, jarFile.size());
+            assertArrayEquals(new byte[1000], jarFile.getInputStream(jarFile.getEntry("sample/exported/Exported.class")).readAllBytes());
+            assertArrayEquals("text".getBytes(), jarFile.getInputStream(jarFile.getEntry("sample/README")).readAllBytes());
+        }
+
+        try (var updated = new Jar(jarPath)) {
+            ModuleInfoClass moduleInfoClass = updated.readModuleInfoClass().orElseThrow();
+            assertEquals(Optional.of(ModuleDescriptor.Version.parse("2.3.4")), moduleInfoClass.getModuleVersion());
+        }
+    }
+
+    @Test
+    void verifyStreamingStoredEntriesWithDataDescriptors() throws IOException {
+        // The data contains a data descriptor signature, which must not be taken as the end of the entry.
+        byte[] data = { 'P', 'K', 7, 8, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16, 17, 18, 19, 20 };
+        byte[] jar = storedZipWithDataDescriptors(Map.of(
+                Jar.MODULE_INFO_CLASS, Files.readAllBytes(moduleInfoClassPath),
+                "sample/exported/Exported.class", data));
+        assertArrayEquals(jar, updateStream(jar, new ModuleUpdater.Options()));
+
+        Path jarPath = directory.resolve("updated.jar");
+        Files.write(jarPath, updateStream(jar, new ModuleUpdater.Options()
+                .setVersion(ModuleDescriptor.Version.parse("2.3.4"))));
+        try (var jarFile = new JarFile(jarPath.toFile())) {
+            assertArrayEquals(data, jarFile.getInputStream(jarFile.getEntry("sample/exported/Exported.class")).readAllBytes());
+        }
+        try (var updated = new Jar(jarPath)) {
+            assertEquals(Optional.of(ModuleDescriptor.Version.parse("2.3.4")),
+                    updated.readModuleInfoClass().orElseThrow().getModuleVersion());
+        }
+    }
+
+    @Test
+    void verifyStreamingWithoutChangesCopiesTheJar() throws IOException {
+        byte[] jar = zip(true);
+        assertArrayEquals(jar, updateStream(jar, new ModuleUpdater.Options()));
+    }
+
+    @Test
+    void verifyStreamingAddsModuleInfoClass() throws IOException {
+        byte[] updatedJar = updateStream(zip(false), new ModuleUpdater.Options().setModuleName("foo.bar"));
+
+        Path jarPath = directory.resolve("updated.jar");
+        Files.write(jarPath, updatedJar);
+        try (var updated = new Jar(jarPath)) {
+            assertEquals("foo.bar", updated.readModuleInfoClass().orElseThrow().getModuleName());
+        }
+    }
+
+    @Test
+    void verifyOutputLeavesJarUntouched() throws IOException {
+        Path jarPath = directory.resolve("sample.jar");
+        Path outputPath = directory.resolve("output.jar");
+        byte[] jar = zip(true);
+        Files.write(jarPath, jar);
+
+        ModuleUpdater.update(System.out, new ModuleUpdater.Options()
+                .setJarPath(jarPath)
+                .setOutputPath(outputPath)
+                .setVersion(ModuleDescriptor.Version.parse("2.3.4")));
+
+        assertArrayEquals(jar, Files.readAllBytes(jarPath));
+        try (var updated = new Jar(outputPath)) {
+            ModuleInfoClass moduleInfoClass = updated.readModuleInfoClass().orElseThrow();
+            assertEquals(Optional.of(ModuleDescriptor.Version.parse("2.3.4")), moduleInfoClass.getModuleVersion());
+        }
+
+        try (var files = Files.list(directory)) {
+            assertEquals(2, files.count(), "no temporary files are left behind");
+        }
+    }
+
+    @Test
+    void verifyStreamingToOutput() throws IOException {
+        Path outputPath = directory.resolve("output.jar");
+        byte[] jar = zip(true);
+        assertArrayEquals(new byte[0], updateStream(jar, new ModuleUpdater.Options().setOutputPath(outputPath)));
+        assertArrayEquals(jar, Files.readAllBytes(outputPath));
+    }
+
+    @Test
+    void verifyOutputConflictsWithAppend() {
+        var options = new ModuleUpdater.Options()
+                .setJarPath(directory.resolve("sample.jar"))
+                .setOutputPath(directory.resolve("output.jar"))
+                .setAppend(true);
+        assertThrows(ErrorException.class, () -> ModuleUpdater.update(System.out, options));
+    }
+
+    @Test
+    void verifyUnchangedJarIsNotRewritten() throws IOException {
+        Path jarPath = directory.resolve("sample.jar");
+        Files.write(jarPath, zip(true));
+        var options = new ModuleUpdater.Options()
+                .setJarPath(jarPath)
+                .setModuleName("sample")
+                .setVersion(ModuleDescriptor.Version.parse("1.2.3"));
+        // The first update adds the ModulePackages attribute.
+        ModuleUpdater.update(System.out, options);
+        FileTime lastModifiedTime = FileTime.fromMillis(0);
+        Files.setLastModifiedTime(jarPath, lastModifiedTime);
+
+        ModuleUpdater.update(System.out, options);
+
+        assertEquals(lastModifiedTime, Files.getLastModifiedTime(jarPath));
+    }
+
+    @Test
+    void verifyCheck() throws IOException {
+        Path jarPath = directory.resolve("sample.jar");
+        Files.write(jarPath, zip(true));
+        assertThrows(ErrorException.class, () -> ModuleUpdater.update(System.out, new ModuleUpdater.Options()
+                .setJarPath(jarPath)
+                .setCheck(true)
+                .setVersion(ModuleDescriptor.Version.parse("1.2.3"))));
+
+        // Adds the missing ModulePackages attribute.
+        ModuleUpdater.update(System.out, new ModuleUpdater.Options()
+                .setJarPath(jarPath)
+                .setVersion(ModuleDescriptor.Version.parse("1.2.3")));
+        byte[] jar = Files.readAllBytes(jarPath);
+
+        ModuleUpdater.update(System.out, new ModuleUpdater.Options()
+                .setJarPath(jarPath)
+                .setCheck(true)
+                .setVersion(ModuleDescriptor.Version.parse("1.2.3")));
+
+        assertThrows(ErrorException.class, () -> ModuleUpdater.update(System.out, new ModuleUpdater.Options()
+                .setJarPath(jarPath)
+                .setCheck(true)
+                .setVersion(ModuleDescriptor.Version.parse("2.3.4"))));
+        assertArrayEquals(jar, Files.readAllBytes(jarPath));
+    }
+
+    @Test
+    void verifyStreamingCheck() throws IOException {
+        byte[] jar = zip(true);
+        assertArrayEquals(new byte[0], updateStream(jar, new ModuleUpdater.Options()
+                .setCheck(true)
+                .setVersion(ModuleDescriptor.Version.parse("1.2.3"))));
+        assertThrows(ErrorException.class, () -> updateStream(jar, new ModuleUpdater.Options()
+                .setCheck(true)
+                .setVersion(ModuleDescriptor.Version.parse("2.3.4"))));
+    }
+
+    @Test
+    void verifyMultiReleaseUpdate() throws IOException {
+        Path jarPath = directory.resolve("multi-release.jar");
+        Files.write(jarPath, multiReleaseZip());
+
+        ModuleUpdater.update(System.out, new ModuleUpdater.Options()
+                .setJarPath(jarPath)
+                .setVersion(ModuleDescriptor.Version.parse("2.3.4")));
+        assertEquals(Map.of(Jar.BASE_RELEASE, "2.3.4", 11, "2.3.4"), versionsByRelease(jarPath));
+
+        ModuleUpdater.update(System.out, new ModuleUpdater.Options()
+                .setJarPath(jarPath)
+                .setRelease(11)
+                .setVersion(ModuleDescriptor.Version.parse("3.4.5")));
+        assertEquals(Map.of(Jar.BASE_RELEASE, "2.3.4", 11, "3.4.5"), versionsByRelease(jarPath));
+    }
+
+    @Test
+    void verifyStreamingMultiReleaseUpdate() throws IOException {
+        Path jarPath = directory.resolve("multi-release.jar");
+        Files.write(jarPath, updateStream(multiReleaseZip(), new ModuleUpdater.Options()
+                .setRelease(11)
+                .setVersion(ModuleDescriptor.Version.parse("3.4.5"))));
+        assertEquals(Map.of(Jar.BASE_RELEASE, "1.2.3", 11, "3.4.5"), versionsByRelease(jarPath));
+    }
+
+    @Test
+    void verifyStreamingZip64() throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        int entries = 0x10000 + 10;
+        try (var out = new ZipOutputStream(bytes)) {
+            for (int i = 0; i < entries; ++i) {
+                out.putNextEntry(new ZipEntry("sample/Entry" + i + ".class"));
+                out.closeEntry();
+            }
+        }
+
+        Path jarPath = directory.resolve("many.jar");
+        Files.write(jarPath, updateStream(bytes.toByteArray(), new ModuleUpdater.Options().setModuleName("many")));
+        try (var jarFile = new JarFile(jarPath.toFile())) {
+            assertEquals(entries + 1, jarFile.size());
+        }
+        try (var jar = new Jar(jarPath)) {
+            assertEquals("many", jar.readModuleInfoClass().orElseThrow().getModuleName());
+        }
+    }
+
+    @Test
+    void verifyNestedUpdate() throws IOException {
+        for (boolean stored : List.of(true, false)) {
+            Path outerPath = directory.resolve("app-" + stored + ".jar");
+            var bytes = new ByteArrayOutputStream();
+            try (var out = new ZipOutputStream(bytes)) {
+                out.putNextEntry(new ZipEntry("BOOT-INF/classes/App.class"));
+                out.write(new byte[100]);
+                out.closeEntry();
+
+                byte[] nested = zip(true);
+                var entry = new ZipEntry("BOOT-INF/lib/sample.jar");
+                if (stored) {
+                    var crc = new CRC32();
+                    crc.update(nested);
+                    entry.setMethod(ZipEntry.STORED);
+                    entry.setSize(nested.length);
+                    entry.setCrc(crc.getValue());
+                }
+                out.putNextEntry(entry);
+                out.write(nested);
+                out.closeEntry();
+            }
+            Files.write(outerPath, bytes.toByteArray());
+
+            Path nestedPath = Path.of(outerPath + "!/BOOT-INF/lib/sample.jar");
+            ModuleUpdater.update(System.out, new ModuleUpdater.Options()
+                    .setJarPath(nestedPath)
+                    .setVersion(ModuleDescriptor.Version.parse("2.3.4")));
+
+            try (var jar = new Jar(nestedPath)) {
+                ModuleInfoClass moduleInfoClass = jar.readModuleInfoClass().orElseThrow();
+                assertEquals(Optional.of(ModuleDescriptor.Version.parse("2.3.4")), moduleInfoClass.getModuleVersion());
+            }
+
+            try (var jarFile = new JarFile(outerPath.toFile())) {
+                assertEquals(2, jarFile.size());
+                ZipEntry entry = jarFile.getEntry("BOOT-INF/lib/sample.jar");
+                assertEquals(stored ? ZipEntry.STORED : ZipEntry.DEFLATED, entry.getMethod());
+                assertArrayEquals(new byte[100], jarFile.getInputStream(jarFile.getEntry("BOOT-INF/classes/App.class")).readAllBytes());
+            }
+        }
+    }
+
+    @Test
+    void verifyModulePackages() throws IOException {
+        Path jarPath = directory.resolve("sample.jar");
+        Files.write(jarPath, zip(true));
+
+        ModuleUpdater.update(System.out, new ModuleUpdater.Options()
+                .setJarPath(jarPath)
+                .setVersion(ModuleDescriptor.Version.parse("2.3.4")));
+
+        try (var jar = new Jar(jarPath)) {
+            // sample contains a resource, and sample.internal is opened but has no entries.
+            assertEquals(Set.of("sample", "sample.exported", "sample.internal"),
+                    jar.readModuleInfoClass().orElseThrow().getPackages());
+        }
+        ModuleDescriptor descriptor = ModuleFinder.of(jarPath).find("sample").orElseThrow().descriptor();
+        assertEquals(Set.of("sample", "sample.exported", "sample.internal"), descriptor.packages());
+    }
+
+    @Test
+    void verifyModulePackagesExcludeResourceDirectories() throws IOException {
+        Path jarPath = directory.resolve("sample.jar");
+        Files.write(jarPath, zip(true, "static/index.html", "native/linux/libsample.so"));
+
+        ModuleUpdater.update(System.out, new ModuleUpdater.Options()
+                .setJarPath(jarPath)
+                .setVersion(ModuleDescriptor.Version.parse("2.3.4")));
+
+        try (var jar = new Jar(jarPath)) {
+            assertEquals(Set.of("sample", "sample.exported", "sample.internal"),
+                    jar.readModuleInfoClass().orElseThrow().getPackages());
+        }
+        var out = new ByteArrayOutputStream();
+        var printStream = new PrintStream(out);
+        ModuleDescription.describeModule(printStream, new ModuleDescription.Options().setJarPath(jarPath));
+        printStream.flush();
+        assertTrue(out.toString().startsWith("module sample { // @2.3.4\n"), out.toString());
+    }
+
+    @Test
+    void verifyDirectiveEdits() throws IOException {
+        Path jarPath = directory.resolve("sample.jar");
+        Files.write(jarPath, zip(true));
+
+        ModuleUpdater.update(System.out, new ModuleUpdater.Options()
+                .setJarPath(jarPath)
+                .setMainClass("sample.exported.Exported")
+                .removeExports("sample.exported")
+                .addExports(new ModuleUpdater.Options.Exports("sample").addTarget("java.compiler"))
+                .addOpens(new ModuleUpdater.Options.Opens("sample.exported"))
+                .removeOpens("sample.internal")
+                .addUses("java.lang.Runnable")
+                .removeUses("javax.tools.Tool")
+                .removeProvides("java.lang.Object")
+                .addProvides(new ModuleUpdater.Options.Provides("java.lang.Runnable")
+                        .addImplementation("sample.exported.Exported")));
+
+        ModuleDescriptor descriptor = ModuleFinder.of(jarPath).find("sample").orElseThrow().descriptor();
+        assertEquals(Optional.of("sample.exported.Exported"), descriptor.mainClass());
+        assertEquals("[sample to [java.compiler]]", descriptor.exports().toString());
+        assertEquals("[sample.exported]", descriptor.opens().toString());
+        assertEquals(Set.of("java.lang.Runnable"), descriptor.uses());
+        assertEquals("[java.lang.Runnable with [sample.exported.Exported]]", descriptor.provides().toString());
+        assertEquals(Set.of("sample", "sample.exported"), descriptor.packages());
+
+        ModuleUpdater.update(System.out, new ModuleUpdater.Options().setJarPath(jarPath).removeMainClass());
+        assertEquals(Optional.empty(), ModuleFinder.of(jarPath).find("sample").orElseThrow().descriptor().mainClass());
+    }
+
+    @Test
+    void verifyDirectiveEditsAreValidated() throws IOException {
+        Path jarPath = directory.resolve("sample.jar");
+        Files.write(jarPath, zip(true));
+        byte[] original = Files.readAllBytes(jarPath);
+
+        for (var options : List.of(
+                new ModuleUpdater.Options().setMainClass("sample.Missing"),
+                new ModuleUpdater.Options().addExports(new ModuleUpdater.Options.Exports("missing")),
+                new ModuleUpdater.Options().addOpens(new ModuleUpdater.Options.Opens("sample.missing")),
+                new ModuleUpdater.Options().addProvides(new ModuleUpdater.Options.Provides("java.lang.Runnable")
+                        .addImplementation("sample.exported.Missing")))) {
+            var exception = assertThrows(ErrorException.class, () -> ModuleUpdater.update(System.out,
+                    options.setJarPath(jarPath)));
+            assertTrue(exception.getMessage().matches(".*no (package|class) .*[mM]issing in .*"), exception.getMessage());
+        }
+
+        assertArrayEquals(original, Files.readAllBytes(jarPath));
+    }
+
+    @Test
+    void verifyAutomaticModuleName() throws IOException {
+        var manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("Created-By", "test");
+        Path jarPath = directory.resolve("plain.jar");
+        try (var out = new JarOutputStream(Files.newOutputStream(jarPath), manifest)) {
+            out.putNextEntry(new ZipEntry("plain/Plain.class"));
+            out.write(new byte[1000]);
+            out.closeEntry();
+        }
+
+        var options = new ModuleUpdater.Options().setJarPath(jarPath).setAutomaticModuleName("plain.module");
+        ModuleUpdater.update(System.out, options);
+        ModuleDescriptor descriptor = ModuleFinder.of(jarPath).find("plain.module").orElseThrow().descriptor();
+        assertTrue(descriptor.isAutomatic());
+        try (var jarFile = new JarFile(jarPath.toFile())) {
+            assertEquals("test", jarFile.getManifest().getMainAttributes().getValue("Created-By"));
+            assertArrayEquals(new byte[1000], jarFile.getInputStream(jarFile.getEntry("plain/Plain.class")).readAllBytes());
+        }
+
+        ModuleUpdater.update(System.out, options.setCheck(true));
+
+        Path noManifestPath = directory.resolve("no-manifest.jar");
+        Files.write(noManifestPath, zip(false));
+        ModuleUpdater.update(System.out, new ModuleUpdater.Options()
+                .setJarPath(noManifestPath)
+                .setAutomaticModuleName("no.manifest"));
+        assertTrue(ModuleFinder.of(noManifestPath).find("no.manifest").isPresent());
+
+        assertThrows(ErrorException.class, () -> new ModuleUpdater.Options().setAutomaticModuleName("not-a-name"));
+        assertThrows(ErrorException.class, () -> ModuleUpdater.update(System.out, new ModuleUpdater.Options()
+                .setJarPath(jarPath)
+                .setAutomaticModuleName("plain.module")
+                .setVersion(ModuleDescriptor.Version.parse("1.0"))));
+    }
+
+    @Test
+    void verifyHashModules() throws IOException {
+        Path modulePath = Files.createDirectory(directory.resolve("mods"));
+        ModuleHasherTest.writeModulePath(modulePath);
+        Path jarPath = modulePath.resolve("base.jar");
+        var options = new ModuleUpdater.Options()
+                .setJarPath(jarPath)
+                .setHashModules(Pattern.compile("app\\..*"))
+                .setModulePath(List.of(modulePath));
+
+        ModuleUpdater.update(System.out, options);
+        ModuleInfoClass moduleInfoClass;
+        try (var jar = new Jar(jarPath)) {
+            moduleInfoClass = jar.readModuleInfoClass().orElseThrow();
+        }
+        assertEquals(Optional.of("SHA-256"), moduleInfoClass.getModuleHashesAlgorithm());
+        assertEquals(Set.of("app.a", "app.c"), moduleInfoClass.getModuleHashes().keySet());
+        assertArrayEquals(ModuleHasher.hash(ModuleFinder.of(modulePath).find("app.c").orElseThrow()),
+                moduleInfoClass.getModuleHashes().get("app.c"));
+
+        // Unchanged dependents give the same hashes.
+        ModuleUpdater.update(System.out, options.setCheck(true));
+
+        assertThrows(ErrorException.class, () -> ModuleUpdater.update(System.out, new ModuleUpdater.Options()
+                .setJarPath(jarPath)
+                .setHashModules(Pattern.compile("app\\..*"))));
+    }
+
+    @Test
+    void verifyJmodUpdate() throws IOException {
+        byte[] header = {'J', 'M', 1, 0};
+        var bytes = new ByteArrayOutputStream();
+        bytes.write(header);
+        try (var out = new ZipOutputStream(bytes)) {
+            out.putNextEntry(new ZipEntry("classes/" + Jar.MODULE_INFO_CLASS));
+            out.write(Files.readAllBytes(moduleInfoClassPath));
+            out.closeEntry();
+            out.putNextEntry(new ZipEntry("conf/sample.properties"));
+            out.write("key=value\n".getBytes());
+            out.closeEntry();
+        }
+        Path jmodPath = directory.resolve("sample.jmod");
+        Files.write(jmodPath, bytes.toByteArray());
+
+        ModuleUpdater.update(System.out, new ModuleUpdater.Options()
+                .setJarPath(jmodPath)
+                .setVersion(ModuleDescriptor.Version.parse("2.3.4")));
+        assertEquals(Map.of(Jar.BASE_RELEASE, "2.3.4"), versionsByRelease(jmodPath));
+
+        byte[] updated = Files.readAllBytes(jmodPath);
+        assertArrayEquals(header, Arrays.copyOf(updated, header.length));
+        try (var jarFile = new JarFile(jmodPath.toFile())) {
+            assertEquals(2, jarFile.size());
+            assertEquals("key=value\n", new String(jarFile.getInputStream(jarFile.getEntry("conf/sample.properties")).readAllBytes()));
+        }
+
+        assertThrows(ErrorException.class, () -> ModuleUpdater.update(System.out, new ModuleUpdater.Options()
+                .setJarPath(jmodPath)
+                .setOutputPath(directory.resolve("sample.jar"))
+                .setVersion(ModuleDescriptor.Version.parse("3.4.5"))));
+    }
+
+    @Test
+    void verifyDirectoryUpdate() throws IOException {
+        Path classesPath = directory.resolve("classes");
+        Files.createDirectories(classesPath);
+        Path moduleInfoPath = classesPath.resolve(Jar.MODULE_INFO_CLASS);
+        Files.copy(moduleInfoClassPath, moduleInfoPath);
+
+        ModuleUpdater.update(System.out, new ModuleUpdater.Options()
+                .setJarPath(classesPath)
+                .setVersion(ModuleDescriptor.Version.parse("2.3.4")));
+        assertEquals(Optional.of(ModuleDescriptor.Version.parse("2.3.4")),
+                ModuleInfoClassReader.open(moduleInfoPath).parse().getModuleVersion());
+
+        ModuleUpdater.update(System.out, new ModuleUpdater.Options()
+                .setJarPath(classesPath)
+                .setCheck(true)
+                .setVersion(ModuleDescriptor.Version.parse("2.3.4")));
+        assertThrows(ErrorException.class, () -> ModuleUpdater.update(System.out, new ModuleUpdater.Options()
+                .setJarPath(classesPath)
+                .setCheck(true)
+                .setVersion(ModuleDescriptor.Version.parse("3.4.5"))));
+        assertThrows(ErrorException.class, () -> ModuleUpdater.update(System.out, new ModuleUpdater.Options()
+                .setJarPath(classesPath)
+                .setOutputPath(directory.resolve("out.jar"))
+                .setVersion(ModuleDescriptor.Version.parse("3.4.5"))));
+    }
+
+    private byte[] multiReleaseZip() throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new ZipOutputStream(bytes)) {
+            for (int release : List.of(Jar.BASE_RELEASE, 11)) {
+                out.putNextEntry(new ZipEntry(Jar.moduleInfoClassName(release)));
+                out.write(Files.readAllBytes(moduleInfoClassPath));
+                out.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
+
+    /** A ZIP of the entries stored with general purpose flag bit 3, i.e. sizes and CRC-32 in data descriptors. */
+    private static byte[] storedZipWithDataDescriptors(Map<String, byte[]> entries) {
+        ByteBuffer local = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer central = ByteBuffer.allocate(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+        for (var entry : new TreeMap<>(entries).entrySet()) {
+            byte[] name = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            byte[] content = entry.getValue();
+            var crc = new CRC32();
+            crc.update(content);
+            int offset = local.position();
+
+            local.putInt(0x04034b50).putShort((short) 10).putShort((short) 8).putShort((short) 0)
+                    .putInt(0).putInt(0).putInt(0).putInt(0).putShort((short) name.length).putShort((short) 0)
+                    .put(name).put(content)
+                    .putInt(0x08074b50).putInt((int) crc.getValue()).putInt(content.length).putInt(content.length);
+            central.putInt(0x02014b50).putShort((short) 10).putShort((short) 10).putShort((short) 8)
+                    .putShort((short) 0).putInt(0).putInt((int) crc.getValue()).putInt(content.length)
+                    .putInt(content.length).putShort((short) name.length).putInt(0).putShort((short) 0)
+                    .putShort((short) 0).putInt(0).putInt(offset).put(name);
+        }
+
+        int centralDirectoryOffset = local.position();
+        int centralDirectorySize = central.position();
+        local.put(central.flip())
+                .putInt(0x06054b50).putInt(0).putShort((short) entries.size()).putShort((short) entries.size())
+                .putInt(centralDirectorySize).putInt(centralDirectoryOffset).putShort((short) 0);
+        return Arrays.copyOf(local.array(), local.position());
+    }
+
+    private static Map<Integer, String> versionsByRelease(Path jarPath) {
+        var versions = new HashMap<Integer, String>();
+        try (var jar = new Jar(jarPath)) {
+            jar.readModuleInfoClassBytesByRelease().forEach((release, bytes) -> versions.put(release,
+                    ModuleInfoClassReader.disassemble(bytes).getModuleVersion().orElseThrow().toString()));
+        }
+        return versions;
+    }
+
+    private static byte[] updateStream(byte[] jar, ModuleUpdater.Options options) {
+        var out = new ByteArrayOutputStream();
+        options.setJarPath(Path.of(ModuleUpdater.STANDARD_STREAMS)).setIn(new ByteArrayInputStream(jar));
+        ModuleUpdater.update(new PrintStream(out), options);
+        return out.toByteArray();
+    }
+
+    /**
+     * The sample module, with the given empty resources added.  Deflated entries written by ZipOutputStream have
+     * data descriptors, stored entries do not.
+     */
+    private byte[] zip(boolean withModuleInfoClass, String... resources) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new ZipOutputStream(bytes)) {
+            out.putNextEntry(new ZipEntry("sample/exported/Exported.class"));
+            out.write(new byte[1000]);
+            out.closeEntry();
+
+            if (withModuleInfoClass) {
+                out.putNextEntry(new ZipEntry(Jar.MODULE_INFO_CLASS));
+                out.write(Files.readAllBytes(moduleInfoClassPath));
+                out.closeEntry();
+            }
+
+            var stored = new ZipEntry("sample/README");
+            stored.setMethod(ZipEntry.STORED);
+            stored.setSize(4);
+            stored.setCrc(0x3b8ba7c7L);
+            out.putNextEntry(stored);
+            out.write("text".getBytes());
+            out.closeEntry();
+
+            for (String resource : resources) {
+                out.putNextEntry(new ZipEntry(resource));
+                out.closeEntry();
+            }
+        }
+        return bytes.toByteArray();
+    }
 }
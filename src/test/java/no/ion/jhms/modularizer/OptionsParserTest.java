@@ -2,7 +2,9 @@ package no.ion.jhms.modularizer;
 
 import org.junit.jupiter.api.Test;
 
+import java.io.File;
 import java.lang.module.ModuleDescriptor;
+import java.nio.file.Path;
 import java.util.List;
 import java.util.Optional;
 
@@ -54,6 +56,90 @@ class OptionsParserTest {
         assertEquals(Optional.of(ModuleDescriptor.Version.parse("2.3.4")), requires0.version());
     }
 
+    @Test
+    void verifyAppend() {
+        assertFalse(OptionsParser.parse("--update").updateOptions().append());
+        assertTrue(OptionsParser.parse("--append").updateOptions().append());
+    }
+
+    @Test
+    void verifyOutputAndFsync() {
+        var options = OptionsParser.parse("--output", "out.jar", "--fsync", "all");
+        assertEquals("out.jar", options.updateOptions().outputPath().toString());
+        assertEquals(AtomicFile.Durability.ALL, options.updateOptions().durability());
+        assertEquals(AtomicFile.Durability.FILE, OptionsParser.parse("--update").updateOptions().durability());
+        assertThrows(ErrorException.class, () -> OptionsParser.parse("--fsync", "sometimes"));
+    }
+
+    @Test
+    void verifyCompression() {
+        assertEquals(Optional.of(JarRewriter.Compression.MAX),
+                OptionsParser.parse("--compression", "max").updateOptions().compression());
+        assertEquals(Optional.empty(), OptionsParser.parse("--update").updateOptions().compression());
+        assertThrows(ErrorException.class, () -> OptionsParser.parse("--compression", "9"));
+    }
+
+    @Test
+    void verifyCheck() {
+        assertFalse(OptionsParser.parse("--update").updateOptions().check());
+        assertTrue(OptionsParser.parse("--check").updateOptions().check());
+    }
+
+    @Test
+    void verifyRelease() {
+        var options = OptionsParser.parse("--release", "11");
+        assertEquals(Optional.of(11), options.updateOptions().release());
+        assertEquals(Optional.of(11), options.describeOptions().release());
+        assertEquals(Optional.empty(), OptionsParser.parse("--update").updateOptions().release());
+        assertThrows(ErrorException.class, () -> OptionsParser.parse("--release", "8"));
+    }
+
+    @Test
+    void verifyRuntimeImage() {
+        assertEquals(Optional.of(Path.of("/opt/jdk")),
+                OptionsParser.parse("--runtime-image", "/opt/jdk").describeOptions().runtimeImage());
+    }
+
+    @Test
+    void verifyOpensUsesAndProvides() {
+        var options = OptionsParser.parse("--add-opens", "a.b to m1, m2", "--remove-opens", "c",
+                "--add-uses", "a.S", "--remove-uses", "b.T",
+                "--add-provides", "a.S with a.b.Impl, a.b.Impl$Nested", "--remove-provides", "b.T").updateOptions();
+        assertEquals(1, options.opensToAdd().size());
+        assertEquals("a.b", options.opensToAdd().get(0).packageName());
+        assertEquals(List.of("m1", "m2"), options.opensToAdd().get(0).moduleTargets());
+        assertEquals(List.of("c"), options.opensToRemove());
+        assertEquals(List.of("a.S"), options.usesToAdd());
+        assertEquals(List.of("b.T"), options.usesToRemove());
+        assertEquals(1, options.providesToAdd().size());
+        assertEquals("a.S", options.providesToAdd().get(0).serviceName());
+        assertEquals(List.of("a.b.Impl", "a.b.Impl$Nested"), options.providesToAdd().get(0).implementationNames());
+        assertEquals(List.of("b.T"), options.providesToRemove());
+
+        assertThrows(ErrorException.class, () -> OptionsParser.parse("--add-provides", "a.S"));
+        assertThrows(ErrorException.class, () -> OptionsParser.parse("--add-provides", "a.S with"));
+        assertThrows(ErrorException.class, () -> OptionsParser.parse("--add-uses", "S"));
+        assertThrows(ErrorException.class, () -> OptionsParser.parse("--main-class", "a.b-c"));
+        assertEquals(Optional.of("a.Main"), OptionsParser.parse("--main-class", "a.Main").updateOptions().mainClass());
+    }
+
+    @Test
+    void verifyAutomaticModuleName() {
+        assertEquals(Optional.of("a.b"),
+                OptionsParser.parse("--automatic-module-name", "a.b").updateOptions().automaticModuleName());
+        assertThrows(ErrorException.class, () -> OptionsParser.parse("--automatic-module-name", "a.b-c"));
+    }
+
+    @Test
+    void verifyHashModules() {
+        var options = OptionsParser.parse("--hash-modules", "app\\..*", "--module-path",
+                "lib" + File.pathSeparator + "app.jar").updateOptions();
+        assertEquals("app\\..*", options.hashModules().orElseThrow().pattern());
+        assertEquals(Optional.of(List.of(Path.of("lib"), Path.of("app.jar"))), options.modulePath());
+        assertThrows(ErrorException.class, () -> OptionsParser.parse("--hash-modules", "("));
+        assertThrows(ErrorException.class, () -> OptionsParser.parse("--module-path", ""));
+    }
+
     @Test
     void testDescribe() {
         var options = OptionsParser.parse("--describe-module");
@@ -7,11 +7,18 @@ import java.io.ByteArrayOutputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
 import java.lang.module.ModuleDescriptor;
+import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.EnumSet;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
 
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class SerializationTest {
@@ -58,4 +65,74 @@ class SerializationTest {
         assertEquals(Optional.of(ModuleDescriptor.Version.parse("2.3.4")), updatedVersion);
 
     }
+
+    @Test void verifyEditsLeaveNoOrphanedConstants() {
+        byte[] original = serialize(ModuleInfoClassReader.open(path).parse());
+
+        var moduleInfoClass = ModuleInfoClassReader.open(path).parse();
+        moduleInfoClass.setRequires("x.y", EnumSet.noneOf(RequiresFlag.class),
+                Optional.of(ModuleDescriptor.Version.parse("1")));
+        moduleInfoClass.setExports("x.y", List.of("x.y"));
+        moduleInfoClass.setMainClass("x.y.Main");
+        serialize(moduleInfoClass);
+        moduleInfoClass.removeRequires("x.y");
+        moduleInfoClass.removeExports("x.y");
+        moduleInfoClass.removeMainClass();
+        assertArrayEquals(original, serialize(moduleInfoClass));
+
+        var editedOnce = ModuleInfoClassReader.open(path).parse();
+        editedOnce.setModuleVersion(ModuleDescriptor.Version.parse("2.3.4"));
+        var editedRepeatedly = ModuleInfoClassReader.open(path).parse();
+        for (String version : List.of("3", "4", "5", "2.3.4")) {
+            editedRepeatedly.setModuleVersion(ModuleDescriptor.Version.parse(version));
+            serialize(editedRepeatedly);
+        }
+        assertArrayEquals(serialize(editedOnce), serialize(editedRepeatedly));
+
+        var versionRemoved = ModuleInfoClassReader.open(path).parse();
+        versionRemoved.removeModuleVersion();
+        assertEquals(original.length - (3 + "1.2.3".length()), serialize(versionRemoved).length);
+    }
+
+    @Test void verifyDirectiveEditsStayConsistent() {
+        var moduleInfoClass = ModuleInfoClassReader.open(path).parse();
+        moduleInfoClass.setRequires("x.y", EnumSet.of(RequiresFlag.TRANSITIVE), Optional.empty());
+        moduleInfoClass.removeRequires("java.compiler");
+        moduleInfoClass.removeRequires("x.y");
+        moduleInfoClass.setRequires("x.y", EnumSet.noneOf(RequiresFlag.class), Optional.empty());
+        assertEquals(0, moduleInfoClass.getRequires("x.y").orElseThrow().requiresFlags());
+        assertTrue(moduleInfoClass.getRequires("java.compiler").isEmpty());
+        assertThrows(ErrorException.class, () -> moduleInfoClass.removeRequires("java.base"));
+
+        moduleInfoClass.setExports("sample.exported", List.of("x.y"));
+        moduleInfoClass.removeOpens("sample.internal");
+        moduleInfoClass.setOpens("sample.internal", List.of());
+        moduleInfoClass.removeUses("javax.tools.Tool");
+        moduleInfoClass.addUses("x.y.Service");
+        moduleInfoClass.addUses("javax.tools.Tool");
+        moduleInfoClass.setProvides("java.lang.Object", List.of("sample.internal.Other"));
+        moduleInfoClass.setProvides("x.y.Service", List.of("sample.internal.Internal"));
+        moduleInfoClass.removeProvides("x.y.Service");
+
+        // Edits after serialization, when the constant pool has been compacted, must see the same directives.
+        ModuleDescriptor descriptor = ModuleDescriptor.read(ByteBuffer.wrap(serialize(moduleInfoClass)));
+        moduleInfoClass.addUses("x.y.Service");
+        moduleInfoClass.setProvides("java.lang.Object", List.of("sample.internal.Other"));
+        assertEquals(descriptor, ModuleDescriptor.read(ByteBuffer.wrap(serialize(moduleInfoClass))));
+
+        assertEquals(Set.of("java.base", "x.y"), descriptor.requires().stream()
+                .map(ModuleDescriptor.Requires::name)
+                .collect(Collectors.toSet()));
+        assertEquals(Set.of("x.y"), descriptor.exports().iterator().next().targets());
+        assertTrue(descriptor.opens().iterator().next().targets().isEmpty());
+        assertEquals(Set.of("javax.tools.Tool", "x.y.Service"), descriptor.uses());
+        assertEquals(1, descriptor.provides().size());
+        assertEquals(List.of("sample.internal.Other"), descriptor.provides().iterator().next().providers());
+    }
+
+    private static byte[] serialize(ModuleInfoClass moduleInfoClass) {
+        Output output = new Output();
+        moduleInfoClass.appendTo(output);
+        return output.toByteArray();
+    }
 }